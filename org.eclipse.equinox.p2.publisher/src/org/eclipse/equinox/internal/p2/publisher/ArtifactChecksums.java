@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.publisher.PublisherInfo;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+
+/**
+ * Computes the checksums recorded in artifact descriptors.  All of the checksums of a
+ * file are computed in a single pass over its content.
+ * <p>
+ * Checksums are identified by the name of their {@link MessageDigest} algorithm, for example
+ * <code>MD5</code> or <code>SHA-256</code>.  The MD5 checksum is stored in the
+ * {@link IArtifactDescriptor#DOWNLOAD_MD5} property, other checksums are stored in a
+ * property named {@link #CHECKSUM_PROPERTY_PREFIX} followed by the lower case algorithm name.
+ * </p>
+ */
+public class ArtifactChecksums {
+	public static final String MD5 = "MD5"; //$NON-NLS-1$
+	public static final String CHECKSUM_PROPERTY_PREFIX = "download.checksum."; //$NON-NLS-1$
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Returns the algorithms of the checksums to record for artifacts published with the
+	 * given info, that is, MD5 if asked for and any additional algorithms set on the info.
+	 * @param info the publisher info, may be <code>null</code>
+	 * @param md5 whether to include MD5
+	 * @return the checksum algorithms, never <code>null</code>
+	 */
+	public static String[] getAlgorithms(IPublisherInfo info, boolean md5) {
+		String[] additional = info instanceof PublisherInfo ? ((PublisherInfo) info).getChecksumAlgorithms() : new String[0];
+		if (!md5)
+			return additional;
+		String[] result = new String[additional.length + 1];
+		result[0] = MD5;
+		System.arraycopy(additional, 0, result, 1, additional.length);
+		return result;
+	}
+
+	/**
+	 * Returns the name of the artifact descriptor property that holds checksums computed
+	 * with the given algorithm.
+	 */
+	public static String getPropertyName(String algorithm) {
+		if (MD5.equalsIgnoreCase(algorithm))
+			return IArtifactDescriptor.DOWNLOAD_MD5;
+		return CHECKSUM_PROPERTY_PREFIX + algorithm.toLowerCase();
+	}
+
+	/**
+	 * Creates a digest for each of the given algorithms.  Algorithms that are not available
+	 * in this VM have a <code>null</code> digest.
+	 */
+	public static MessageDigest[] createDigests(String[] algorithms) {
+		MessageDigest[] result = new MessageDigest[algorithms.length];
+		for (int i = 0; i < algorithms.length; i++) {
+			try {
+				result[i] = MessageDigest.getInstance(algorithms[i]);
+			} catch (NoSuchAlgorithmException e) {
+				// this checksum cannot be computed
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a map from algorithm to hex encoded checksum for the given digests.
+	 * Algorithms without a digest are left out.
+	 */
+	public static Map<String, String> toChecksums(String[] algorithms, MessageDigest[] digests) {
+		Map<String, String> result = new HashMap<String, String>(algorithms.length);
+		for (int i = 0; i < algorithms.length; i++)
+			if (digests[i] != null)
+				result.put(algorithms[i], toHexString(digests[i].digest()));
+		return result;
+	}
+
+	/**
+	 * Computes the checksums of the given file with the given algorithms.  Checksums that
+	 * are already known are not computed again.  The file is only read if at least one of
+	 * the checksums is not known.
+	 * @param file the file to compute the checksums of
+	 * @param algorithms the algorithms to use
+	 * @param known checksums already computed keyed by algorithm, may be <code>null</code>
+	 * @return a map from algorithm to hex encoded checksum; algorithms that are not available
+	 * or cannot be applied to the file are left out
+	 */
+	public static Map<String, String> compute(File file, String[] algorithms, Map<String, String> known) {
+		Map<String, String> result = new HashMap<String, String>(algorithms.length);
+		List<String> missing = new ArrayList<String>(algorithms.length);
+		for (int i = 0; i < algorithms.length; i++) {
+			String checksum = known == null ? null : known.get(algorithms[i]);
+			if (checksum != null)
+				result.put(algorithms[i], checksum);
+			else
+				missing.add(algorithms[i]);
+		}
+		if (missing.isEmpty() || file == null || file.isDirectory() || !file.exists())
+			return result;
+
+		String[] toCompute = missing.toArray(new String[missing.size()]);
+		MessageDigest[] digests = createDigests(toCompute);
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) != -1)
+				update(digests, buffer, 0, read);
+		} catch (IOException e) {
+			return result;
+		} finally {
+			if (input != null)
+				try {
+					input.close();
+				} catch (IOException e) {
+					// ignore
+				}
+		}
+		result.putAll(toChecksums(toCompute, digests));
+		return result;
+	}
+
+	/**
+	 * Feeds the given bytes to all of the given digests.
+	 */
+	public static void update(MessageDigest[] digests, byte[] buffer, int offset, int length) {
+		for (int i = 0; i < digests.length; i++)
+			if (digests[i] != null)
+				digests[i].update(buffer, offset, length);
+	}
+
+	private static String toHexString(byte[] digest) {
+		StringBuffer buf = new StringBuffer(digest.length * 2);
+		for (int i = 0; i < digest.length; i++) {
+			if ((digest[i] & 0xFF) < 0x10)
+				buf.append('0');
+			buf.append(Integer.toHexString(digest[i] & 0xFF));
+		}
+		return buf.toString();
+	}
+}
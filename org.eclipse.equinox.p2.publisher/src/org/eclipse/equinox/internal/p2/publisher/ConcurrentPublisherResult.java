@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.index.Index;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.publisher.IPublisherResult;
+
+/**
+ * A publisher result that can be shared by actions running on different threads.
+ * <p>
+ * The IUs are spread over a fixed number of stripes by id, each with its own lock, so
+ * adding IUs with different ids rarely contends.  Within a stripe the IUs with the same
+ * id are kept in an array that is replaced rather than changed, so lookups by id, including
+ * the id index used by queries, only hold a lock long enough to fetch the arrays.  Iterating
+ * over all IUs takes every stripe lock at once and works on a snapshot.
+ * </p><p>
+ * A result created by {@link #share(IPublisherResult)} reads through to the result it
+ * was shared for, which is not changed until the IUs are merged back.
+ * </p>
+ */
+public class ConcurrentPublisherResult extends IndexProvider<IInstallableUnit> implements IPublisherResult {
+	private static final int DEFAULT_STRIPES = 16;
+	private static final IInstallableUnit[] NO_UNITS = new IInstallableUnit[0];
+
+	/**
+	 * The IUs whose ids hash to the same stripe.
+	 */
+	private static class Stripe {
+		final Map<String, IInstallableUnit[]> rootIUs = new HashMap<String, IInstallableUnit[]>();
+		final Map<String, IInstallableUnit[]> nonRootIUs = new HashMap<String, IInstallableUnit[]>();
+	}
+
+	/**
+	 * Answers queries on IU ids from the stripes as they are when the query runs.
+	 */
+	private class ConcurrentIdIndex extends Index<IInstallableUnit> {
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_ID, booleanExpr, null);
+			List<IInstallableUnit> candidates = new ArrayList<IInstallableUnit>();
+			if (queriedKeys instanceof String) {
+				addCandidates((String) queriedKeys, candidates);
+			} else if (queriedKeys instanceof Collection<?>) {
+				for (Object key : (Collection<?>) queriedKeys) {
+					if (!(key instanceof String))
+						return null;
+					addCandidates((String) key, candidates);
+				}
+			} else {
+				// the query does not select by id, it has to look at everything
+				return null;
+			}
+			return candidates.iterator();
+		}
+
+		private void addCandidates(String id, List<IInstallableUnit> candidates) {
+			IInstallableUnit[] nonRoots;
+			IInstallableUnit[] roots;
+			Stripe stripe = getStripe(id);
+			synchronized (stripe) {
+				nonRoots = stripe.nonRootIUs.get(id);
+				roots = stripe.rootIUs.get(id);
+			}
+			addAll(nonRoots, candidates);
+			addAll(roots, candidates);
+			addBase(id, NON_ROOT, candidates);
+			addBase(id, ROOT, candidates);
+		}
+	}
+
+	private final Stripe[] stripes;
+	private final IIndex<IInstallableUnit> idIndex = new ConcurrentIdIndex();
+	// the result this result was shared for, null if not shared
+	private IPublisherResult base;
+	// the IUs and their types added since this result was shared, null if not shared
+	private List<Object> added;
+
+	/**
+	 * Returns the given result if it can be shared by concurrently running actions,
+	 * otherwise a new shared result that sees the IUs of the given result without
+	 * copying them.  In the latter case the given result must not be changed while
+	 * it is shared, and callers must {@link #mergeBack(IPublisherResult) merge} the
+	 * IUs added to the shared result back when done.
+	 * @param result the result to share
+	 * @return a result that can be shared
+	 */
+	public static ConcurrentPublisherResult share(IPublisherResult result) {
+		if (result instanceof ConcurrentPublisherResult)
+			return (ConcurrentPublisherResult) result;
+		return overlay(result);
+	}
+
+	/**
+	 * Returns a new result that sees the IUs of the given result without copying them
+	 * and keeps the IUs added to it to itself until they are {@link #mergeBack(IPublisherResult)
+	 * merged back}.  The given result must not be changed in the meantime.
+	 * @param result the result to see through to
+	 * @return a new result that can be shared
+	 */
+	public static ConcurrentPublisherResult overlay(IPublisherResult result) {
+		ConcurrentPublisherResult overlay = new ConcurrentPublisherResult();
+		overlay.base = result;
+		overlay.added = new ArrayList<Object>();
+		return overlay;
+	}
+
+	public ConcurrentPublisherResult() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Creates an empty result.
+	 * @param concurrency the number of threads expected to add IUs at the same time
+	 */
+	public ConcurrentPublisherResult(int concurrency) {
+		stripes = new Stripe[Math.max(1, concurrency)];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+	}
+
+	/**
+	 * Adds the IUs that were added to this result since it was shared to the given result,
+	 * in the order they were added, unless this result is the given result.
+	 * @param original the result this result was {@link #share(IPublisherResult) shared} for
+	 */
+	public void mergeBack(IPublisherResult original) {
+		if (original == this || added == null)
+			return;
+		Object[] additions;
+		synchronized (added) {
+			additions = added.toArray();
+			added.clear();
+		}
+		for (int i = 0; i < additions.length; i += 2)
+			original.addIU((IInstallableUnit) additions[i], (String) additions[i + 1]);
+	}
+
+	Stripe getStripe(String id) {
+		return stripes[(id.hashCode() & 0x7FFFFFFF) % stripes.length];
+	}
+
+	static void addAll(IInstallableUnit[] ius, Collection<IInstallableUnit> result) {
+		if (ius != null)
+			for (int i = 0; i < ius.length; i++)
+				result.add(ius[i]);
+	}
+
+	/*
+	 * Adds the IUs of the given id, or all IUs if the id is null, and type from the result
+	 * this result was shared for, except those replaced by an IU added to this result.
+	 */
+	void addBase(String id, String type, Collection<IInstallableUnit> result) {
+		if (base == null)
+			return;
+		for (IInstallableUnit iu : base.getIUs(id, type))
+			if (find(getUnits(iu.getId(), type), iu.getVersion()) == null)
+				result.add(iu);
+	}
+
+	public void addIU(IInstallableUnit iu, String type) {
+		if (type != ROOT && type != NON_ROOT)
+			return;
+		if (added != null) {
+			synchronized (added) {
+				added.add(iu);
+				added.add(type);
+			}
+		}
+		String id = iu.getId();
+		Stripe stripe = getStripe(id);
+		synchronized (stripe) {
+			Map<String, IInstallableUnit[]> ius = type == ROOT ? stripe.rootIUs : stripe.nonRootIUs;
+			IInstallableUnit[] existing = ius.get(id);
+			if (existing == null) {
+				ius.put(id, new IInstallableUnit[] {iu});
+				return;
+			}
+			// an IU with the same id and version replaces the one that is there
+			for (int i = 0; i < existing.length; i++) {
+				if (existing[i].getVersion().equals(iu.getVersion())) {
+					IInstallableUnit[] replaced = existing.clone();
+					replaced[i] = iu;
+					ius.put(id, replaced);
+					return;
+				}
+			}
+			IInstallableUnit[] grown = new IInstallableUnit[existing.length + 1];
+			System.arraycopy(existing, 0, grown, 0, existing.length);
+			grown[existing.length] = iu;
+			ius.put(id, grown);
+		}
+	}
+
+	public void addIUs(Collection<IInstallableUnit> ius, String type) {
+		for (IInstallableUnit iu : ius)
+			addIU(iu, type);
+	}
+
+	/*
+	 * Returns the IUs with the given id and type, never null.
+	 */
+	private IInstallableUnit[] getUnits(String id, String type) {
+		Stripe stripe = getStripe(id);
+		IInstallableUnit[] result;
+		synchronized (stripe) {
+			result = (type == ROOT ? stripe.rootIUs : stripe.nonRootIUs).get(id);
+		}
+		return result == null ? NO_UNITS : result;
+	}
+
+	public IInstallableUnit getIU(String id, Version version, String type) {
+		if (type == null || type == ROOT) {
+			IInstallableUnit result = find(getUnits(id, ROOT), version);
+			if (result == null && base != null)
+				result = base.getIU(id, version, ROOT);
+			if (result != null)
+				return result;
+		}
+		if (type == null || type == NON_ROOT) {
+			IInstallableUnit result = find(getUnits(id, NON_ROOT), version);
+			if (result == null && base != null)
+				result = base.getIU(id, version, NON_ROOT);
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	private static IInstallableUnit find(IInstallableUnit[] ius, Version version) {
+		for (int i = 0; i < ius.length; i++)
+			if (ius[i].getVersion().equals(version))
+				return ius[i];
+		return null;
+	}
+
+	@SuppressWarnings("deprecation")
+	public IInstallableUnit getIU(String id, String type) {
+		if (type == null || type == ROOT) {
+			IInstallableUnit[] ius = getUnits(id, ROOT);
+			if (ius.length > 0)
+				return ius[0];
+			IInstallableUnit result = base == null ? null : base.getIU(id, ROOT);
+			if (result != null)
+				return result;
+		}
+		if (type == null || type == NON_ROOT) {
+			IInstallableUnit[] ius = getUnits(id, NON_ROOT);
+			if (ius.length > 0)
+				return ius[0];
+			IInstallableUnit result = base == null ? null : base.getIU(id, NON_ROOT);
+			if (result != null)
+				return result;
+		}
+		return null;
+	}
+
+	public Collection<IInstallableUnit> getIUs(String id, String type) {
+		if (type != null && type != ROOT && type != NON_ROOT)
+			return null;
+		if (id == null)
+			return snapshot(type);
+		ArrayList<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+		if (type == null || type == ROOT) {
+			addAll(getUnits(id, ROOT), result);
+			addBase(id, ROOT, result);
+		}
+		if (type == null || type == NON_ROOT) {
+			addAll(getUnits(id, NON_ROOT), result);
+			addBase(id, NON_ROOT, result);
+		}
+		return result;
+	}
+
+	public void merge(IPublisherResult result, int mode) {
+		if (mode == MERGE_MATCHING) {
+			addIUs(result.getIUs(null, ROOT), ROOT);
+			addIUs(result.getIUs(null, NON_ROOT), NON_ROOT);
+		} else if (mode == MERGE_ALL_ROOT) {
+			addIUs(result.getIUs(null, ROOT), ROOT);
+			addIUs(result.getIUs(null, NON_ROOT), ROOT);
+		} else if (mode == MERGE_ALL_NON_ROOT) {
+			addIUs(result.getIUs(null, ROOT), NON_ROOT);
+			addIUs(result.getIUs(null, NON_ROOT), NON_ROOT);
+		}
+	}
+
+	/*
+	 * Returns all of the IUs of the given type, or of both types if the type is null,
+	 * as they are at one point in time.
+	 */
+	private List<IInstallableUnit> snapshot(String type) {
+		List<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+		snapshot(0, type, result);
+		if (type == null || type == NON_ROOT)
+			addBase(null, NON_ROOT, result);
+		if (type == null || type == ROOT)
+			addBase(null, ROOT, result);
+		return result;
+	}
+
+	// Locks are always taken in stripe order so this cannot deadlock with other snapshots,
+	// and writers only ever hold one lock.
+	private void snapshot(int index, String type, List<IInstallableUnit> result) {
+		if (index == stripes.length)
+			return;
+		Stripe stripe = stripes[index];
+		synchronized (stripe) {
+			snapshot(index + 1, type, result);
+			if (type == null || type == NON_ROOT)
+				for (IInstallableUnit[] ius : stripe.nonRootIUs.values())
+					addAll(ius, result);
+			if (type == null || type == ROOT)
+				for (IInstallableUnit[] ius : stripe.rootIUs.values())
+					addAll(ius, result);
+		}
+	}
+
+	public IIndex<IInstallableUnit> getIndex(String memberName) {
+		if (InstallableUnit.MEMBER_ID.equals(memberName))
+			return idIndex;
+		return null;
+	}
+
+	public Iterator<IInstallableUnit> everything() {
+		return snapshot(null).iterator();
+	}
+
+	public Object getManagedProperty(Object client, String memberName, Object key) {
+		return null;
+	}
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.util.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.publisher.IPublisherResult;
+import org.eclipse.equinox.p2.publisher.PublisherInfo;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Finds IUs by id in the publisher result, the metadata repository and the context
+ * metadata repository of a publisher info, in that order.
+ * <p>
+ * The publisher result is always asked directly since it grows as actions run and
+ * already finds IUs by id cheaply.  The IUs that the metadata repository has for an id
+ * are queried once and remembered, including the ids the repository has no IUs for.
+ * The publisher must {@link #repositoryChanged(IPublisherInfo, IMetadataRepository) report}
+ * any IUs it adds to a repository.
+ * </p><p>
+ * Context repositories are large and never change while publishing, so the first lookup
+ * indexes all of their IUs in one pass.  The index only holds the ids, sorted, and
+ * arrays of the IUs that the repository already holds.  After that no lookup in the
+ * context queries the repository.
+ * </p><p>
+ * All methods may be called from multiple threads.
+ * </p>
+ */
+public class InstallableUnitLookup {
+	private static final IInstallableUnit[] NO_UNITS = new IInstallableUnit[0];
+	// the places to look in, in order
+	private static final int RESULT = 0;
+	private static final int METADATA_REPOSITORY = 1;
+	private static final int CONTEXT_REPOSITORY = 2;
+
+	/**
+	 * The IUs of one repository by id.
+	 */
+	private static abstract class RepositoryIndex {
+		final IMetadataRepository repository;
+
+		RepositoryIndex(IMetadataRepository repository) {
+			this.repository = repository;
+		}
+
+		/*
+		 * Returns the IUs with the given id, never null.
+		 */
+		abstract IInstallableUnit[] getIUs(String id);
+	}
+
+	/**
+	 * The IUs of a repository, by id, as they were first asked for.
+	 */
+	private static class QueriedIndex extends RepositoryIndex {
+		private final Map<String, IInstallableUnit[]> byId = new HashMap<String, IInstallableUnit[]>();
+
+		QueriedIndex(IMetadataRepository repository) {
+			super(repository);
+		}
+
+		IInstallableUnit[] getIUs(String id) {
+			synchronized (this) {
+				IInstallableUnit[] result = byId.get(id);
+				if (result != null)
+					return result;
+			}
+			// query outside of the lock, at worst two threads ask for the same id
+			IQueryResult<IInstallableUnit> queryResult = repository.query(QueryUtil.createIUQuery(id), null);
+			Set<IInstallableUnit> found = queryResult.toUnmodifiableSet();
+			IInstallableUnit[] result = found.isEmpty() ? NO_UNITS : found.toArray(new IInstallableUnit[found.size()]);
+			synchronized (this) {
+				byId.put(id, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * All IUs of a repository, indexed up front.  The ids are kept sorted in one array
+	 * and the IUs with each id in another.  The IUs are the ones the repository holds
+	 * anyway, so the index only adds the two arrays.
+	 */
+	private static class PreloadedIndex extends RepositoryIndex {
+		private final String[] ids;
+		private final IInstallableUnit[][] units;
+
+		PreloadedIndex(IMetadataRepository repository) {
+			super(repository);
+			Map<String, List<IInstallableUnit>> grouped = new HashMap<String, List<IInstallableUnit>>();
+			for (Iterator<IInstallableUnit> iter = repository.query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				List<IInstallableUnit> list = grouped.get(iu.getId());
+				if (list == null) {
+					list = new ArrayList<IInstallableUnit>(1);
+					grouped.put(iu.getId(), list);
+				}
+				list.add(iu);
+			}
+			ids = grouped.keySet().toArray(new String[grouped.size()]);
+			Arrays.sort(ids);
+			units = new IInstallableUnit[ids.length][];
+			for (int i = 0; i < ids.length; i++) {
+				List<IInstallableUnit> list = grouped.get(ids[i]);
+				units[i] = list.toArray(new IInstallableUnit[list.size()]);
+			}
+		}
+
+		IInstallableUnit[] getIUs(String id) {
+			int index = Arrays.binarySearch(ids, id);
+			return index < 0 ? NO_UNITS : units[index];
+		}
+	}
+
+	private RepositoryIndex metadataIndex;
+	private RepositoryIndex contextIndex;
+
+	/**
+	 * Returns the lookup of the given publisher info.
+	 * @param info the publisher info
+	 * @return the lookup or <code>null</code> if the info does not keep one
+	 */
+	public static InstallableUnitLookup get(IPublisherInfo info) {
+		if (info instanceof PublisherInfo)
+			return ((PublisherInfo) info).getInstallableUnitLookup();
+		return null;
+	}
+
+	/**
+	 * Forgets what is known about the given repository of the given info.  Must be called
+	 * whenever IUs are added to or removed from the repository.
+	 * @param info the publisher info
+	 * @param repository the repository that changed
+	 */
+	public static void repositoryChanged(IPublisherInfo info, IMetadataRepository repository) {
+		InstallableUnitLookup lookup = get(info);
+		if (lookup != null)
+			lookup.forget(repository);
+	}
+
+	synchronized void forget(IMetadataRepository repository) {
+		if (metadataIndex != null && metadataIndex.repository == repository)
+			metadataIndex = null;
+		if (contextIndex != null && contextIndex.repository == repository)
+			contextIndex = null;
+	}
+
+	/**
+	 * Returns the IU with the given id and version from the first place that has one.
+	 * If no version is given, the IU with the highest version is returned.
+	 * @param result the publisher result to look in first, may be <code>null</code>
+	 * @param info the publisher info whose repositories to look in next
+	 * @param id the id of the IU
+	 * @param version the version of the IU, <code>null</code> or the empty version for the latest
+	 * @return the IU or <code>null</code> if there is none
+	 */
+	public IInstallableUnit findIU(IPublisherResult result, IPublisherInfo info, String id, Version version) {
+		boolean latest = version == null || Version.emptyVersion.equals(version);
+		for (int source = RESULT; source <= CONTEXT_REPOSITORY; source++) {
+			IInstallableUnit found = null;
+			IInstallableUnit[] ius = getIUs(source, result, info, id);
+			for (int i = 0; i < ius.length; i++) {
+				if (latest) {
+					if (found == null || ius[i].getVersion().compareTo(found.getVersion()) > 0)
+						found = ius[i];
+				} else if (ius[i].getVersion().equals(version))
+					return ius[i];
+			}
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the IUs with the given id and a version in the given range from the first
+	 * place that has any.
+	 * @param result the publisher result to look in first, may be <code>null</code>
+	 * @param info the publisher info whose repositories to look in next
+	 * @param id the id of the IUs
+	 * @param range the range of versions, <code>null</code> for any version
+	 * @return the IUs, never <code>null</code>
+	 */
+	public IQueryResult<IInstallableUnit> findIUs(IPublisherResult result, IPublisherInfo info, String id, VersionRange range) {
+		Collector<IInstallableUnit> collector = new Collector<IInstallableUnit>();
+		for (int source = RESULT; source <= CONTEXT_REPOSITORY && collector.isEmpty(); source++) {
+			IInstallableUnit[] ius = getIUs(source, result, info, id);
+			for (int i = 0; i < ius.length; i++)
+				if (range == null || range.isIncluded(ius[i].getVersion()))
+					collector.accept(ius[i]);
+		}
+		return collector;
+	}
+
+	/*
+	 * Returns the IUs with the given id in the given place, never null.
+	 */
+	private IInstallableUnit[] getIUs(int source, IPublisherResult result, IPublisherInfo info, String id) {
+		if (source == RESULT) {
+			if (result == null)
+				return NO_UNITS;
+			Collection<IInstallableUnit> ius = result.getIUs(id, null);
+			if (ius == null || ius.isEmpty())
+				return NO_UNITS;
+			return ius.toArray(new IInstallableUnit[ius.size()]);
+		}
+		IMetadataRepository repository = source == METADATA_REPOSITORY ? info.getMetadataRepository() : info.getContextMetadataRepository();
+		if (repository == null)
+			return NO_UNITS;
+		return getIndex(source, repository).getIUs(id);
+	}
+
+	/*
+	 * Returns the index of the given repository, starting a new one if the info has been
+	 * given a different repository since the last lookup.  Building the index of a context
+	 * repository holds the lock, the other threads have to wait for it anyway.
+	 */
+	private synchronized RepositoryIndex getIndex(int source, IMetadataRepository repository) {
+		if (source == METADATA_REPOSITORY) {
+			if (metadataIndex == null || metadataIndex.repository != repository)
+				metadataIndex = new QueriedIndex(repository);
+			return metadataIndex;
+		}
+		if (contextIndex == null || contextIndex.repository != repository)
+			contextIndex = new PreloadedIndex(repository);
+		return contextIndex;
+	}
+}
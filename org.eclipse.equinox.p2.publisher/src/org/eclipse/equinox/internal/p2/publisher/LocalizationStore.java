@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps a single copy of the strings that make up the translations published with
+ * bundles and features.  The same keys, such as <code>de.bundleName</code>, and many
+ * of the same values, such as provider names, occur in every localized IU; with
+ * language packs for many locales keeping a copy per IU takes up much of the heap.
+ * <p>
+ * Strings are only held weakly, so once the IUs of a publishing run are gone the
+ * strings they used can be collected as well.  All methods may be called from
+ * multiple threads.
+ * </p>
+ */
+public final class LocalizationStore {
+	private static final WeakHashMap<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+	private LocalizationStore() {
+		// all methods are static
+	}
+
+	/**
+	 * Returns the stored string equal to the given string, storing the string if
+	 * there is none.
+	 * @param value the string, may be <code>null</code>
+	 * @return a string equal to the given string
+	 */
+	public static String intern(String value) {
+		if (value == null)
+			return null;
+		synchronized (strings) {
+			WeakReference<String> reference = strings.get(value);
+			String result = reference == null ? null : reference.get();
+			if (result != null)
+				return result;
+			// a substring would keep the whole text it was read from reachable
+			result = new String(value);
+			strings.put(result, new WeakReference<String>(result));
+			return result;
+		}
+	}
+
+	/**
+	 * Returns the name of the IU property holding the translation of the given key
+	 * into the given locale, for example <code>de.bundleName</code>.
+	 * @param locale the locale of the translation
+	 * @param key the key of the translated string
+	 * @return the property name
+	 */
+	public static String getPropertyName(Locale locale, String key) {
+		return intern(locale.toString() + '.' + key);
+	}
+}
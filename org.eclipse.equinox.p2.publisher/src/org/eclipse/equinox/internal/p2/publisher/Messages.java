@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others. All rights reserved. This
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,12 +27,14 @@ public class Messages extends NLS {
 	public static String exception_invalidSiteReferenceInFeature;
 	public static String exception_repoMustBeURL;
 	public static String exception_sourcePath;
+	public static String exception_threadCount;
 
 	public static String message_generatingMetadata;
 	public static String message_generationCompleted;
 	public static String message_noSimpleconfigurator;
 	public static String message_resultException;
 	public static String message_publisherArguments;
+	public static String message_metricsNotWritten;
 
 	public static String exception_artifactRepoNoAppendDestroysInput;
 
@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.p2.publisher.*;
+
+/**
+ * Runs a set of tasks on a bounded number of threads.  Tasks may depend on other tasks
+ * in which case they are only started once all of their prerequisites have completed.
+ * Tasks with no outstanding prerequisites are started in the order in which they were
+ * added.
+ * <p>
+ * The progress monitor given to {@link #execute(IProgressMonitor)} is only ever used
+ * from the calling thread.  Tasks are given a monitor that reports cancelation but
+ * otherwise ignores progress.
+ * </p><p>
+ * All executors share one pool of worker threads, which grows up to the largest number
+ * of threads any executor asked for, less the calling thread.  Rather than wait, the
+ * calling thread runs the tasks of its own executor or, when none can be started, those
+ * of other executors, typically ones executed by its running tasks.  An executor executed
+ * by a task of another executor therefore always makes progress, on the threads that are
+ * idle or on the calling thread alone once all of them are busy.  If the executor is
+ * configured with a single thread, all tasks are run on the calling thread.  An executor
+ * can only be executed once.
+ * </p>
+ */
+public class ParallelExecutor {
+	// how often the calling thread checks its monitor for cancelation while waiting
+	private static final long POLL_INTERVAL = 100;
+	// how long an idle pool thread waits for work before it ends
+	private static final long KEEP_ALIVE = 10000;
+
+	// guards the pool and the state of all executors
+	private static final Object lock = new Object();
+	// the executors being executed on the pool, the most recently started first
+	private static final LinkedList<ParallelExecutor> active = new LinkedList<ParallelExecutor>();
+	private static int poolSize = 0;
+	private static int poolLimit = 0;
+	private static int idleWorkers = 0;
+	private static int workerCount = 0;
+
+	/**
+	 * A unit of work run by the executor.
+	 */
+	public static abstract class Task {
+		final ArrayList<Task> dependents = new ArrayList<Task>(2);
+		int pending = 0;
+		IStatus status = null;
+		Throwable failure = null;
+
+		/**
+		 * Records that this task must not start before the given task has completed.
+		 * @param prerequisite the task that must complete first
+		 */
+		public final void dependsOn(Task prerequisite) {
+			if (prerequisite == null || prerequisite == this)
+				return;
+			prerequisite.dependents.add(this);
+			pending++;
+		}
+
+		/**
+		 * Returns the status returned by this task or <code>null</code> if the task
+		 * has not (successfully) run.
+		 */
+		public final IStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * Performs the work of this task.
+		 * @param monitor a monitor that can be used to check for cancelation
+		 * @return the status of the work, may be <code>null</code>
+		 */
+		protected abstract IStatus run(IProgressMonitor monitor);
+	}
+
+	/**
+	 * Computes the result for one of the items given to {@link ParallelExecutor#map}.
+	 */
+	public interface Function<T, R> {
+		/**
+		 * Computes the result for the given item.  May be called for several items at once.
+		 * @param index the index of the item
+		 * @param item the item
+		 * @param monitor a monitor that can be used to check for cancelation
+		 * @return the result for the item, may be <code>null</code>
+		 */
+		public R apply(int index, T item, IProgressMonitor monitor);
+	}
+
+	static class Worker extends Thread {
+		private final int number;
+
+		Worker(int number) {
+			super("Parallel executor " + number); //$NON-NLS-1$
+			this.number = number;
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (true) {
+				ParallelExecutor executor;
+				Task task;
+				synchronized (lock) {
+					long idleSince = System.currentTimeMillis();
+					while ((executor = findWork()) == null) {
+						long idle = System.currentTimeMillis() - idleSince;
+						if (idle >= KEEP_ALIVE) {
+							idleWorkers--;
+							poolSize--;
+							return;
+						}
+						try {
+							lock.wait(KEEP_ALIVE - idle);
+						} catch (InterruptedException e) {
+							// keep waiting
+						}
+					}
+					idleWorkers--;
+					task = executor.take();
+				}
+				setName(executor.name + ' ' + number);
+				executor.runTask(task);
+				synchronized (lock) {
+					idleWorkers++;
+				}
+			}
+		}
+	}
+
+	private final String name;
+	private final int threads;
+	private final ArrayList<Task> tasks = new ArrayList<Task>();
+
+	// the following are guarded by the lock unless the tasks are run inline
+	private final LinkedList<Task> ready = new LinkedList<Task>();
+	private int remaining = 0;
+	private int running = 0;
+	private int completed = 0;
+	volatile boolean stopped = false;
+	volatile boolean canceled = false;
+
+	final IProgressMonitor taskMonitor = new NullProgressMonitor() {
+		public boolean isCanceled() {
+			return canceled;
+		}
+	};
+
+	/**
+	 * Returns the default number of threads to use, that is, the number of
+	 * available processors.
+	 */
+	public static int getDefaultParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns the number of threads the given publisher info asks for.  Publisher
+	 * infos that do not say are treated as asking for a single thread.
+	 * @param info the publisher info to consult, may be <code>null</code>
+	 * @return the number of threads to use
+	 */
+	public static int getParallelism(IPublisherInfo info) {
+		if (info instanceof PublisherInfo)
+			return Math.max(1, ((PublisherInfo) info).getParallelism());
+		return 1;
+	}
+
+	/**
+	 * Applies the given function to each of the given items using up to the given number
+	 * of threads.  The results are returned in the order of the items, so a caller that
+	 * has every item publish into a result of its own and merges those results in order
+	 * gets the same outcome as publishing the items one by one.
+	 *
+	 * @param name the name used for the worker threads
+	 * @param threads the maximum number of threads to use
+	 * @param items the items to compute results for
+	 * @param function the function computing the result of an item
+	 * @param monitor the progress monitor, one unit of work is reported per item, may be <code>null</code>
+	 * @return the results, at the index of their item
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public static <T, R> List<R> map(String name, int threads, List<? extends T> items, final Function<T, R> function, IProgressMonitor monitor) {
+		// the results are only set at their own index, which does not change the list structurally
+		final List<R> results = new ArrayList<R>(Collections.<R> nCopies(items.size(), null));
+		ParallelExecutor executor = new ParallelExecutor(name, threads);
+		for (int i = 0; i < items.size(); i++) {
+			final int index = i;
+			final T item = items.get(i);
+			executor.add(new Task() {
+				protected IStatus run(IProgressMonitor taskMonitor) {
+					results.set(index, function.apply(index, item, taskMonitor));
+					return Status.OK_STATUS;
+				}
+			});
+		}
+		executor.execute(monitor);
+		return results;
+	}
+
+	/**
+	 * Performs the given actions using up to the given number of threads.  Every action
+	 * publishes into a result of its own that sees the IUs of the given result.  Once all
+	 * actions are done, their statuses and IUs are merged in the order of the actions.
+	 *
+	 * @param name the name used for the worker threads
+	 * @param threads the maximum number of threads to use
+	 * @param actions the actions to perform
+	 * @param info the publisher info to perform the actions with
+	 * @param results the result to merge the IUs of the actions into, it must not be changed
+	 * until this method returns
+	 * @param status the status to merge the statuses of the actions into
+	 * @param monitor the progress monitor, may be <code>null</code>
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public static void perform(String name, int threads, List<? extends IPublisherAction> actions, final IPublisherInfo info, IPublisherResult results, MultiStatus status, IProgressMonitor monitor) {
+		final List<ConcurrentPublisherResult> actionResults = new ArrayList<ConcurrentPublisherResult>(actions.size());
+		for (int i = 0; i < actions.size(); i++)
+			actionResults.add(ConcurrentPublisherResult.overlay(results));
+		List<IStatus> statuses = map(name, threads, actions, new Function<IPublisherAction, IStatus>() {
+			public IStatus apply(int index, IPublisherAction action, IProgressMonitor taskMonitor) {
+				return action.perform(info, actionResults.get(index), taskMonitor);
+			}
+		}, monitor);
+		for (int i = 0; i < statuses.size(); i++) {
+			if (statuses.get(i) != null)
+				status.merge(statuses.get(i));
+			actionResults.get(i).mergeBack(results);
+		}
+	}
+
+	/**
+	 * Creates a new executor that will use at most the given number of threads.
+	 * @param name the name used for the worker threads
+	 * @param threads the maximum number of threads to use
+	 */
+	public ParallelExecutor(String name, int threads) {
+		this.name = name;
+		this.threads = threads;
+	}
+
+	/**
+	 * Adds the given task to the set of tasks to execute.
+	 * @param task the task to add
+	 * @return the given task
+	 */
+	public Task add(Task task) {
+		tasks.add(task);
+		return task;
+	}
+
+	/**
+	 * Runs all of the added tasks and waits for them to complete.  If a task throws an
+	 * exception no further tasks are started and, once the running tasks have completed,
+	 * the exception of the first failed task is rethrown.
+	 *
+	 * @param monitor the progress monitor, one unit of work is reported per task
+	 * @throws OperationCanceledException if the monitor is canceled
+	 */
+	public void execute(IProgressMonitor monitor) {
+		if (monitor == null)
+			monitor = new NullProgressMonitor();
+		synchronized (lock) {
+			for (Task task : tasks)
+				if (task.pending == 0)
+					ready.add(task);
+			remaining = tasks.size();
+		}
+		if (threads <= 1 || tasks.size() <= 1)
+			executeInline(monitor);
+		else
+			executeShared(monitor);
+
+		for (Task task : tasks)
+			if (task.failure != null)
+				rethrow(task.failure);
+		if (canceled)
+			throw new OperationCanceledException();
+		if (remaining > 0)
+			throw new IllegalStateException("Cyclic task dependencies"); //$NON-NLS-1$
+	}
+
+	private void executeInline(IProgressMonitor monitor) {
+		while (!ready.isEmpty()) {
+			if (monitor.isCanceled()) {
+				canceled = true;
+				return;
+			}
+			Task task = ready.removeFirst();
+			task.status = task.run(monitor);
+			remaining--;
+			release(task);
+			monitor.worked(1);
+		}
+	}
+
+	private void executeShared(IProgressMonitor monitor) {
+		synchronized (lock) {
+			poolLimit = Math.max(poolLimit, threads - 1);
+			active.addFirst(this);
+			wakeWorkers();
+		}
+		try {
+			while (true) {
+				ParallelExecutor owner = null;
+				Task task = null;
+				int worked;
+				boolean finished;
+				synchronized (lock) {
+					if (completed == 0 && !isFinished() && findWork() == null) {
+						try {
+							lock.wait(POLL_INTERVAL);
+						} catch (InterruptedException e) {
+							// keep waiting
+						}
+					}
+					worked = completed;
+					completed = 0;
+					finished = isFinished();
+					// rather than wait, run one of our tasks or help the executors of the running tasks
+					if (!finished) {
+						owner = canStart() ? this : findWork();
+						if (owner != null)
+							task = owner.take();
+					}
+				}
+				if (worked > 0)
+					monitor.worked(worked);
+				if (finished)
+					return;
+				if (task != null)
+					owner.runTask(task);
+				if (monitor.isCanceled()) {
+					synchronized (lock) {
+						canceled = true;
+						stopped = true;
+						lock.notifyAll();
+					}
+				}
+			}
+		} finally {
+			synchronized (lock) {
+				stopped = true;
+				active.remove(this);
+			}
+		}
+	}
+
+	// Must be called while holding the lock.  Once nothing is running and nothing more
+	// will be started we are done; either all tasks ran, we were stopped or there is a cycle.
+	private boolean isFinished() {
+		return running == 0 && (stopped || ready.isEmpty());
+	}
+
+	// Must be called while holding the lock
+	private boolean canStart() {
+		return !stopped && !ready.isEmpty() && running < threads;
+	}
+
+	// Must be called while holding the lock
+	private Task take() {
+		running++;
+		return ready.removeFirst();
+	}
+
+	// Must be called while holding the lock.  Makes sure there are enough pool threads for
+	// the tasks we could start, as far as the pool may grow.
+	private void wakeWorkers() {
+		int wanted = Math.min(ready.size(), threads - running);
+		while (idleWorkers < wanted && poolSize < poolLimit) {
+			poolSize++;
+			idleWorkers++;
+			new Worker(++workerCount).start();
+		}
+		lock.notifyAll();
+	}
+
+	// Must be called while holding the lock.  The executors started last are preferred; they
+	// are usually executed by a task of an executor started before and hold that task up.
+	private static ParallelExecutor findWork() {
+		for (ParallelExecutor executor : active)
+			if (executor.canStart())
+				return executor;
+		return null;
+	}
+
+	// Must be called while holding the lock (or from the calling thread when running inline)
+	private void release(Task task) {
+		for (Task dependent : task.dependents)
+			if (--dependent.pending == 0)
+				ready.add(dependent);
+	}
+
+	void runTask(Task task) {
+		IStatus taskStatus = null;
+		Throwable taskFailure = null;
+		try {
+			taskStatus = task.run(taskMonitor);
+		} catch (Throwable t) {
+			taskFailure = t;
+		}
+		taskDone(task, taskStatus, taskFailure);
+	}
+
+	private void taskDone(Task task, IStatus taskStatus, Throwable taskFailure) {
+		synchronized (lock) {
+			running--;
+			remaining--;
+			completed++;
+			task.status = taskStatus;
+			if (taskFailure instanceof OperationCanceledException) {
+				canceled = true;
+				stopped = true;
+			} else if (taskFailure != null) {
+				task.failure = taskFailure;
+				stopped = true;
+			} else if (!stopped)
+				release(task);
+			wakeWorkers();
+		}
+	}
+
+	private static void rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new RuntimeException(t.getMessage(), t);
+	}
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.publisher.PublisherInfo;
+
+/**
+ * Remembers which IUs were published for an input file or directory so that, as long
+ * as the input does not change, later publishing runs can reuse the IUs from the
+ * metadata repository rather than creating them again.
+ * <p>
+ * An input is considered unchanged if its fingerprint is the same.  The fingerprint of
+ * a file is its length and modification time.  The fingerprint of a directory is made
+ * of the number, total length and latest modification time of the files it contains.
+ * Actions may store a tag with each entry to record any other state the IUs depend on.
+ * </p><p>
+ * Inputs are identified by their canonical path, so the same input reached through
+ * different paths shares its entry.  The cache is kept in a single file.  It is loaded by
+ * {@link #load(IPublisherInfo)} and written back by {@link #save()}, which drops the
+ * entries of inputs that no longer exist.  All methods may be called from multiple threads.
+ * </p>
+ */
+public class PublishCache {
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The IUs published for an input.
+	 */
+	public static class Entry {
+		final long length;
+		final long modified;
+		final String tag;
+		final String[] ids;
+		final String[] versions;
+		final String[] types;
+
+		Entry(long length, long modified, String tag, String[] ids, String[] versions, String[] types) {
+			this.length = length;
+			this.modified = modified;
+			this.tag = tag;
+			this.ids = ids;
+			this.versions = versions;
+			this.types = types;
+		}
+
+		/**
+		 * Returns the tag stored with this entry, may be <code>null</code>.
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * Returns the number of IUs in this entry.
+		 */
+		public int size() {
+			return ids.length;
+		}
+
+		public String getId(int index) {
+			return ids[index];
+		}
+
+		public Version getVersion(int index) {
+			return Version.create(versions[index]);
+		}
+
+		/**
+		 * Returns the type with which the IU at the given index was added to the
+		 * publisher result.
+		 */
+		public String getType(int index) {
+			return types[index];
+		}
+	}
+
+	private final File file;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private boolean dirty = false;
+
+	/**
+	 * Returns the cache configured for the given publisher info, loaded from disk.
+	 * @param info the publisher info
+	 * @return the cache or <code>null</code> if the info does not ask for one
+	 */
+	public static PublishCache load(IPublisherInfo info) {
+		if (!(info instanceof PublisherInfo))
+			return null;
+		File location = ((PublisherInfo) info).getPublishCacheLocation();
+		if (location == null)
+			return null;
+		PublishCache result = new PublishCache(location);
+		result.read();
+		return result;
+	}
+
+	private PublishCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the entry for the given input if the input has not changed since
+	 * the entry was stored.
+	 * @param location the input file or directory
+	 * @return the entry or <code>null</code> if there is none or the input has changed
+	 */
+	public Entry get(File location) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(getKey(location));
+		}
+		if (entry == null)
+			return null;
+		long[] fingerprint = fingerprint(location);
+		if (fingerprint == null || fingerprint[0] != entry.length || fingerprint[1] != entry.modified)
+			return null;
+		return entry;
+	}
+
+	/**
+	 * Records the IUs published for the given input.
+	 * @param location the input file or directory
+	 * @param tag any other state the IUs depend on, may be <code>null</code>
+	 * @param ius the IUs
+	 * @param types the types with which the IUs were added to the publisher result
+	 */
+	public void put(File location, String tag, IInstallableUnit[] ius, String[] types) {
+		long[] fingerprint = fingerprint(location);
+		if (fingerprint == null)
+			return;
+		String[] ids = new String[ius.length];
+		String[] versions = new String[ius.length];
+		for (int i = 0; i < ius.length; i++) {
+			ids[i] = ius[i].getId();
+			versions[i] = ius[i].getVersion().toString();
+		}
+		Entry entry = new Entry(fingerprint[0], fingerprint[1], tag, ids, versions, types);
+		String key = getKey(location);
+		synchronized (this) {
+			entries.put(key, entry);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache back to disk if it has changed or refers to inputs that no
+	 * longer exist.
+	 */
+	public synchronized void save() {
+		for (Iterator<String> i = entries.keySet().iterator(); i.hasNext();) {
+			if (!new File(i.next()).exists()) {
+				i.remove();
+				dirty = true;
+			}
+		}
+		if (!dirty)
+			return;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		File temp = new File(file.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(entries.size());
+			for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+				Entry entry = mapEntry.getValue();
+				output.writeUTF(mapEntry.getKey());
+				output.writeLong(entry.length);
+				output.writeLong(entry.modified);
+				output.writeUTF(entry.tag == null ? "" : entry.tag); //$NON-NLS-1$
+				output.writeInt(entry.ids.length);
+				for (int i = 0; i < entry.ids.length; i++) {
+					output.writeUTF(entry.ids[i]);
+					output.writeUTF(entry.versions[i]);
+					output.writeUTF(entry.types[i]);
+				}
+			}
+			output.close();
+			output = null;
+			// replace the old cache only once the new one is complete
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Unable to rename " + temp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+			dirty = false;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to save the publisher cache " + file, e)); //$NON-NLS-1$
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	private void read() {
+		if (!file.isFile())
+			return;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			// an old or unknown format is simply ignored and replaced on the next save
+			if (input.readInt() != FORMAT_VERSION)
+				return;
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = input.readUTF();
+				long length = input.readLong();
+				long modified = input.readLong();
+				String tag = input.readUTF();
+				int size = input.readInt();
+				String[] ids = new String[size];
+				String[] versions = new String[size];
+				String[] types = new String[size];
+				for (int j = 0; j < size; j++) {
+					ids[j] = input.readUTF();
+					versions[j] = input.readUTF();
+					types[j] = input.readUTF();
+				}
+				entries.put(path, new Entry(length, modified, tag.length() == 0 ? null : tag, ids, versions, types));
+			}
+		} catch (IOException e) {
+			// a damaged cache is as good as no cache
+			entries.clear();
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to read the publisher cache " + file, e)); //$NON-NLS-1$
+		} finally {
+			if (input != null)
+				try {
+					input.close();
+				} catch (IOException e) {
+					// ignore
+				}
+		}
+	}
+
+	private static String getKey(File location) {
+		try {
+			return location.getCanonicalPath();
+		} catch (IOException e) {
+			return location.getAbsolutePath();
+		}
+	}
+
+	/*
+	 * Returns the length and modification time of a file, or the total length and the
+	 * latest modification time of the files in a directory.  The number of files in a
+	 * directory is folded into the length so that adding an empty file is noticed.
+	 */
+	private static long[] fingerprint(File location) {
+		if (location.isFile())
+			return new long[] {location.length(), location.lastModified()};
+		if (!location.isDirectory())
+			return null;
+		long[] result = new long[] {0, location.lastModified()};
+		fingerprint(location, result);
+		return result;
+	}
+
+	private static void fingerprint(File directory, long[] result) {
+		File[] children = directory.listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			File child = children[i];
+			result[1] = Math.max(result[1], child.lastModified());
+			if (child.isDirectory())
+				fingerprint(child, result);
+			else
+				result[0] += child.length() + 1;
+		}
+	}
+}
@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.*;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryResult;
+
+/**
+ * Collects how much time, I/O and optionally memory publishing actions spend in each
+ * phase of their work, and how many IUs and artifacts they produce.
+ * <p>
+ * Measurements are keyed by the class of the action, or other object, that does the work
+ * and by the name of a phase.  Code that wants to be measured brackets its work with
+ * {@link #start(IPublisherInfo)} and one of the <code>stop</code> methods; both are
+ * cheap no-ops unless the publisher info asks for metrics.  All methods may be called
+ * from multiple threads.
+ * </p>
+ */
+public class PublisherMetrics {
+	/** The whole of a publisher action, as measured by the publisher. */
+	public static final String PHASE_ACTION = "action"; //$NON-NLS-1$
+	/** Reading and parsing bundle manifests. */
+	public static final String PHASE_MANIFEST = "manifest"; //$NON-NLS-1$
+	/** Reading properties files to localize IUs. */
+	public static final String PHASE_LOCALIZATION = "localization"; //$NON-NLS-1$
+	/** Reading and parsing p2 advice files. */
+	public static final String PHASE_ADVICE = "advice"; //$NON-NLS-1$
+	/** Computing the checksums of artifacts. */
+	public static final String PHASE_DIGEST = "digest"; //$NON-NLS-1$
+	/** Copying artifacts into the artifact repository. */
+	public static final String PHASE_ARTIFACT = "artifact"; //$NON-NLS-1$
+	/** Adding the published IUs to the metadata repository. */
+	public static final String PHASE_METADATA = "metadata"; //$NON-NLS-1$
+
+	private static final Method NANO_TIME;
+	private static final Object THREAD_BEAN;
+	private static final Method ALLOCATED_BYTES;
+	private static final Method THREAD_ID;
+
+	static {
+		// System.nanoTime and the allocation counters are not available on every VM the publisher runs on
+		Method nanoTime = null;
+		try {
+			nanoTime = System.class.getMethod("nanoTime", new Class[0]); //$NON-NLS-1$
+		} catch (Exception e) {
+			// use milliseconds
+		}
+		NANO_TIME = nanoTime;
+
+		Object threadBean = null;
+		Method allocatedBytes = null;
+		Method threadId = null;
+		try {
+			threadId = Thread.class.getMethod("getId", new Class[0]); //$NON-NLS-1$
+			Class<?> factory = Class.forName("java.lang.management.ManagementFactory"); //$NON-NLS-1$
+			threadBean = factory.getMethod("getThreadMXBean", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			Class<?> beanType = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			if (beanType.isInstance(threadBean)) {
+				allocatedBytes = beanType.getMethod("getThreadAllocatedBytes", new Class[] {long.class}); //$NON-NLS-1$
+				Method supported = beanType.getMethod("isThreadAllocatedMemorySupported", new Class[0]); //$NON-NLS-1$
+				if (!((Boolean) supported.invoke(threadBean, new Object[0])).booleanValue())
+					allocatedBytes = null;
+			}
+		} catch (Throwable e) {
+			// allocations cannot be measured on this VM
+			allocatedBytes = null;
+		}
+		THREAD_BEAN = threadBean;
+		ALLOCATED_BYTES = allocatedBytes;
+		THREAD_ID = threadId;
+	}
+
+	/**
+	 * The start of a measurement.
+	 */
+	public static class Measurement {
+		final PublisherMetrics metrics;
+		final long time;
+		final long allocated;
+
+		Measurement(PublisherMetrics metrics) {
+			this.metrics = metrics;
+			this.allocated = metrics.measureAllocations ? allocatedBytes() : -1;
+			this.time = nanoTime();
+		}
+	}
+
+	/**
+	 * The totals of one phase of the work of one action.
+	 */
+	public static class Totals {
+		final String owner;
+		final String phase;
+		long count;
+		long time;
+		long bytesRead;
+		long bytesWritten;
+		long ius;
+		long artifacts;
+		long allocated;
+
+		Totals(String owner, String phase) {
+			this.owner = owner;
+			this.phase = phase;
+		}
+
+		public String getOwner() {
+			return owner;
+		}
+
+		public String getPhase() {
+			return phase;
+		}
+
+		/**
+		 * Returns how many times the phase was measured.
+		 */
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the wall time spent in the phase in nanoseconds.
+		 */
+		public synchronized long getTime() {
+			return time;
+		}
+
+		public synchronized long getBytesRead() {
+			return bytesRead;
+		}
+
+		public synchronized long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		public synchronized long getIUs() {
+			return ius;
+		}
+
+		public synchronized long getArtifacts() {
+			return artifacts;
+		}
+
+		/**
+		 * Returns the number of bytes allocated in the phase, or -1 if allocations were not measured.
+		 */
+		public synchronized long getAllocated() {
+			return allocated;
+		}
+
+		synchronized void add(long elapsed, long read, long written, int iuCount, int artifactCount, long allocatedBytes) {
+			count++;
+			time += elapsed;
+			bytesRead += read;
+			bytesWritten += written;
+			ius += iuCount;
+			artifacts += artifactCount;
+			allocated = allocatedBytes < 0 ? -1 : allocated + allocatedBytes;
+		}
+	}
+
+	/**
+	 * An output stream that counts the bytes written through it.
+	 */
+	public static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * A publisher result that counts the IUs an action adds to it.
+	 */
+	static class CountingResult implements IPublisherResult {
+		final IPublisherResult delegate;
+		int count = 0;
+
+		CountingResult(IPublisherResult delegate) {
+			this.delegate = delegate;
+		}
+
+		public void addIU(IInstallableUnit iu, String type) {
+			delegate.addIU(iu, type);
+			synchronized (this) {
+				count++;
+			}
+		}
+
+		public void addIUs(Collection<IInstallableUnit> ius, String type) {
+			delegate.addIUs(ius, type);
+			synchronized (this) {
+				count += ius.size();
+			}
+		}
+
+		public Collection<IInstallableUnit> getIUs(String id, String type) {
+			return delegate.getIUs(id, type);
+		}
+
+		@SuppressWarnings("deprecation")
+		public IInstallableUnit getIU(String id, String type) {
+			return delegate.getIU(id, type);
+		}
+
+		public IInstallableUnit getIU(String id, Version version, String type) {
+			return delegate.getIU(id, version, type);
+		}
+
+		public void merge(IPublisherResult result, int mode) {
+			delegate.merge(result, mode);
+		}
+
+		public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+			return delegate.query(query, monitor);
+		}
+	}
+
+	private final boolean measureAllocations;
+	private final Map<String, Totals> totals = new LinkedHashMap<String, Totals>();
+
+	/**
+	 * Creates an empty set of metrics.
+	 * @param measureAllocations whether to measure the bytes allocated in each phase
+	 * if the VM supports it
+	 */
+	public PublisherMetrics(boolean measureAllocations) {
+		this.measureAllocations = measureAllocations && ALLOCATED_BYTES != null;
+	}
+
+	/**
+	 * Returns the metrics to record to for the given publisher info.
+	 * @return the metrics or <code>null</code> if the info does not ask for metrics
+	 */
+	public static PublisherMetrics get(IPublisherInfo info) {
+		return info instanceof PublisherInfo ? ((PublisherInfo) info).getMetrics() : null;
+	}
+
+	/**
+	 * Starts measuring work done for the given publisher info on the current thread.
+	 * @return the measurement to pass to <code>stop</code>, or <code>null</code> if
+	 * the info does not ask for metrics
+	 */
+	public static Measurement start(IPublisherInfo info) {
+		PublisherMetrics metrics = get(info);
+		return metrics == null ? null : new Measurement(metrics);
+	}
+
+	/**
+	 * Ends the given measurement and adds it to the totals of the given phase.
+	 * @param measurement the measurement returned by {@link #start(IPublisherInfo)}, may be <code>null</code>
+	 * @param owner the action, or other object, that did the work
+	 * @param phase the phase of the work
+	 * @param bytesRead the number of bytes read from files
+	 * @param bytesWritten the number of bytes written to files or repositories
+	 */
+	public static void stop(Measurement measurement, Object owner, String phase, long bytesRead, long bytesWritten) {
+		stop(measurement, owner, phase, bytesRead, bytesWritten, 0, 0);
+	}
+
+	/**
+	 * Ends the given measurement and adds it, together with the given number of IUs and
+	 * artifacts produced, to the totals of the given phase.
+	 * @see #stop(Measurement, Object, String, long, long)
+	 */
+	public static void stop(Measurement measurement, Object owner, String phase, long bytesRead, long bytesWritten, int ius, int artifacts) {
+		if (measurement == null)
+			return;
+		long elapsed = nanoTime() - measurement.time;
+		long allocated = measurement.allocated < 0 ? -1 : allocatedBytes() - measurement.allocated;
+		measurement.metrics.getTotals(owner, phase).add(elapsed, bytesRead, bytesWritten, ius, artifacts, allocated);
+	}
+
+	/**
+	 * Performs the given action, measuring it as a whole.
+	 */
+	public IStatus perform(IPublisherAction action, IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+		CountingResult counter = new CountingResult(results);
+		Measurement measurement = new Measurement(this);
+		try {
+			return action.perform(info, counter, monitor);
+		} finally {
+			stop(measurement, action, PHASE_ACTION, 0, 0, counter.count, 0);
+		}
+	}
+
+	private synchronized Totals getTotals(Object owner, String phase) {
+		String name = owner instanceof Class<?> ? ((Class<?>) owner).getName() : owner.getClass().getName();
+		String key = name + '#' + phase;
+		Totals result = totals.get(key);
+		if (result == null) {
+			result = new Totals(name, phase);
+			totals.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the totals recorded so far, in the order they were first recorded.
+	 */
+	public synchronized Totals[] getTotals() {
+		return totals.values().toArray(new Totals[totals.size()]);
+	}
+
+	/**
+	 * Writes the totals to the given file.  The report is written as JSON if the name of
+	 * the file ends in <code>.json</code>, and as comma separated values otherwise.
+	 */
+	public void write(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			if (file.getName().toLowerCase().endsWith(".json")) //$NON-NLS-1$
+				writeJSON(writer);
+			else
+				writeCSV(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void writeCSV(Writer writer) throws IOException {
+		writer.write("owner,phase,count,timeMillis,bytesRead,bytesWritten,ius,artifacts,allocatedBytes\n"); //$NON-NLS-1$
+		Totals[] all = getTotals();
+		for (int i = 0; i < all.length; i++) {
+			Totals t = all[i];
+			StringBuffer line = new StringBuffer();
+			line.append(t.getOwner()).append(',').append(t.getPhase()).append(',').append(t.getCount()).append(',');
+			line.append(toMillis(t.getTime())).append(',').append(t.getBytesRead()).append(',').append(t.getBytesWritten()).append(',');
+			line.append(t.getIUs()).append(',').append(t.getArtifacts()).append(',').append(t.getAllocated()).append('\n');
+			writer.write(line.toString());
+		}
+	}
+
+	private void writeJSON(Writer writer) throws IOException {
+		writer.write("[\n"); //$NON-NLS-1$
+		Totals[] all = getTotals();
+		for (int i = 0; i < all.length; i++) {
+			Totals t = all[i];
+			StringBuffer line = new StringBuffer();
+			line.append("  {\"owner\": \"").append(t.getOwner()).append("\", \"phase\": \"").append(t.getPhase()); //$NON-NLS-1$ //$NON-NLS-2$
+			line.append("\", \"count\": ").append(t.getCount()); //$NON-NLS-1$
+			line.append(", \"timeMillis\": ").append(toMillis(t.getTime())); //$NON-NLS-1$
+			line.append(", \"bytesRead\": ").append(t.getBytesRead()); //$NON-NLS-1$
+			line.append(", \"bytesWritten\": ").append(t.getBytesWritten()); //$NON-NLS-1$
+			line.append(", \"ius\": ").append(t.getIUs()); //$NON-NLS-1$
+			line.append(", \"artifacts\": ").append(t.getArtifacts()); //$NON-NLS-1$
+			line.append(", \"allocatedBytes\": ").append(t.getAllocated()).append('}'); //$NON-NLS-1$
+			if (i < all.length - 1)
+				line.append(',');
+			line.append('\n');
+			writer.write(line.toString());
+		}
+		writer.write("]\n"); //$NON-NLS-1$
+	}
+
+	private static String toMillis(long nanos) {
+		return String.valueOf(nanos / 1000000) + '.' + String.valueOf(1000 + (nanos / 1000) % 1000).substring(1);
+	}
+
+	static long nanoTime() {
+		if (NANO_TIME != null) {
+			try {
+				return ((Long) NANO_TIME.invoke(null, new Object[0])).longValue();
+			} catch (Exception e) {
+				// fall through
+			}
+		}
+		return System.currentTimeMillis() * 1000000;
+	}
+
+	static long allocatedBytes() {
+		try {
+			Object id = THREAD_ID.invoke(Thread.currentThread(), new Object[0]);
+			return ((Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, new Object[] {id})).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads individual entries of a zip or jar file, such as the manifest or a properties
+ * file, without looking at the rest of the archive.
+ * <p>
+ * Only the central directory at the end of the archive is read when the reader is opened.
+ * An entry is then read by seeking straight to its data and only that entry is inflated.
+ * Unlike {@link java.util.jar.JarFile} the reader never verifies signatures, which for
+ * signed jars would otherwise mean digesting every entry just to read the manifest.
+ * </p><p>
+ * Archives that need zip64 extensions are not supported.  All methods may be called
+ * from multiple threads.
+ * </p>
+ */
+public class ZipArchiveReader {
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int END_SIZE = 22;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int LOCAL_SIZE = 30;
+	private static final int MAX_COMMENT = 0xFFFF;
+
+	/**
+	 * The central directory record of an entry.
+	 */
+	private static class Entry {
+		final int method;
+		final long compressedSize;
+		final long size;
+		final long localOffset;
+
+		Entry(int method, long compressedSize, long size, long localOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localOffset = localOffset;
+		}
+	}
+
+	private final File location;
+	private RandomAccessFile file;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Opens the given archive and reads its central directory.
+	 * @param location the zip or jar file
+	 * @return the reader, callers must {@link #close()} it
+	 * @throws IOException if the file cannot be read or is not a zip file this reader supports
+	 */
+	public static ZipArchiveReader open(File location) throws IOException {
+		ZipArchiveReader result = new ZipArchiveReader(location);
+		try {
+			result.readCentralDirectory();
+		} catch (IOException e) {
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	private ZipArchiveReader(File location) throws IOException {
+		this.location = location;
+		this.file = new RandomAccessFile(location, "r"); //$NON-NLS-1$
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long length = file.length();
+		int tailLength = (int) Math.min(length, END_SIZE + MAX_COMMENT);
+		byte[] tail = new byte[tailLength];
+		file.seek(length - tailLength);
+		file.readFully(tail);
+		// the end record is followed by a comment of unknown length so search backwards for it
+		int end = -1;
+		for (int i = tailLength - END_SIZE; i >= 0; i--) {
+			if (getInt(tail, i) == END_SIGNATURE && i + END_SIZE + getShort(tail, i + 20) <= tailLength) {
+				end = i;
+				break;
+			}
+		}
+		if (end == -1)
+			throw new ZipException("Not a zip file: " + location); //$NON-NLS-1$
+		int count = getShort(tail, end + 10);
+		long directorySize = getUnsignedInt(tail, end + 12);
+		long directoryOffset = getUnsignedInt(tail, end + 16);
+		if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL)
+			throw new ZipException("Zip64 archives are not supported: " + location); //$NON-NLS-1$
+		if (directoryOffset + directorySize > length)
+			throw new ZipException("Invalid central directory: " + location); //$NON-NLS-1$
+
+		byte[] directory = new byte[(int) directorySize];
+		file.seek(directoryOffset);
+		file.readFully(directory);
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			if (offset + CENTRAL_SIZE > directory.length || getInt(directory, offset) != CENTRAL_SIGNATURE)
+				throw new ZipException("Invalid central directory: " + location); //$NON-NLS-1$
+			int method = getShort(directory, offset + 10);
+			long compressedSize = getUnsignedInt(directory, offset + 20);
+			long size = getUnsignedInt(directory, offset + 24);
+			int nameLength = getShort(directory, offset + 28);
+			int extraLength = getShort(directory, offset + 30);
+			int commentLength = getShort(directory, offset + 32);
+			long localOffset = getUnsignedInt(directory, offset + 42);
+			if (offset + CENTRAL_SIZE + nameLength > directory.length)
+				throw new ZipException("Invalid central directory: " + location); //$NON-NLS-1$
+			// like ZipFile, names are always taken to be UTF-8
+			String name = new String(directory, offset + CENTRAL_SIZE, nameLength, "UTF-8"); //$NON-NLS-1$
+			if (!entries.containsKey(name))
+				entries.put(name, new Entry(method, compressedSize, size, localOffset));
+			offset += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Returns the archive this reader reads.
+	 */
+	public File getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns the names of the entries in the archive in the order of the central directory.
+	 * The names of directory entries end with a slash.
+	 */
+	public String[] getEntryNames() {
+		return entries.keySet().toArray(new String[entries.size()]);
+	}
+
+	/**
+	 * Returns whether the archive has an entry with the given name.
+	 */
+	public boolean hasEntry(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Returns the uncompressed content of the entry with the given name.
+	 * @param name the name of the entry, for example <code>META-INF/MANIFEST.MF</code>
+	 * @return the content or <code>null</code> if the archive has no such entry
+	 * @throws IOException if the entry cannot be read
+	 */
+	public byte[] getContent(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if (entry == null)
+			return null;
+		if (entry.compressedSize > Integer.MAX_VALUE || entry.size > Integer.MAX_VALUE)
+			throw new ZipException("Entry too large: " + name); //$NON-NLS-1$
+		// the extra dummy byte is needed by some inflaters in nowrap mode
+		byte[] data = new byte[(int) entry.compressedSize + 1];
+		synchronized (this) {
+			if (file == null)
+				throw new IOException("Archive is closed: " + location); //$NON-NLS-1$
+			byte[] header = new byte[LOCAL_SIZE];
+			file.seek(entry.localOffset);
+			file.readFully(header);
+			if (getInt(header, 0) != LOCAL_SIGNATURE)
+				throw new ZipException("Invalid local header for " + name + ": " + location); //$NON-NLS-1$ //$NON-NLS-2$
+			// the extra field of the local header may differ from the one in the central directory
+			file.seek(entry.localOffset + LOCAL_SIZE + getShort(header, 26) + getShort(header, 28));
+			file.readFully(data, 0, (int) entry.compressedSize);
+		}
+		if (entry.method == ZipEntry.STORED) {
+			byte[] result = new byte[(int) entry.compressedSize];
+			System.arraycopy(data, 0, result, 0, result.length);
+			return result;
+		}
+		if (entry.method != ZipEntry.DEFLATED)
+			throw new ZipException("Unsupported compression method " + entry.method + " for " + name + ": " + location); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data);
+			byte[] result = new byte[(int) entry.size];
+			int inflated = 0;
+			while (inflated < result.length) {
+				int count = inflater.inflate(result, inflated, result.length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new ZipException("Truncated entry " + name + ": " + location); //$NON-NLS-1$ //$NON-NLS-2$
+				inflated += count;
+			}
+			return result;
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid entry " + name + ": " + location + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Returns a stream on the uncompressed content of the entry with the given name.
+	 * The stream does not need to be closed before the reader.
+	 * @param name the name of the entry
+	 * @return the stream or <code>null</code> if the archive has no such entry
+	 * @throws IOException if the entry cannot be read
+	 */
+	public InputStream getInputStream(String name) throws IOException {
+		byte[] content = getContent(name);
+		return content == null ? null : new ByteArrayInputStream(content);
+	}
+
+	/**
+	 * Closes the archive.  Closing a reader more than once has no effect.
+	 */
+	public synchronized void close() {
+		if (file == null)
+			return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing more can be done
+		}
+		file = null;
+	}
+
+	private static int getShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return getShort(bytes, offset) | getShort(bytes, offset + 2) << 16;
+	}
+
+	private static long getUnsignedInt(byte[] bytes, int offset) {
+		return getInt(bytes, offset) & 0xFFFFFFFFL;
+	}
+}
@@ -1,11 +1,12 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
  * 
  * Contributors: 
  *   Code 9 - initial API and implementation
+ *   IBM - ongoing development
  ******************************************************************************/
 package org.eclipse.equinox.p2.publisher;
 
@@ -45,6 +46,12 @@ public class AbstractAdvice implements IPublisherAdvice {
 		return adviceId == null ? true : adviceId.equals(id);
 	}
 
+	/**
+	 * Returns the id of the only IU this advice applies to, or <code>null</code> if the
+	 * advice is not limited to one id.  Subclasses that override {@link #isApplicable(String, boolean, String, Version)}
+	 * must not return an id here unless the advice is never applicable to other ids, as
+	 * {@link PublisherInfo} uses the id to look up advice.
+	 */
 	protected String getId() {
 		return null;
 	}
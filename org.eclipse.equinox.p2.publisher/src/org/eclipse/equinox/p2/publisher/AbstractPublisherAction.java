@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -13,14 +13,15 @@ package org.eclipse.equinox.p2.publisher;
 import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.zip.ZipOutputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactDescriptor;
 import org.eclipse.equinox.internal.p2.core.helpers.*;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils.IPathComputer;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
-import org.eclipse.equinox.internal.p2.publisher.Activator;
-import org.eclipse.equinox.internal.p2.publisher.QuotedTokenizer;
+import org.eclipse.equinox.internal.p2.publisher.*;
+import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -438,12 +439,14 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 			}
 		}
 
+		PublisherMetrics.Measurement measurement = PublisherMetrics.start(publisherInfo);
 		try {
 			OutputStream output = destination.getOutputStream(descriptor);
 			if (output == null)
 				return;
 			output = new BufferedOutputStream(output);
 			FileUtils.copyStream(new BufferedInputStream(new FileInputStream(inclusion)), true, output, true);
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_ARTIFACT, inclusion.length(), inclusion.length(), 0, 1);
 		} catch (ProvisionException e) {
 			LogHelper.log(e.getStatus());
 		} catch (IOException e) {
@@ -453,7 +456,7 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 
 	/**
 	 * Publishes the artifact by zipping the <code>files</code> using <code>root</code>
-	 * as a base for relative paths. Then copying the zip into the repository.
+	 * as a base for relative paths. The zip is written directly into the repository.
 	 * @param descriptor used to identify the zip.
 	 * @param inclusions and folders to be included in the zip. files can be null.
 	 * @param exclusions and folders to be excluded in the zip. files can be null.
@@ -476,26 +479,43 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 
 		// TODO need to implement the overwrite story in the repos
 		//		boolean overwrite = (info.getArtifactOptions() & IPublisherInfo.A_OVERWRITE) > 0;
-		// if there is just one file and the mode is as-is, just copy the file into the repo
-		// otherwise, zip up the files and copy the zip into the repo
-		File tempFile = null;
+		// zip up the files straight into the repo
+		PublisherMetrics.Measurement measurement = PublisherMetrics.start(publisherInfo);
+		OutputStream output = null;
+		boolean published = false;
 		try {
-			OutputStream output = destination.getOutputStream(descriptor);
+			output = destination.getOutputStream(descriptor);
 			if (output == null)
 				return;
-			output = new BufferedOutputStream(output);
-			tempFile = File.createTempFile("p2.generator", ""); //$NON-NLS-1$ //$NON-NLS-2$
-			FileUtils.zip(inclusions, exclusions, tempFile, prefixComputer);
-			if (output != null)
-				FileUtils.copyStream(new BufferedInputStream(new FileInputStream(tempFile)), true, output, true);
+			PublisherMetrics.CountingOutputStream counter = new PublisherMetrics.CountingOutputStream(new BufferedOutputStream(output));
+			ZipOutputStream zip = new ZipOutputStream(counter);
+			Set<File> exclusionSet = exclusions == null ? new HashSet<File>() : new HashSet<File>(Arrays.asList(exclusions));
+			for (int i = 0; i < inclusions.length; i++) {
+				prefixComputer.reset();
+				FileUtils.zip(zip, inclusions[i], exclusionSet, prefixComputer);
+			}
+			// closing the stream completes the artifact in the repo
+			zip.close();
+			published = true;
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_ARTIFACT, 0, counter.getCount(), 0, 1);
 		} catch (ProvisionException e) {
 			LogHelper.log(e.getStatus());
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Error publishing artifacts", e)); //$NON-NLS-1$
 			e.printStackTrace();
 		} finally {
-			if (tempFile != null)
-				tempFile.delete();
+			if (output != null && !published) {
+				// fail the repository stream so that closing it discards the partial artifact
+				// instead of committing it, then drop any descriptor it still left behind
+				if (output instanceof IStateful)
+					((IStateful) output).setStatus(new Status(IStatus.ERROR, Activator.ID, "Artifact was not completely published")); //$NON-NLS-1$
+				try {
+					output.close();
+				} catch (IOException e) {
+					// the artifact is removed anyway
+				}
+				destination.removeDescriptor(descriptor);
+			}
 		}
 	}
 
@@ -506,6 +526,10 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 	 * @return the first matching IU or <code>null</code> if none.
 	 */
 	protected IInstallableUnit queryForIU(IPublisherResult publisherResult, String iuId, Version version) {
+		InstallableUnitLookup lookup = InstallableUnitLookup.get(info);
+		if (lookup != null)
+			return lookup.findIU(publisherResult, info, iuId, version);
+
 		IQuery<IInstallableUnit> query = QueryUtil.createIUQuery(iuId, version);
 		if (version == null || Version.emptyVersion.equals(version))
 			query = QueryUtil.createLatestQuery(query);
@@ -531,6 +555,10 @@ public abstract class AbstractPublisherAction implements IPublisherAction {
 	 * @return The the IUs with the matching ids in the given range
 	 */
 	protected IQueryResult<IInstallableUnit> queryForIUs(IPublisherResult publisherResult, String iuId, VersionRange versionRange) {
+		InstallableUnitLookup lookup = InstallableUnitLookup.get(info);
+		if (lookup != null)
+			return lookup.findIUs(publisherResult, info, iuId, versionRange);
+
 		IQuery<IInstallableUnit> query = null;
 		IQueryResult<IInstallableUnit> queryResult = Collector.emptyCollector();
 		query = QueryUtil.createIUQuery(iuId, versionRange);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.equinox.p2.publisher;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -21,8 +22,7 @@ import org.eclipse.equinox.app.IApplication;
 import org.eclipse.equinox.app.IApplicationContext;
 import org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository;
-import org.eclipse.equinox.internal.p2.publisher.Activator;
-import org.eclipse.equinox.internal.p2.publisher.Messages;
+import org.eclipse.equinox.internal.p2.publisher.*;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.query.IQueryResult;
@@ -59,6 +59,9 @@ public abstract class AbstractPublisherApplication implements IApplication {
 	protected boolean append = false;
 	protected boolean reusePackedFiles = false;
 	protected String[] configurations;
+	// where to write the publisher metrics, null if they are not collected
+	protected File metricsFile;
+	protected boolean measureAllocations = false;
 	private IStatus status;
 
 	private ServiceReference<IProvisioningAgent> agentRef;
@@ -184,6 +187,23 @@ public abstract class AbstractPublisherApplication implements IApplication {
 
 		if (arg.equalsIgnoreCase("-contextArtifacts")) //$NON-NLS-1$
 			setContextRepositories(contextMetadataRepositories, processRepositoryList(parameter));
+
+		if (arg.equalsIgnoreCase("-threads")) { //$NON-NLS-1$
+			try {
+				publisherInfo.setParallelism(Integer.parseInt(parameter));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(NLS.bind(Messages.exception_threadCount, parameter));
+			}
+		}
+
+		if (arg.equalsIgnoreCase("-publishCache")) //$NON-NLS-1$
+			publisherInfo.setPublishCacheLocation(new File(parameter));
+
+		if (arg.equalsIgnoreCase("-checksums")) //$NON-NLS-1$
+			publisherInfo.setChecksumAlgorithms(AbstractPublisherAction.getArrayFromString(parameter, ",")); //$NON-NLS-1$
+
+		if (arg.equalsIgnoreCase("-metrics")) //$NON-NLS-1$
+			metricsFile = new File(parameter);
 	}
 
 	private URI[] processRepositoryList(String parameter) {
@@ -226,6 +246,9 @@ public abstract class AbstractPublisherApplication implements IApplication {
 
 		if (arg.equalsIgnoreCase("-inplace")) //$NON-NLS-1$
 			inplace = true;
+
+		if (arg.equalsIgnoreCase("-metricsAllocations")) //$NON-NLS-1$
+			measureAllocations = true;
 	}
 
 	private void setupAgent() throws ProvisionException {
@@ -277,11 +300,14 @@ public abstract class AbstractPublisherApplication implements IApplication {
 			initialize(publisherInfo);
 			System.out.println(NLS.bind(Messages.message_generatingMetadata, publisherInfo.getSummary()));
 
+			if (metricsFile != null && publisherInfo.getMetrics() == null)
+				publisherInfo.setMetrics(new PublisherMetrics(measureAllocations));
 			long before = System.currentTimeMillis();
 			IPublisherAction[] actions = createActions();
 			Publisher publisher = createPublisher(publisherInfo);
 			IStatus result = publisher.publish(actions, new NullProgressMonitor());
 			long after = System.currentTimeMillis();
+			writeMetrics(publisherInfo);
 
 			if (result.isOK()) {
 				System.out.println(NLS.bind(Messages.message_generationCompleted, String.valueOf((after - before) / 1000)));
@@ -305,6 +331,16 @@ public abstract class AbstractPublisherApplication implements IApplication {
 		return new Integer(1);
 	}
 
+	private void writeMetrics(PublisherInfo publisherInfo) {
+		if (metricsFile == null || publisherInfo.getMetrics() == null)
+			return;
+		try {
+			publisherInfo.getMetrics().write(metricsFile);
+		} catch (IOException e) {
+			System.out.println(NLS.bind(Messages.message_metricsNotWritten, metricsFile, e.getMessage()));
+		}
+	}
+
 	protected abstract IPublisherAction[] createActions();
 
 	protected Publisher createPublisher(PublisherInfo publisherInfo) {
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.publisher;
+
+/**
+ * A publisher action that describes which parts of the shared publishing state it reads and
+ * writes.  When the publisher is allowed to use more than one thread, actions whose reads and
+ * writes do not overlap may be performed concurrently.  Actions that conflict are always
+ * performed in the order in which they were given to the publisher.
+ * <p>
+ * The parts of the state are identified by opaque strings.  By convention these are the
+ * type of the IUs being created or queried in the publisher result (for example, "bundle"
+ * or "feature") and the fully qualified name of any advice interface added to or consulted
+ * in the publisher info.  Advice that an action adds for, and consults on, only the IUs it
+ * creates itself need not be declared.
+ * </p><p>
+ * Actions that do not implement this interface are assumed to read and write {@link #ALL}
+ * and are therefore never performed concurrently with any other action.
+ * </p>
+ * @see PublisherInfo#setParallelism(int)
+ */
+public interface IConcurrentPublisherAction extends IPublisherAction {
+
+	/**
+	 * A part name that stands for all of the publishing state.
+	 */
+	public static final String ALL = "*"; //$NON-NLS-1$
+
+	/**
+	 * Returns the parts of the publishing state this action reads.
+	 * @return the parts read by this action, never <code>null</code>
+	 */
+	public String[] getReads();
+
+	/**
+	 * Returns the parts of the publishing state this action adds to or changes.
+	 * @return the parts written by this action, never <code>null</code>
+	 */
+	public String[] getWrites();
+}
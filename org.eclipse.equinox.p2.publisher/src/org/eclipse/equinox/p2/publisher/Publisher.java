@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -14,7 +14,7 @@ import java.net.URI;
 import java.util.Collection;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
-import org.eclipse.equinox.internal.p2.publisher.Activator;
+import org.eclipse.equinox.internal.p2.publisher.*;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -198,25 +198,119 @@ public class Publisher {
 		}
 
 		public void run(IProgressMonitor monitor) {
+			int parallelism = ParallelExecutor.getParallelism(info);
+			if (parallelism > 1 && !isChain()) {
+				runConcurrently(parallelism, monitor);
+				return;
+			}
 			MultiStatus finalStatus = new MultiStatus("this", 0, "publishing result", null); //$NON-NLS-1$//$NON-NLS-2$
 			for (int i = 0; i < actions.length; i++) {
 				if (monitor.isCanceled()) {
 					result = Status.CANCEL_STATUS;
 					return;
 				}
-				IStatus status = actions[i].perform(info, results, monitor);
+				IStatus status = perform(actions[i], results, monitor);
 				finalStatus.merge(status);
 				monitor.worked(1);
 			}
 			result = finalStatus;
 		}
 
+		/*
+		 * Returns whether every action conflicts with the one before it, in which case no two
+		 * actions can be performed at the same time and they are best performed on the
+		 * calling thread.
+		 */
+		private boolean isChain() {
+			for (int i = 1; i < actions.length; i++)
+				if (!conflicts(actions[i - 1], actions[i]))
+					return false;
+			return true;
+		}
+
+		/*
+		 * Performs the actions on up to the given number of threads.  Each action waits for
+		 * all earlier actions it conflicts with so the outcome is the same as performing them
+		 * in order.  The statuses are merged in action order regardless of completion order.
+		 */
+		private void runConcurrently(int parallelism, IProgressMonitor monitor) {
+			final ConcurrentPublisherResult sharedResults = ConcurrentPublisherResult.share(results);
+			ParallelExecutor executor = new ParallelExecutor("Publisher", parallelism); //$NON-NLS-1$
+			ParallelExecutor.Task[] tasks = new ParallelExecutor.Task[actions.length];
+			for (int i = 0; i < actions.length; i++) {
+				final IPublisherAction action = actions[i];
+				tasks[i] = executor.add(new ParallelExecutor.Task() {
+					protected IStatus run(IProgressMonitor taskMonitor) {
+						return perform(action, sharedResults, taskMonitor);
+					}
+				});
+				for (int j = 0; j < i; j++)
+					if (conflicts(actions[j], action))
+						tasks[i].dependsOn(tasks[j]);
+			}
+			try {
+				executor.execute(monitor);
+			} catch (OperationCanceledException e) {
+				result = Status.CANCEL_STATUS;
+				return;
+			} finally {
+				sharedResults.mergeBack(results);
+			}
+			MultiStatus finalStatus = new MultiStatus("this", 0, "publishing result", null); //$NON-NLS-1$//$NON-NLS-2$
+			for (int i = 0; i < tasks.length; i++)
+				if (tasks[i].getStatus() != null)
+					finalStatus.merge(tasks[i].getStatus());
+			result = finalStatus;
+		}
+
+		IStatus perform(IPublisherAction action, IPublisherResult actionResults, IProgressMonitor monitor) {
+			PublisherMetrics metrics = PublisherMetrics.get(info);
+			if (metrics == null)
+				return action.perform(info, actionResults, monitor);
+			return metrics.perform(action, info, actionResults, monitor);
+		}
+
 		public IStatus getStatus() {
 			return result;
 		}
 
 	}
 
+	/*
+	 * Returns whether the two actions may not be performed at the same time; that is,
+	 * one of them writes something that the other reads or writes.
+	 */
+	static boolean conflicts(IPublisherAction first, IPublisherAction second) {
+		String[] firstWrites = getWrites(first);
+		String[] secondWrites = getWrites(second);
+		return intersects(firstWrites, getReads(second)) || intersects(firstWrites, secondWrites) || intersects(secondWrites, getReads(first));
+	}
+
+	private static String[] getReads(IPublisherAction action) {
+		if (action instanceof IConcurrentPublisherAction)
+			return ((IConcurrentPublisherAction) action).getReads();
+		return new String[] {IConcurrentPublisherAction.ALL};
+	}
+
+	private static String[] getWrites(IPublisherAction action) {
+		if (action instanceof IConcurrentPublisherAction)
+			return ((IConcurrentPublisherAction) action).getWrites();
+		return new String[] {IConcurrentPublisherAction.ALL};
+	}
+
+	private static boolean intersects(String[] first, String[] second) {
+		if (first.length == 0 || second.length == 0)
+			return false;
+		for (int i = 0; i < first.length; i++) {
+			if (IConcurrentPublisherAction.ALL.equals(first[i]))
+				return true;
+			for (int j = 0; j < second.length; j++)
+				if (IConcurrentPublisherAction.ALL.equals(second[j]) || first[i].equals(second[j]))
+					return true;
+		}
+		return false;
+	}
+
 	public IStatus publish(IPublisherAction[] actions, IProgressMonitor monitor) {
 		if (monitor == null)
 			monitor = new NullProgressMonitor();
@@ -248,8 +342,11 @@ public class Publisher {
 		// if there were no errors, publish all the ius.
 		IMetadataRepository metadataRepository = info.getMetadataRepository();
 		if (metadataRepository != null) {
+			PublisherMetrics.Measurement measurement = PublisherMetrics.start(info);
 			Collection<IInstallableUnit> ius = results.getIUs(null, null);
 			metadataRepository.addInstallableUnits(ius);
+			InstallableUnitLookup.repositoryChanged(info, metadataRepository);
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_METADATA, 0, 0, ius.size(), 0);
 		}
 		return Status.OK_STATUS;
 	}
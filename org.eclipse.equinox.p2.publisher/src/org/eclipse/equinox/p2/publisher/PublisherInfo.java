@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -10,7 +10,10 @@
  ******************************************************************************/
 package org.eclipse.equinox.p2.publisher;
 
+import java.io.File;
 import java.util.*;
+import org.eclipse.equinox.internal.p2.publisher.InstallableUnitLookup;
+import org.eclipse.equinox.internal.p2.publisher.PublisherMetrics;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
@@ -24,26 +27,127 @@ public class PublisherInfo implements IPublisherInfo {
 	private IArtifactRepository contextArtifactRepository;
 	private String[] configurations = new String[0];
 	private List<IPublisherAdvice> adviceList = new ArrayList<IPublisherAdvice>(11);
+	private Map<Class<?>, AdviceIndex> adviceIndexes = new HashMap<Class<?>, AdviceIndex>();
+	private int parallelism = 1;
+	private String[] checksumAlgorithms = new String[0];
+	private File publishCacheLocation = null;
+	private PublisherMetrics metrics = null;
+	private InstallableUnitLookup installableUnitLookup = null;
 
+	/**
+	 * An advice together with its position in the advice list.
+	 */
+	private static class IndexedAdvice {
+		final int position;
+		final IPublisherAdvice advice;
+
+		IndexedAdvice(int position, IPublisherAdvice advice) {
+			this.position = position;
+			this.advice = advice;
+		}
+	}
+
+	/**
+	 * The advice of one type, in the order it was added, and the same advice grouped by
+	 * the id it is limited to.  Indexes are built on first use and then kept up to date as
+	 * advice is added.
+	 */
+	private static class AdviceIndex {
+		final Class<?> type;
+		final List<IndexedAdvice> all = new ArrayList<IndexedAdvice>();
+		final List<IndexedAdvice> anyId = new ArrayList<IndexedAdvice>();
+		final Map<String, List<IndexedAdvice>> byId = new HashMap<String, List<IndexedAdvice>>();
+		int indexed = 0;
+
+		AdviceIndex(Class<?> type) {
+			this.type = type;
+		}
+
+		void update(List<IPublisherAdvice> adviceList) {
+			// the list is handed out by getAdvice() so it may have been changed behind our back
+			if (adviceList.size() < indexed) {
+				all.clear();
+				anyId.clear();
+				byId.clear();
+				indexed = 0;
+			}
+			for (; indexed < adviceList.size(); indexed++) {
+				IPublisherAdvice advice = adviceList.get(indexed);
+				if (!type.isInstance(advice))
+					continue;
+				IndexedAdvice entry = new IndexedAdvice(indexed, advice);
+				all.add(entry);
+				String id = advice instanceof AbstractAdvice ? ((AbstractAdvice) advice).getId() : null;
+				if (id == null) {
+					anyId.add(entry);
+					continue;
+				}
+				List<IndexedAdvice> sameId = byId.get(id);
+				if (sameId == null) {
+					sameId = new ArrayList<IndexedAdvice>(2);
+					byId.put(id, sameId);
+				}
+				sameId.add(entry);
+			}
+		}
+	}
+
+	// advice may be added by actions that run concurrently so access to the list is synchronized
 	public void addAdvice(IPublisherAdvice advice) {
-		adviceList.add(advice);
+		synchronized (adviceList) {
+			adviceList.add(advice);
+		}
 	}
 
 	public List<IPublisherAdvice> getAdvice() {
 		return adviceList;
 	}
 
-	@SuppressWarnings("unchecked")
 	public <T extends IPublisherAdvice> Collection<T> getAdvice(String configSpec, boolean includeDefault, String id, Version version, Class<T> type) {
 		ArrayList<T> result = new ArrayList<T>();
-		for (IPublisherAdvice advice : adviceList) {
-			if (type.isInstance(advice) && advice.isApplicable(configSpec, includeDefault, id, version))
-				// Ideally, we would use Class.cast here but it was introduced in Java 1.5
-				result.add((T) advice);
+		synchronized (adviceList) {
+			AdviceIndex index = adviceIndexes.get(type);
+			if (index == null) {
+				index = new AdviceIndex(type);
+				adviceIndexes.put(type, index);
+			}
+			index.update(adviceList);
+			if (id == null) {
+				addApplicable(index.all, configSpec, includeDefault, id, version, result);
+				return result;
+			}
+			List<IndexedAdvice> sameId = index.byId.get(id);
+			if (sameId == null) {
+				addApplicable(index.anyId, configSpec, includeDefault, id, version, result);
+				return result;
+			}
+			// merge the advice for the id with the advice for any id keeping the order in which it was added
+			int i = 0;
+			int j = 0;
+			while (i < sameId.size() || j < index.anyId.size()) {
+				IndexedAdvice next;
+				if (j == index.anyId.size() || (i < sameId.size() && sameId.get(i).position < index.anyId.get(j).position))
+					next = sameId.get(i++);
+				else
+					next = index.anyId.get(j++);
+				addApplicable(next, configSpec, includeDefault, id, version, result);
+			}
 		}
 		return result;
 	}
 
+	private static <T extends IPublisherAdvice> void addApplicable(List<IndexedAdvice> candidates, String configSpec, boolean includeDefault, String id, Version version, List<T> result) {
+		for (IndexedAdvice candidate : candidates)
+			addApplicable(candidate, configSpec, includeDefault, id, version, result);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends IPublisherAdvice> void addApplicable(IndexedAdvice candidate, String configSpec, boolean includeDefault, String id, Version version, List<T> result) {
+		if (candidate.advice.isApplicable(configSpec, includeDefault, id, version))
+			// Ideally, we would use Class.cast here but it was introduced in Java 1.5
+			result.add((T) candidate.advice);
+	}
+
 	public IArtifactRepository getArtifactRepository() {
 		return artifactRepository;
 	}
@@ -92,6 +196,86 @@ public class PublisherInfo implements IPublisherInfo {
 		configurations = value;
 	}
 
+	/**
+	 * Returns the maximum number of threads the publisher and its actions may use.
+	 * @return the number of threads to use; 1 means everything is done sequentially
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of threads the publisher and its actions may use.
+	 * @param value the number of threads to use; values less than 2 mean everything is
+	 * done sequentially
+	 */
+	public void setParallelism(int value) {
+		parallelism = value;
+	}
+
+	/**
+	 * Returns the digest algorithms of the checksums, in addition to MD5, that are recorded
+	 * in the descriptors of published artifacts.
+	 * @return the additional checksum algorithms, never <code>null</code>
+	 */
+	public String[] getChecksumAlgorithms() {
+		return checksumAlgorithms;
+	}
+
+	/**
+	 * Sets the digest algorithms of the checksums, in addition to MD5, that are recorded in
+	 * the descriptors of published artifacts.  The algorithms are named as for
+	 * {@link java.security.MessageDigest}, for example <code>SHA-256</code>.
+	 * @param value the additional checksum algorithms
+	 */
+	public void setChecksumAlgorithms(String[] value) {
+		checksumAlgorithms = value == null ? new String[0] : value;
+	}
+
+	/**
+	 * Returns the file in which actions remember what they published for inputs that
+	 * have not changed since, or <code>null</code> if nothing is remembered.
+	 */
+	public File getPublishCacheLocation() {
+		return publishCacheLocation;
+	}
+
+	/**
+	 * Sets the file in which actions remember what they published so that IUs for inputs
+	 * that have not changed can be taken from the metadata repository in later runs.
+	 * This is only useful when appending to existing repositories.
+	 * @param value the cache file or <code>null</code> to not use a cache
+	 */
+	public void setPublishCacheLocation(File value) {
+		publishCacheLocation = value;
+	}
+
+	/**
+	 * Returns the metrics that the publisher and its actions record to, or <code>null</code>
+	 * if nothing is measured.
+	 */
+	public PublisherMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics that the publisher and its actions record to.
+	 * @param value the metrics or <code>null</code> to not measure anything
+	 */
+	public void setMetrics(PublisherMetrics value) {
+		metrics = value;
+	}
+
+	/**
+	 * Returns the lookup that actions use to find IUs in the publisher result and
+	 * the repositories of this info.
+	 */
+	public synchronized InstallableUnitLookup getInstallableUnitLookup() {
+		if (installableUnitLookup == null)
+			installableUnitLookup = new InstallableUnitLookup();
+		return installableUnitLookup;
+	}
+
 	public String getSummary() {
 		return "."; //$NON-NLS-1$
 	}
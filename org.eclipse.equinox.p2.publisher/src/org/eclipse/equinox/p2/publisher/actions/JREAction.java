@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,7 +27,7 @@ import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 import org.eclipse.osgi.util.ManifestElement;
 import org.osgi.framework.BundleException;
 
-public class JREAction extends AbstractPublisherAction {
+public class JREAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
 	private static final String DEFAULT_JRE_NAME = "a.jre"; //$NON-NLS-1$
 	private static final Version DEFAULT_JRE_VERSION = Version.parseVersion("1.6"); //$NON-NLS-1$
 	private static final String DEFAULT_PROFILE = "/profiles/JavaSE-1.6.profile"; //$NON-NLS-1$
@@ -35,6 +35,8 @@ public class JREAction extends AbstractPublisherAction {
 	private static final String PROFILE_NAME = "osgi.java.profile.name"; //$NON-NLS-1$
 	private static final String PROFILE_TARGET_VERSION = "org.eclipse.jdt.core.compiler.codegen.targetPlatform"; //$NON-NLS-1$
 	private static final String PROFILE_SYSTEM_PACKAGES = "org.osgi.framework.system.packages"; //$NON-NLS-1$
+	private static final String[] READS = {};
+	private static final String[] WRITES = {"jre"}; //$NON-NLS-1$
 
 	private File jreLocation;
 	private String environment;
@@ -237,4 +239,15 @@ public class JREAction extends AbstractPublisherAction {
 		}
 		return null;
 	}
+
+	/*
+	 * The JRE IU is described entirely by the profile we are given.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
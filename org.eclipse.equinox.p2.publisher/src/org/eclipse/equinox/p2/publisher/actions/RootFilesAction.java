@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -14,6 +14,7 @@ import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils.IPathComputer;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
@@ -22,7 +23,10 @@ import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 
-public class RootFilesAction extends AbstractPublisherAction {
+public class RootFilesAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {IRootFilesAdvice.class.getName(), ITouchpointAdvice.class.getName()};
+	private static final String[] WRITES = {"rootFiles"}; //$NON-NLS-1$
+
 	private String idBase;
 	private Version version;
 	private String flavor;
@@ -54,10 +58,19 @@ public class RootFilesAction extends AbstractPublisherAction {
 		// we have N platforms, generate a CU for each
 		// TODO try and find common properties across platforms
 		String[] configSpecs = publisherInfo.getConfigurations();
-		for (int i = 0; i < configSpecs.length; i++) {
-			if (monitor.isCanceled())
+		int parallelism = ParallelExecutor.getParallelism(publisherInfo);
+		if (parallelism > 1 && configSpecs.length > 1) {
+			try {
+				generateRootFileIUsConcurrently(configSpecs, innerResult, parallelism, monitor);
+			} catch (OperationCanceledException e) {
 				return Status.CANCEL_STATUS;
-			generateRootFileIUs(configSpecs[i], innerResult);
+			}
+		} else {
+			for (int i = 0; i < configSpecs.length; i++) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				generateRootFileIUs(configSpecs[i], innerResult);
+			}
 		}
 		// merge the IUs  into the final result as non-roots and create a parent IU that captures them all
 		results.merge(innerResult, IPublisherResult.MERGE_ALL_NON_ROOT);
@@ -68,6 +81,18 @@ public class RootFilesAction extends AbstractPublisherAction {
 		return Status.OK_STATUS;
 	}
 
+	private void generateRootFileIUsConcurrently(String[] configSpecs, IPublisherResult innerResult, int parallelism, IProgressMonitor monitor) {
+		List<IPublisherResult> configResults = ParallelExecutor.map("Root files publisher", parallelism, Arrays.asList(configSpecs), new ParallelExecutor.Function<String, IPublisherResult>() { //$NON-NLS-1$
+			public IPublisherResult apply(int index, String configSpec, IProgressMonitor taskMonitor) {
+				IPublisherResult configResult = new PublisherResult();
+				generateRootFileIUs(configSpec, configResult);
+				return configResult;
+			}
+		}, monitor);
+		for (IPublisherResult configResult : configResults)
+			innerResult.merge(configResult, IPublisherResult.MERGE_MATCHING);
+	}
+
 	private void publishTopLevelRootFilesIU(Collection<? extends IVersionedId> children, IPublisherResult result) {
 		InstallableUnitDescription descriptor = createParentIU(children, computeIUId(idBase, flavor), version);
 		descriptor.setSingleton(true);
@@ -79,7 +104,7 @@ public class RootFilesAction extends AbstractPublisherAction {
 
 	/**
 	 * Generates IUs and CUs for the files that make up the root files for a given
-	 * ws/os/arch combination.
+	 * ws/os/arch combination.  May be called for several combinations at once.
 	 */
 	private void generateRootFileIUs(String configSpec, IPublisherResult result) {
 		// Create the IU for the executable
@@ -161,4 +186,14 @@ public class RootFilesAction extends AbstractPublisherAction {
 		return new RootFilesAdvice(root, includeList, excludeList, configSpec);
 	}
 
+	/*
+	 * Root files IUs are built from the root files advice of each configuration.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,7 +27,9 @@ import org.eclipse.osgi.util.NLS;
  * Create a top level IU that lists all the current roots as well as any explicitly identified
  * top level IUs.
  */
-public class RootIUAction extends AbstractPublisherAction {
+public class RootIUAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {ALL};
+	private static final String[] WRITES = {"root"}; //$NON-NLS-1$
 
 	private Version version;
 	private String id;
@@ -184,4 +186,16 @@ public class RootIUAction extends AbstractPublisherAction {
 		}
 		return null;
 	}
+
+	/*
+	 * The root IU requires the IUs published by the actions before us, so we have to
+	 * wait for all of them.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
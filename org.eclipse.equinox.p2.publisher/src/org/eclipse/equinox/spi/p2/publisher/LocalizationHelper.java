@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,9 +14,9 @@ import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.internal.p2.publisher.LocalizationStore;
+import org.eclipse.equinox.internal.p2.publisher.ZipArchiveReader;
 
 /**
  * 	Helper functions supporting the processing of localized
@@ -90,44 +90,33 @@ public final class LocalizationHelper {
 	}
 
 	public static Map<Locale, Map<String, String>> getJarPropertyLocalizations(File root, String localizationPath, Locale defaultLocale, String[] propertyKeys) {
-		ZipFile jarFile = null;
+		ZipArchiveReader jarFile = null;
 		Map<Locale, Map<String, String>> localizations = new HashMap<Locale, Map<String, String>>(4);
 		try {
-			jarFile = new ZipFile(root, ZipFile.OPEN_READ);
-			for (Enumeration<? extends ZipEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
-				ZipEntry nextEntry = entries.nextElement();
-				String nextName = nextEntry.getName();
+			// only the properties files are read, the rest of the jar is never inflated
+			jarFile = ZipArchiveReader.open(root);
+			String[] names = jarFile.getEntryNames();
+			for (int i = 0; i < names.length; i++) {
+				String nextName = names[i];
 				String localeString = LocalizationHelper.getLocaleString(nextName, localizationPath);
 
-				if (!nextEntry.isDirectory() && localeString != null) {
+				if (!nextName.endsWith("/") && localeString != null) { //$NON-NLS-1$
 					Locale nextLocale = LocalizationHelper.getLocale(localeString);
-					InputStream stream = null;
-					try {
-						stream = jarFile.getInputStream(nextEntry);
-						Map<String, String> properties = CollectionUtils.loadProperties(stream);
-						Map<String, String> localizedStrings = LocalizationHelper.getLocalizedProperties(propertyKeys, properties);
-						if (localizedStrings.size() > 0) {
+					Map<String, String> properties = CollectionUtils.loadProperties(jarFile.getInputStream(nextName));
+					Map<String, String> localizedStrings = LocalizationHelper.getLocalizedProperties(propertyKeys, properties);
+					if (localizedStrings.size() > 0) {
+						localizations.put(nextLocale, localizedStrings);
+						if (DEFAULT_LOCALE.equals(nextLocale) && defaultLocale != null) {
 							localizations.put(nextLocale, localizedStrings);
-							if (DEFAULT_LOCALE.equals(nextLocale) && defaultLocale != null) {
-								localizations.put(nextLocale, localizedStrings);
-							}
 						}
-					} finally {
-						if (stream != null)
-							stream.close();
 					}
 				}
 			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 		} finally {
-			if (jarFile != null) {
-				try {
-					jarFile.close();
-				} catch (IOException ioe) {
-					// do nothing
-				}
-			}
+			if (jarFile != null)
+				jarFile.close();
 		}
 
 		return localizations;
@@ -164,8 +153,9 @@ public final class LocalizationHelper {
 			String key = propertyKeys[i];
 			if (key != null) {
 				String localizedValue = properties.get(key);
+				// the same keys and often the same values are used by many bundles
 				if (localizedValue != null)
-					localizedProperties.put(key, localizedValue);
+					localizedProperties.put(LocalizationStore.intern(key), LocalizationStore.intern(localizedValue));
 			}
 		}
 		return localizedProperties;
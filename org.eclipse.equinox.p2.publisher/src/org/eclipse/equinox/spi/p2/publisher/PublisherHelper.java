@@ -14,11 +14,11 @@
 package org.eclipse.equinox.spi.p2.publisher;
 
 import java.io.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.BasicVersion;
+import org.eclipse.equinox.internal.p2.publisher.ArtifactChecksums;
+import org.eclipse.equinox.internal.p2.publisher.PublisherMetrics;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
@@ -85,7 +85,7 @@ public class PublisherHelper {
 	public static final IProvidedCapability FEATURE_CAPABILITY = MetadataFactory.createProvidedCapability(NAMESPACE_ECLIPSE_TYPE, TYPE_ECLIPSE_FEATURE, Version.createOSGi(1, 0, 0));
 
 	public static IArtifactDescriptor createArtifactDescriptor(IArtifactKey key, File pathOnDisk) {
-		return createArtifactDescriptor(null, null, key, pathOnDisk);
+		return createArtifactDescriptor(null, null, key, pathOnDisk, null);
 	}
 
 	/**
@@ -96,10 +96,25 @@ public class PublisherHelper {
 	 * @return a new artifact descriptor
 	 */
 	public static IArtifactDescriptor createArtifactDescriptor(IPublisherInfo info, IArtifactKey key, File pathOnDisk) {
-		return createArtifactDescriptor(info, info.getArtifactRepository(), key, pathOnDisk);
+		return createArtifactDescriptor(info, info.getArtifactRepository(), key, pathOnDisk, null);
 	}
 
-	private static IArtifactDescriptor createArtifactDescriptor(IPublisherInfo info, IArtifactRepository artifactRepo, IArtifactKey key, File pathOnDisk) {
+	/**
+	 * Creates an artifact descriptor for the given key and path reusing checksums of the
+	 * artifact that have already been computed.
+	 * @param info the publisher info
+	 * @param key the key of the artifact to publish
+	 * @param pathOnDisk the path of the artifact on disk
+	 * @param checksums the known checksums of the artifact keyed by digest algorithm, may
+	 * be <code>null</code>.  Checksums that are needed but not known are computed from the
+	 * artifact on disk.
+	 * @return a new artifact descriptor
+	 */
+	public static IArtifactDescriptor createArtifactDescriptor(IPublisherInfo info, IArtifactKey key, File pathOnDisk, Map<String, String> checksums) {
+		return createArtifactDescriptor(info, info.getArtifactRepository(), key, pathOnDisk, checksums);
+	}
+
+	private static IArtifactDescriptor createArtifactDescriptor(IPublisherInfo info, IArtifactRepository artifactRepo, IArtifactKey key, File pathOnDisk, Map<String, String> knownChecksums) {
 		IArtifactDescriptor result = artifactRepo != null ? artifactRepo.createArtifactDescriptor(key) : new ArtifactDescriptor(key);
 		if (result instanceof ArtifactDescriptor) {
 			ArtifactDescriptor descriptor = (ArtifactDescriptor) result;
@@ -107,53 +122,25 @@ public class PublisherHelper {
 				descriptor.setProperty(IArtifactDescriptor.ARTIFACT_SIZE, Long.toString(pathOnDisk.length()));
 				descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, Long.toString(pathOnDisk.length()));
 			}
-			if (info == null || (info.getArtifactOptions() & IPublisherInfo.A_NO_MD5) == 0) {
-				String md5 = computeMD5(pathOnDisk);
-				if (md5 != null)
-					descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_MD5, md5);
+			// compute all of the checksums we need in one pass over the artifact
+			boolean md5 = info == null || (info.getArtifactOptions() & IPublisherInfo.A_NO_MD5) == 0;
+			String[] algorithms = ArtifactChecksums.getAlgorithms(info, md5);
+			if (algorithms.length > 0) {
+				PublisherMetrics.Measurement measurement = PublisherMetrics.start(info);
+				Map<String, String> checksums = ArtifactChecksums.compute(pathOnDisk, algorithms, knownChecksums);
+				// only count the work if the file was actually read
+				if (measurement != null && pathOnDisk != null && pathOnDisk.isFile() && (knownChecksums == null || !knownChecksums.keySet().containsAll(checksums.keySet())))
+					PublisherMetrics.stop(measurement, PublisherHelper.class, PublisherMetrics.PHASE_DIGEST, pathOnDisk.length(), 0);
+				for (int i = 0; i < algorithms.length; i++) {
+					String checksum = checksums.get(algorithms[i]);
+					if (checksum != null)
+						descriptor.setProperty(ArtifactChecksums.getPropertyName(algorithms[i]), checksum);
+				}
 			}
 		}
 		return result;
 	}
 
-	private static String computeMD5(File file) {
-		if (file == null || file.isDirectory() || !file.exists())
-			return null;
-		MessageDigest md5Checker;
-		try {
-			md5Checker = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
-		} catch (NoSuchAlgorithmException e) {
-			return null;
-		}
-		InputStream fis = null;
-		try {
-			fis = new BufferedInputStream(new FileInputStream(file));
-			int read = -1;
-			while ((read = fis.read()) != -1) {
-				md5Checker.update((byte) read);
-			}
-			byte[] digest = md5Checker.digest();
-			StringBuffer buf = new StringBuffer();
-			for (int i = 0; i < digest.length; i++) {
-				if ((digest[i] & 0xFF) < 0x10)
-					buf.append('0');
-				buf.append(Integer.toHexString(digest[i] & 0xFF));
-			}
-			return buf.toString();
-		} catch (FileNotFoundException e) {
-			return null;
-		} catch (IOException e) {
-			return null;
-		} finally {
-			if (fis != null)
-				try {
-					fis.close();
-				} catch (IOException e) {
-					// ignore
-				}
-		}
-	}
-
 	public static IProvidedCapability makeTranslationCapability(String hostId, Locale locale) {
 		return MetadataFactory.createProvidedCapability(NAMESPACE_IU_LOCALIZATION, locale.toString(), Version.createOSGi(1, 0, 0));
 	}
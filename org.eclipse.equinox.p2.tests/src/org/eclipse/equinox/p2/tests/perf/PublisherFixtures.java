@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates the bundles, features and advice used by the publisher performance tests.
+ * The same arguments always produce the same bytes, including time stamps, so that
+ * numbers from different runs and machines can be compared.
+ */
+public class PublisherFixtures {
+	private static final long TIMESTAMP = 1293840000000L; // 2011-01-01
+	private static final String[] LOCALES = {"de", "fr", "ja"};
+
+	public static String getBundleId(int index) {
+		return "perf.bundle" + index;
+	}
+
+	public static String getFeatureId(int index) {
+		return "perf.feature" + index;
+	}
+
+	/**
+	 * Creates the given number of bundle jars, or bundle directories, in the given folder.
+	 * Each bundle requires the previous one, is localized into a few locales, has a p2.inf
+	 * if <code>withAdvice</code> is set and contains <code>entries</code> class files.
+	 */
+	public static File[] createBundles(File folder, int count, int entries, boolean jars, boolean withAdvice) throws IOException {
+		folder.mkdirs();
+		File[] result = new File[count];
+		for (int i = 0; i < count; i++) {
+			Map<String, byte[]> content = createBundleContent(i, entries, withAdvice);
+			String name = getBundleId(i) + "_1.0.0.v2011";
+			result[i] = jars ? writeJar(new File(folder, name + ".jar"), content) : writeDirectory(new File(folder, name), content);
+		}
+		return result;
+	}
+
+	private static Map<String, byte[]> createBundleContent(int index, int entries, boolean withAdvice) throws IOException {
+		Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue("Bundle-ManifestVersion", "2");
+		attributes.putValue("Bundle-SymbolicName", getBundleId(index) + ";singleton:=true");
+		attributes.putValue("Bundle-Version", "1.0.0.v2011");
+		attributes.putValue("Bundle-Name", "%bundleName");
+		attributes.putValue("Bundle-Vendor", "%providerName");
+		attributes.putValue("Bundle-Localization", "plugin");
+		attributes.putValue("Export-Package", getBundleId(index) + ";version=\"1.0.0\"," + getBundleId(index) + ".internal;x-internal:=true");
+		if (index > 0)
+			attributes.putValue("Require-Bundle", getBundleId(index - 1) + ";bundle-version=\"[1.0.0,2.0.0)\"");
+		attributes.putValue("Import-Package", "org.osgi.framework;version=\"1.3.0\"");
+		ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+		manifest.write(manifestBytes);
+		content.put(JarFile.MANIFEST_NAME, manifestBytes.toByteArray());
+
+		content.put("plugin.properties", toBytes("bundleName = Performance Bundle " + index + "\nproviderName = Eclipse.org\n"));
+		for (int i = 0; i < LOCALES.length; i++)
+			content.put("plugin_" + LOCALES[i] + ".properties", toBytes("bundleName = Bundle " + index + " (" + LOCALES[i] + ")\nproviderName = Eclipse.org (" + LOCALES[i] + ")\n"));
+		if (withAdvice)
+			content.put("META-INF/p2.inf", toBytes(createAdviceFile(index)));
+
+		Random random = new Random(index);
+		for (int i = 0; i < entries; i++) {
+			byte[] bytes = new byte[512 + random.nextInt(4096)];
+			random.nextBytes(bytes);
+			content.put(getBundleId(index).replace('.', '/') + "/Class" + i + ".class", bytes);
+		}
+		return content;
+	}
+
+	private static String createAdviceFile(int index) {
+		StringBuffer buffer = new StringBuffer();
+		Map<String, String> advice = createAdvice(index);
+		for (Iterator<Map.Entry<String, String>> iter = advice.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, String> entry = iter.next();
+			buffer.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the content of a p2.inf file with properties, capabilities, requirements and
+	 * touchpoint instructions as it would be passed to the advice file parser.
+	 */
+	public static Map<String, String> createAdvice(int index) {
+		Map<String, String> advice = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 4; i++) {
+			advice.put("properties." + i + ".name", "perf.property" + i);
+			advice.put("properties." + i + ".value", "value" + index + "." + i);
+			advice.put("provides." + i + ".namespace", "perf.namespace");
+			advice.put("provides." + i + ".name", "perf.capability" + index + "." + i);
+			advice.put("provides." + i + ".version", "1.0.$qualifier$");
+			advice.put("requires." + i + ".namespace", "perf.namespace");
+			advice.put("requires." + i + ".name", "perf.required" + i);
+			advice.put("requires." + i + ".range", "[1.0.0,2.0.0)");
+			advice.put("requires." + i + ".greedy", "false");
+		}
+		advice.put("instructions.configure", "setProgramProperty(propName:perf.property" + index + ",propValue:${artifact.location});");
+		advice.put("instructions.unconfigure", "setProgramProperty(propName:perf.property" + index + ",propValue:);");
+		return advice;
+	}
+
+	/**
+	 * Creates the given number of feature directories in the given folder.  Each feature
+	 * includes <code>plugins</code> of the bundles created by {@link #createBundles(File, int, int, boolean, boolean)}
+	 * and the previous feature.
+	 */
+	public static File[] createFeatures(File folder, int count, int plugins) throws IOException {
+		File[] result = new File[count];
+		for (int i = 0; i < count; i++) {
+			Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+			StringBuffer xml = new StringBuffer();
+			xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			xml.append("<feature id=\"").append(getFeatureId(i)).append("\" label=\"%featureName\" version=\"1.0.0.v2011\" provider-name=\"%providerName\">\n");
+			xml.append("   <description>%description</description>\n");
+			xml.append("   <copyright>%copyright</copyright>\n");
+			xml.append("   <license url=\"%licenseURL\">%license</license>\n");
+			if (i > 0)
+				xml.append("   <includes id=\"").append(getFeatureId(i - 1)).append("\" version=\"1.0.0.v2011\"/>\n");
+			xml.append("   <requires>\n      <import plugin=\"org.eclipse.core.runtime\" version=\"3.6.0\" match=\"compatible\"/>\n   </requires>\n");
+			for (int j = 0; j < plugins; j++) {
+				String id = getBundleId(i * plugins + j);
+				xml.append("   <plugin id=\"").append(id).append("\" download-size=\"0\" install-size=\"0\" version=\"1.0.0.v2011\" unpack=\"false\"/>\n");
+			}
+			xml.append("</feature>\n");
+			content.put("feature.xml", toBytes(xml.toString()));
+			content.put("feature.properties", toBytes("featureName = Performance Feature " + i + "\nproviderName = Eclipse.org\ndescription = A feature used to measure the publisher.\ncopyright = Copyright (c) 2011\nlicenseURL = license.html\nlicense = The license.\n"));
+			for (int j = 0; j < LOCALES.length; j++)
+				content.put("feature_" + LOCALES[j] + ".properties", toBytes("featureName = Feature " + i + " (" + LOCALES[j] + ")\n"));
+			content.put("build.properties", toBytes("bin.includes = feature.xml,feature*.properties\n"));
+			result[i] = writeDirectory(new File(folder, getFeatureId(i) + "_1.0.0.v2011"), content);
+		}
+		return result;
+	}
+
+	private static byte[] toBytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	private static File writeJar(File jar, Map<String, byte[]> content) throws IOException {
+		JarOutputStream output = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)));
+		try {
+			for (Iterator<Map.Entry<String, byte[]>> iter = content.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry<String, byte[]> entry = iter.next();
+				ZipEntry zipEntry = new ZipEntry(entry.getKey());
+				zipEntry.setTime(TIMESTAMP);
+				output.putNextEntry(zipEntry);
+				output.write(entry.getValue());
+				output.closeEntry();
+			}
+		} finally {
+			output.close();
+		}
+		jar.setLastModified(TIMESTAMP);
+		return jar;
+	}
+
+	private static File writeDirectory(File directory, Map<String, byte[]> content) throws IOException {
+		for (Iterator<Map.Entry<String, byte[]>> iter = content.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, byte[]> entry = iter.next();
+			File file = new File(directory, entry.getKey());
+			file.getParentFile().mkdirs();
+			OutputStream output = new FileOutputStream(file);
+			try {
+				output.write(entry.getValue());
+			} finally {
+				output.close();
+			}
+			file.setLastModified(TIMESTAMP);
+		}
+		return directory;
+	}
+}
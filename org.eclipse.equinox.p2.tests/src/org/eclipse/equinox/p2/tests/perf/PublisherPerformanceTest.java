@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,18 +10,153 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.perf;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.eclipse.core.runtime.*;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.publisher.IPublisherResult;
-import org.eclipse.equinox.p2.publisher.PublisherResult;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.*;
+import org.eclipse.equinox.p2.publisher.actions.*;
+import org.eclipse.equinox.p2.publisher.eclipse.*;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.spi.p2.publisher.LocalizationHelper;
 
 /**
- * Performance tests for the p2 publisher
+ * Performance tests for the p2 publisher.  The inputs are generated by {@link PublisherFixtures}
+ * so that the tests do not depend on anything but the test bundle.
  */
 public class PublisherPerformanceTest extends ProvisioningPerformanceTest {
 	private static final int REPEATS = 5;
+	private static final int BUNDLE_COUNT = 500;
+	private static final String[] LOCALIZED_KEYS = {"bundleName", "providerName"};
+
+	private File fixtures;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		fixtures = getTempFolder();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(fixtures);
+		super.tearDown();
+	}
+
+	private void publishBundles(final File[] bundles, String name) {
+		new PerformanceTestRunner() {
+			protected void test() {
+				PublisherInfo info = new PublisherInfo();
+				IStatus status = new BundlesAction(bundles).perform(info, new PublisherResult(), new NullProgressMonitor());
+				assertTrue(status.isOK());
+			}
+		}.run(this, name, REPEATS, 1);
+	}
+
+	public void testPublishSmallBundleJars() throws IOException {
+		File[] bundles = PublisherFixtures.createBundles(fixtures, BUNDLE_COUNT, 10, true, false);
+		publishBundles(bundles, "Test publish " + BUNDLE_COUNT + " small bundle jars");
+	}
+
+	public void testPublishLargeBundleJars() throws IOException {
+		File[] bundles = PublisherFixtures.createBundles(fixtures, BUNDLE_COUNT / 5, 500, true, true);
+		publishBundles(bundles, "Test publish " + BUNDLE_COUNT / 5 + " large bundle jars with p2.inf");
+	}
+
+	public void testPublishBundleDirectories() throws IOException {
+		File[] bundles = PublisherFixtures.createBundles(fixtures, BUNDLE_COUNT, 10, false, true);
+		publishBundles(bundles, "Test publish " + BUNDLE_COUNT + " bundle directories with p2.inf");
+	}
+
+	public void testPublishFeatures() throws IOException {
+		final File[] features = PublisherFixtures.createFeatures(fixtures, 200, 20);
+		new PerformanceTestRunner() {
+			protected void test() {
+				IStatus status = new FeaturesAction(features).perform(new PublisherInfo(), new PublisherResult(), new NullProgressMonitor());
+				assertTrue(status.isOK());
+			}
+		}.run(this, "Test publish 200 features", REPEATS, 1);
+	}
+
+	public void testParseAdviceFile() {
+		final int ADVICE_COUNT = 1000;
+		final List<Map<String, String>> advice = new ArrayList<Map<String, String>>(ADVICE_COUNT);
+		for (int i = 0; i < ADVICE_COUNT; i++)
+			advice.add(PublisherFixtures.createAdvice(i));
+		final Version version = Version.create("1.0.0.v2011");
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < ADVICE_COUNT; i++)
+					new AdviceFileParser(PublisherFixtures.getBundleId(i), version, advice.get(i)).parse();
+			}
+		}.run(this, "Test parse " + ADVICE_COUNT + " advice files", REPEATS, 10);
+	}
+
+	public void testJarLocalizations() throws IOException {
+		final File[] bundles = PublisherFixtures.createBundles(fixtures, BUNDLE_COUNT, 10, true, false);
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < bundles.length; i++)
+					LocalizationHelper.getJarPropertyLocalizations(bundles[i], "plugin", null, LOCALIZED_KEYS);
+			}
+		}.run(this, "Test localize " + BUNDLE_COUNT + " bundle jars", REPEATS, 1);
+	}
+
+	public void testGetAdvice() {
+		final int ADVICE_COUNT = 5000;
+		final PublisherInfo info = new PublisherInfo();
+		final Version version = Version.create("1.0.0.v2011");
+		for (int i = 0; i < ADVICE_COUNT; i++) {
+			info.addAdvice(new BundleShapeAdvice(PublisherFixtures.getBundleId(i), version, IBundleShapeAdvice.JAR));
+			if (i % 10 == 0)
+				info.addAdvice(new AdviceFileAdvice(PublisherFixtures.getBundleId(i), version, new Path(fixtures.getAbsolutePath()), AdviceFileAdvice.BUNDLE_ADVICE_FILE));
+		}
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < ADVICE_COUNT; i++) {
+					String id = PublisherFixtures.getBundleId(i);
+					info.getAdvice(null, false, id, version, IBundleShapeAdvice.class);
+					info.getAdvice(null, false, id, version, ITouchpointAdvice.class);
+					info.getAdvice(null, false, id, version, IPropertyAdvice.class);
+				}
+			}
+		}.run(this, "Test look up advice for " + ADVICE_COUNT + " bundles", REPEATS, 1);
+	}
+
+	public void testPublishToRepository() throws IOException {
+		final File[] bundles = PublisherFixtures.createBundles(new File(fixtures, "plugins"), BUNDLE_COUNT, 10, true, true);
+		final File[] features = PublisherFixtures.createFeatures(new File(fixtures, "features"), BUNDLE_COUNT / 20, 20);
+		new PerformanceTestRunner() {
+			File repository;
+			PublisherInfo info;
+
+			protected void setUp() {
+				repository = getTempFolder();
+				info = new PublisherInfo();
+				info.setArtifactOptions(IPublisherInfo.A_INDEX | IPublisherInfo.A_PUBLISH);
+				try {
+					info.setMetadataRepository(createMetadataRepository(repository.toURI(), null));
+					info.setArtifactRepository(createArtifactRepository(repository.toURI(), null));
+				} catch (ProvisionException e) {
+					fail("Unable to create the repositories", e);
+				}
+			}
+
+			protected void tearDown() {
+				getMetadataRepositoryManager().removeRepository(repository.toURI());
+				delete(repository);
+			}
+
+			protected void test() {
+				IPublisherAction[] actions = new IPublisherAction[] {new FeaturesAction(features), new BundlesAction(bundles)};
+				IStatus status = new Publisher(info).publish(actions, new NullProgressMonitor());
+				assertTrue(status.isOK());
+			}
+		}.run(this, "Test publish " + BUNDLE_COUNT + " bundles and " + BUNDLE_COUNT / 20 + " features to a repository", REPEATS, 1);
+	}
 
 	public void testQueryPublisherResult() {
 		final int IU_COUNT = 3000;
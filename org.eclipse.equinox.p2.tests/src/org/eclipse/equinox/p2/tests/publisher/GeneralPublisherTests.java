@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2005, 2009 IBM Corporation and others.
+ *  Copyright (c) 2005, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,15 +10,22 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.publisher;
 
-import java.io.PrintStream;
+import java.io.*;
 import java.lang.reflect.Method;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.jar.JarOutputStream;
+import java.util.zip.*;
 import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.publisher.LocalizationStore;
 import org.eclipse.equinox.internal.p2.publisher.Messages;
 import org.eclipse.equinox.internal.p2.publisher.QuotedTokenizer;
+import org.eclipse.equinox.internal.p2.publisher.ZipArchiveReader;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.ProductFile;
-import org.eclipse.equinox.p2.publisher.eclipse.FeaturesAndBundlesPublisherApplication;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.PublisherInfo;
+import org.eclipse.equinox.p2.publisher.eclipse.*;
 import org.eclipse.equinox.p2.tests.StringBufferStream;
+import org.eclipse.equinox.spi.p2.publisher.LocalizationHelper;
 
 public class GeneralPublisherTests extends TestCase {
 
@@ -114,4 +121,118 @@ public class GeneralPublisherTests extends TestCase {
 		assertEquals("d", tokenizer.nextToken());
 		assertFalse(tokenizer.hasMoreTokens());
 	}
+
+	public void testAdviceLookup() {
+		PublisherInfo info = new PublisherInfo();
+		Version version = Version.create("1.0.0");
+		IBundleShapeAdvice a1 = new BundleShapeAdvice("a", version, IBundleShapeAdvice.JAR);
+		IBundleShapeAdvice any = new IBundleShapeAdvice() {
+			public String getShape() {
+				return IBundleShapeAdvice.DIR;
+			}
+
+			public boolean isApplicable(String configSpec, boolean includeDefault, String id, Version candidate) {
+				return true;
+			}
+		};
+		IBundleShapeAdvice a2 = new BundleShapeAdvice("a", version, IBundleShapeAdvice.DIR);
+		IBundleShapeAdvice b = new BundleShapeAdvice("b", version, IBundleShapeAdvice.JAR);
+		info.addAdvice(a1);
+		info.addAdvice(any);
+		info.addAdvice(a2);
+		info.addAdvice(b);
+
+		assertEquals("1.0", Arrays.asList(new IBundleShapeAdvice[] {a1, any, a2}), info.getAdvice(null, true, "a", version, IBundleShapeAdvice.class));
+		assertEquals("1.1", Arrays.asList(new IBundleShapeAdvice[] {any, b}), info.getAdvice(null, true, "b", version, IBundleShapeAdvice.class));
+		assertEquals("1.2", Arrays.asList(new IBundleShapeAdvice[] {any}), info.getAdvice(null, true, "c", version, IBundleShapeAdvice.class));
+		assertEquals("1.3", Arrays.asList(new IBundleShapeAdvice[] {a1, any, a2, b}), info.getAdvice(null, true, null, null, IBundleShapeAdvice.class));
+		assertEquals("1.4", Arrays.asList(new IBundleShapeAdvice[] {any}), info.getAdvice(null, true, "a", Version.create("2.0.0"), IBundleShapeAdvice.class));
+		assertTrue("1.5", info.getAdvice(null, true, "a", version, IBrandingAdvice.class).isEmpty());
+
+		// advice added after a lookup is found by the next lookup
+		IBundleShapeAdvice a3 = new BundleShapeAdvice("a", version, IBundleShapeAdvice.JAR);
+		info.addAdvice(a3);
+		assertEquals("2.0", Arrays.asList(new IBundleShapeAdvice[] {a1, any, a2, a3}), info.getAdvice(null, true, "a", version, IBundleShapeAdvice.class));
+	}
+
+	public void testZipArchiveReader() throws Exception {
+		File jar = File.createTempFile("archive", ".jar");
+		try {
+			byte[] stored = "stored content".getBytes("UTF-8");
+			byte[] deflated = new byte[10000];
+			new Random(0).nextBytes(deflated);
+			Arrays.fill(deflated, 0, 5000, (byte) 'x');
+			JarOutputStream output = new JarOutputStream(new FileOutputStream(jar));
+			try {
+				output.putNextEntry(new ZipEntry("META-INF/"));
+				output.closeEntry();
+				ZipEntry storedEntry = new ZipEntry("META-INF/stored.txt");
+				storedEntry.setMethod(ZipEntry.STORED);
+				storedEntry.setSize(stored.length);
+				CRC32 crc = new CRC32();
+				crc.update(stored);
+				storedEntry.setCrc(crc.getValue());
+				output.putNextEntry(storedEntry);
+				output.write(stored);
+				output.closeEntry();
+				ZipEntry deflatedEntry = new ZipEntry("data/deflated.bin");
+				deflatedEntry.setExtra(new byte[] {(byte) 0xCA, (byte) 0xFE, 0, 0});
+				output.putNextEntry(deflatedEntry);
+				output.write(deflated);
+				output.closeEntry();
+				output.putNextEntry(new ZipEntry("empty.txt"));
+				output.closeEntry();
+				output.setComment("a comment");
+			} finally {
+				output.close();
+			}
+
+			ZipArchiveReader reader = ZipArchiveReader.open(jar);
+			try {
+				assertEquals("1.0", Arrays.asList(new String[] {"META-INF/", "META-INF/stored.txt", "data/deflated.bin", "empty.txt"}), Arrays.asList(reader.getEntryNames()));
+				assertTrue("1.1", Arrays.equals(stored, reader.getContent("META-INF/stored.txt")));
+				assertTrue("1.2", Arrays.equals(deflated, reader.getContent("data/deflated.bin")));
+				assertEquals("1.3", 0, reader.getContent("empty.txt").length);
+				assertNull("1.4", reader.getContent("missing.txt"));
+				assertNull("1.5", reader.getInputStream("missing.txt"));
+				assertTrue("1.6", reader.hasEntry("empty.txt"));
+			} finally {
+				reader.close();
+			}
+
+			FileOutputStream garbage = new FileOutputStream(jar);
+			garbage.write(deflated);
+			garbage.close();
+			try {
+				ZipArchiveReader.open(jar).close();
+				fail("2.0");
+			} catch (ZipException e) {
+				// expected
+			}
+		} finally {
+			jar.delete();
+		}
+	}
+
+	public void testLocalizationStore() {
+		String value = LocalizationStore.intern(new String("Eclipse.org"));
+		assertEquals("1.0", "Eclipse.org", value);
+		assertSame("1.1", value, LocalizationStore.intern(new String("Eclipse.org")));
+		assertNull("1.2", LocalizationStore.intern(null));
+
+		String name = LocalizationStore.getPropertyName(Locale.GERMAN, "bundleName");
+		assertEquals("2.0", "de.bundleName", name);
+		assertSame("2.1", name, LocalizationStore.getPropertyName(Locale.GERMAN, "bundleName"));
+
+		// translations read for different bundles share their strings
+		Map<String, String> properties1 = new HashMap<String, String>();
+		properties1.put(new String("providerName"), new String("Eclipse.org"));
+		Map<String, String> properties2 = new HashMap<String, String>();
+		properties2.put(new String("providerName"), new String("Eclipse.org"));
+		Map<String, String> localized1 = LocalizationHelper.getLocalizedProperties(new String[] {"providerName"}, properties1);
+		Map<String, String> localized2 = LocalizationHelper.getLocalizedProperties(new String[] {"providerName"}, properties2);
+		assertEquals("3.0", properties1, localized1);
+		assertSame("3.1", localized1.get("providerName"), localized2.get("providerName"));
+		assertSame("3.2", localized1.keySet().iterator().next(), localized2.keySet().iterator().next());
+	}
 }
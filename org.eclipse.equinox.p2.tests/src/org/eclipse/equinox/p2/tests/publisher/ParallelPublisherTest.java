@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.publisher.ConcurrentPublisherResult;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.*;
+import org.eclipse.equinox.p2.publisher.actions.JREAction;
+import org.eclipse.equinox.p2.publisher.eclipse.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+
+public class ParallelPublisherTest extends AbstractProvisioningTest {
+
+	/**
+	 * An action that adds one IU and records what it could see in the result.
+	 */
+	static class RecordingAction implements IConcurrentPublisherAction {
+		final String id;
+		final String[] reads;
+		final String[] writes;
+		final String seen;
+		final List<String> log;
+		boolean found = false;
+
+		RecordingAction(String id, String[] reads, String[] writes, String seen, List<String> log) {
+			this.id = id;
+			this.reads = reads;
+			this.writes = writes;
+			this.seen = seen;
+			this.log = log;
+		}
+
+		public IStatus perform(IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+			try {
+				// give other actions a chance to run out of order if they are allowed to
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			if (seen != null)
+				found = !results.getIUs(seen, null).isEmpty();
+			results.addIU(createIU(id), IPublisherResult.ROOT);
+			log.add(id);
+			return new Status(IStatus.WARNING, "test", id); //$NON-NLS-1$
+		}
+
+		public String[] getReads() {
+			return reads;
+		}
+
+		public String[] getWrites() {
+			return writes;
+		}
+	}
+
+	/*
+	 * Waits for the other action of the test to be performed at the same time before
+	 * performing the given one.
+	 */
+	static IStatus rendezvous(CyclicBarrier barrier, List<Exception> failures, IPublisherAction action, IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+		try {
+			barrier.await(10, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			failures.add(e);
+		}
+		return action.perform(info, results, monitor);
+	}
+
+	private PublisherInfo createInfo(int threads) {
+		PublisherInfo info = new PublisherInfo();
+		info.setParallelism(threads);
+		return info;
+	}
+
+	public void testConflictingActionsRunInOrder() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		RecordingAction writer = new RecordingAction("writer", new String[0], new String[] {"bundle"}, null, log);
+		RecordingAction other = new RecordingAction("other", new String[0], new String[] {"feature"}, null, log);
+		RecordingAction reader = new RecordingAction("reader", new String[] {"bundle"}, new String[0], "writer", log);
+
+		PublisherResult result = new PublisherResult();
+		IStatus status = new Publisher(createInfo(4), result).publish(new IPublisherAction[] {writer, other, reader}, new NullProgressMonitor());
+
+		assertTrue("1.0", reader.found);
+		assertTrue("1.1", log.indexOf("writer") < log.indexOf("reader"));
+		assertEquals("1.2", 3, log.size());
+		assertFalse("1.3", status.isOK());
+		IInstallableUnit iu = result.getIU("reader", IPublisherResult.ROOT);
+		assertNotNull("1.4", iu);
+	}
+
+	public void testStatusIsMergedInActionOrder() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		IPublisherAction[] actions = new IPublisherAction[8];
+		for (int i = 0; i < actions.length; i++)
+			actions[i] = new RecordingAction("iu" + i, new String[0], new String[] {"part" + i}, null, log);
+
+		Publisher publisher = new Publisher(createInfo(4), new PublisherResult());
+		IStatus status = publisher.publish(actions, new NullProgressMonitor());
+
+		assertEquals("1.0", 8, log.size());
+		IStatus[] children = status.getChildren();
+		assertEquals("1.1", 8, children.length);
+		for (int i = 0; i < children.length; i++)
+			assertEquals("1.2." + i, "iu" + i, children[i].getMessage());
+	}
+
+	public void testUndeclaredActionIsABarrier() {
+		final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		RecordingAction first = new RecordingAction("first", new String[0], new String[] {"a"}, null, log);
+		IPublisherAction barrier = new IPublisherAction() {
+			public IStatus perform(IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+				log.add("barrier");
+				return Status.OK_STATUS;
+			}
+		};
+		RecordingAction last = new RecordingAction("last", new String[0], new String[] {"b"}, null, log);
+
+		new Publisher(createInfo(4), new PublisherResult()).publish(new IPublisherAction[] {first, barrier, last}, new NullProgressMonitor());
+
+		assertEquals("1.0", Arrays.asList(new String[] {"first", "barrier", "last"}), log);
+	}
+
+	public void testBuiltInActionsOverlap() {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+		File foo = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo");
+		final BundlesAction bundles = new BundlesAction(new File[] {foo});
+		final JREAction jre = new JREAction((String) null);
+		IPublisherAction[] actions = new IPublisherAction[2];
+		actions[0] = new IConcurrentPublisherAction() {
+			public IStatus perform(IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+				return rendezvous(barrier, failures, bundles, info, results, monitor);
+			}
+
+			public String[] getReads() {
+				return bundles.getReads();
+			}
+
+			public String[] getWrites() {
+				return bundles.getWrites();
+			}
+		};
+		actions[1] = new IConcurrentPublisherAction() {
+			public IStatus perform(IPublisherInfo info, IPublisherResult results, IProgressMonitor monitor) {
+				return rendezvous(barrier, failures, jre, info, results, monitor);
+			}
+
+			public String[] getReads() {
+				return jre.getReads();
+			}
+
+			public String[] getWrites() {
+				return jre.getWrites();
+			}
+		};
+
+		PublisherResult result = new PublisherResult();
+		IStatus status = new Publisher(createInfo(2), result).publish(actions, new NullProgressMonitor());
+
+		assertEquals("1.0", Collections.EMPTY_LIST, failures);
+		assertTrue("1.1", status.isOK());
+		assertNotNull("1.2", result.getIU("foo", IPublisherResult.ROOT));
+		assertTrue("1.3", result.getIUs(null, null).size() > 1);
+	}
+
+	public void testFeaturesWithoutUnpackedBundlesDoNotBlockBundles() {
+		Feature packed = new Feature("packed", "1.0.0");
+		FeatureEntry entry = new FeatureEntry("packed.bundle", "1.0.0", true);
+		entry.setUnpack(false);
+		packed.addEntry(entry);
+		FeaturesAction features = new FeaturesAction(new Feature[] {packed});
+		assertFalse("1.0", Arrays.asList(features.getWrites()).contains(IBundleShapeAdvice.class.getName()));
+
+		Feature unpacked = new Feature("unpacked", "1.0.0");
+		unpacked.addEntry(new FeatureEntry("unpacked.bundle", "1.0.0", true));
+		features = new FeaturesAction(new Feature[] {packed, unpacked});
+		assertTrue("2.0", Arrays.asList(features.getWrites()).contains(IBundleShapeAdvice.class.getName()));
+
+		// features still to be read may unpack any bundle
+		features = new FeaturesAction(new File[] {getTempFolder()});
+		assertTrue("3.0", Arrays.asList(features.getWrites()).contains(IBundleShapeAdvice.class.getName()));
+	}
+
+	public void testNestedExecutorUsesPool() {
+		// only released once all inner tasks are running at the same time
+		final CountDownLatch latch = new CountDownLatch(4);
+		ParallelExecutor outer = new ParallelExecutor("Outer", 2);
+		for (int i = 0; i < 2; i++) {
+			outer.add(new ParallelExecutor.Task() {
+				protected IStatus run(IProgressMonitor monitor) {
+					ParallelExecutor inner = new ParallelExecutor("Inner", 4);
+					for (int j = 0; j < 2; j++) {
+						inner.add(new ParallelExecutor.Task() {
+							protected IStatus run(IProgressMonitor innerMonitor) {
+								latch.countDown();
+								try {
+									latch.await(10, TimeUnit.SECONDS);
+								} catch (InterruptedException e) {
+									// fail below
+								}
+								return Status.OK_STATUS;
+							}
+						});
+					}
+					inner.execute(monitor);
+					return Status.OK_STATUS;
+				}
+			});
+		}
+		outer.execute(new NullProgressMonitor());
+		assertEquals("1.0", 0, latch.getCount());
+	}
+
+	public void testBundlesActionUsesThreadsInPublisher() throws IOException {
+		File folder = getTempFolder();
+		File[] locations = new File[4];
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = new File(folder, "bundle" + i);
+			StringBuffer manifest = new StringBuffer();
+			manifest.append("Manifest-Version: 1.0\n");
+			manifest.append("Bundle-ManifestVersion: 2\n");
+			manifest.append("Bundle-SymbolicName: bundle" + i + "\n");
+			manifest.append("Bundle-Version: 1.0.0\n");
+			writeBuffer(new File(locations[i], "META-INF/MANIFEST.MF"), manifest);
+		}
+		// the first bundles published wait for a second thread to publish a bundle as well
+		final CountDownLatch latch = new CountDownLatch(2);
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		PublisherInfo info = new PublisherInfo() {
+			public <T extends IPublisherAdvice> Collection<T> getAdvice(String configSpec, boolean includeDefault, String id, Version version, Class<T> type) {
+				if (id != null && id.startsWith("bundle") && threads.add(Thread.currentThread())) {
+					latch.countDown();
+					try {
+						latch.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						// fail below
+					}
+				}
+				return super.getAdvice(configSpec, includeDefault, id, version, type);
+			}
+		};
+		info.setParallelism(2);
+
+		// the JRE action does not conflict with the bundles, so the bundles are published by a task
+		PublisherResult result = new PublisherResult();
+		IStatus status = new Publisher(info, result).publish(new IPublisherAction[] {new BundlesAction(locations), new JREAction((String) null)}, new NullProgressMonitor());
+
+		assertTrue("1.0", status.isOK());
+		assertTrue("1.1", threads.size() > 1);
+		for (int i = 0; i < locations.length; i++)
+			assertNotNull("1.2." + i, result.getIU("bundle" + i, IPublisherResult.ROOT));
+	}
+
+	public void testMapKeepsItemOrder() {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 20; i++)
+			items.add(new Integer(i));
+		List<String> results = ParallelExecutor.map("Map", 4, items, new ParallelExecutor.Function<Integer, String>() {
+			public String apply(int index, Integer item, IProgressMonitor monitor) {
+				try {
+					// finish the later items first
+					Thread.sleep(20 - item.intValue());
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				return index + ":" + item;
+			}
+		}, new NullProgressMonitor());
+
+		assertEquals("1.0", 20, results.size());
+		for (int i = 0; i < results.size(); i++)
+			assertEquals("1.1." + i, i + ":" + i, results.get(i));
+	}
+
+	public void testPerformMergesInActionOrder() {
+		List<String> log = Collections.synchronizedList(new ArrayList<String>());
+		List<IPublisherAction> actions = new ArrayList<IPublisherAction>();
+		for (int i = 0; i < 8; i++)
+			actions.add(new RecordingAction("iu" + i, new String[0], new String[0], "existing", log));
+		PublisherResult result = new PublisherResult();
+		result.addIU(createIU("existing"), IPublisherResult.ROOT);
+		MultiStatus status = new MultiStatus("test", 0, "test", null);
+
+		ParallelExecutor.perform("Perform", 4, actions, new PublisherInfo(), result, status, new NullProgressMonitor());
+
+		IStatus[] children = status.getChildren();
+		assertEquals("1.0", 8, children.length);
+		for (int i = 0; i < children.length; i++) {
+			assertEquals("1.1." + i, "iu" + i, children[i].getMessage());
+			assertTrue("1.2." + i, ((RecordingAction) actions.get(i)).found);
+			assertNotNull("1.3." + i, result.getIU("iu" + i, IPublisherResult.ROOT));
+		}
+	}
+
+	public void testConcurrentResult() throws InterruptedException {
+		final ConcurrentPublisherResult result = new ConcurrentPublisherResult(4);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100; j++)
+						result.addIU(createIU("iu" + j, Version.createOSGi(1, thread, 0)), thread % 2 == 0 ? IPublisherResult.ROOT : IPublisherResult.NON_ROOT);
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		assertEquals("1.0", 400, result.getIUs(null, null).size());
+		assertEquals("1.1", 200, result.getIUs(null, IPublisherResult.ROOT).size());
+		assertEquals("1.2", 4, result.getIUs("iu42", null).size());
+		assertEquals("1.3", 2, result.getIUs("iu42", IPublisherResult.NON_ROOT).size());
+		assertNotNull("1.4", result.getIU("iu42", Version.createOSGi(1, 3, 0), null));
+		assertNull("1.5", result.getIU("iu42", Version.createOSGi(1, 3, 0), IPublisherResult.ROOT));
+		assertEquals("1.6", 4, result.query(QueryUtil.createIUQuery("iu42"), null).toUnmodifiableSet().size());
+		assertEquals("1.7", 400, result.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+
+		// an IU with the same id and version replaces the existing one
+		IInstallableUnit replacement = createIU("iu42", Version.createOSGi(1, 0, 0));
+		result.addIU(replacement, IPublisherResult.ROOT);
+		assertEquals("2.0", 4, result.getIUs("iu42", null).size());
+		assertSame("2.1", replacement, result.getIU("iu42", Version.createOSGi(1, 0, 0), IPublisherResult.ROOT));
+	}
+
+	public void testSharedResultIsMergedBack() {
+		PublisherResult original = new PublisherResult();
+		original.addIU(createIU("existing"), IPublisherResult.ROOT);
+		ConcurrentPublisherResult shared = ConcurrentPublisherResult.share(original);
+		assertNotNull("1.0", shared.getIU("existing", IPublisherResult.ROOT));
+		assertSame("1.1", shared, ConcurrentPublisherResult.share(shared));
+
+		shared.addIU(createIU("added"), IPublisherResult.NON_ROOT);
+		shared.mergeBack(original);
+		assertNotNull("2.0", original.getIU("added", IPublisherResult.NON_ROOT));
+		assertEquals("2.1", 2, original.getIUs(null, null).size());
+	}
+
+	public void testSharedResultReadsThrough() {
+		PublisherResult original = new PublisherResult();
+		IInstallableUnit existing = createIU("existing", Version.createOSGi(1, 0, 0));
+		original.addIU(existing, IPublisherResult.ROOT);
+		original.addIU(createIU("existing", Version.createOSGi(2, 0, 0)), IPublisherResult.ROOT);
+		ConcurrentPublisherResult shared = ConcurrentPublisherResult.share(original);
+
+		// an IU added to the shared result hides the one with the same id and version
+		IInstallableUnit replacement = createIU("existing", Version.createOSGi(1, 0, 0));
+		shared.addIU(replacement, IPublisherResult.ROOT);
+		shared.addIU(createIU("added"), IPublisherResult.NON_ROOT);
+		assertEquals("1.0", 2, original.getIUs(null, null).size());
+		assertSame("1.1", replacement, shared.getIU("existing", Version.createOSGi(1, 0, 0), null));
+		assertNotNull("1.2", shared.getIU("existing", Version.createOSGi(2, 0, 0), IPublisherResult.ROOT));
+		assertEquals("1.3", 2, shared.getIUs("existing", IPublisherResult.ROOT).size());
+		assertTrue("1.4", shared.getIUs("existing", null).contains(replacement));
+		assertEquals("1.5", 3, shared.getIUs(null, null).size());
+		assertEquals("1.6", 2, shared.query(QueryUtil.createIUQuery("existing"), null).toUnmodifiableSet().size());
+		assertEquals("1.7", 3, shared.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+
+		shared.mergeBack(original);
+		assertNotNull("2.0", original.getIU("added", IPublisherResult.NON_ROOT));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2009 IBM Corporation and others.
+ *  Copyright (c) 2009, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,16 +10,25 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.publisher.actions;
 
+import java.io.*;
+import java.util.Arrays;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
+import org.eclipse.equinox.internal.p2.publisher.InstallableUnitLookup;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.actions.ICapabilityAdvice;
 import org.eclipse.equinox.p2.publisher.actions.IUpdateDescriptorAdvice;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestMetadataRepository;
+import org.eclipse.equinox.p2.tests.publisher.TestArtifactRepository;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 
 public final class AbstractPublisherActionTest extends AbstractProvisioningTest {
@@ -39,6 +48,18 @@ public final class AbstractPublisherActionTest extends AbstractProvisioningTest
 		public void testProcessUpdateDescriptorAdvice(InstallableUnitDescription iu, IPublisherInfo publisherInfo) {
 			AbstractPublisherAction.processUpdateDescriptorAdvice(iu, publisherInfo);
 		}
+
+		public IInstallableUnit testQueryForIU(IPublisherResult result, String id, Version version) {
+			return queryForIU(result, id, version);
+		}
+
+		public IQueryResult<IInstallableUnit> testQueryForIUs(IPublisherResult result, String id, VersionRange range) {
+			return queryForIUs(result, id, range);
+		}
+
+		public void testPublishArtifact(IArtifactDescriptor descriptor, File directory, IPublisherInfo publisherInfo) {
+			publishArtifact(descriptor, new File[] {directory}, null, publisherInfo, createRootPrefixComputer(directory));
+		}
 	}
 
 	static class TestUpdateDescriptorAdvice implements IUpdateDescriptorAdvice {
@@ -251,4 +272,91 @@ public final class AbstractPublisherActionTest extends AbstractProvisioningTest
 		assertEquals(4, iu.getMetaRequirements().size());
 	}
 
+	public void testQueryForIU() {
+		final int[] queries = new int[1];
+		IInstallableUnit a1 = createIU("a", Version.create("1.0.0"));
+		IInstallableUnit a2 = createIU("a", Version.create("2.0.0"));
+		TestMetadataRepository context = new TestMetadataRepository(getAgent(), new IInstallableUnit[] {a1, a2}) {
+			public IQueryResult query(IQuery query, IProgressMonitor monitor) {
+				queries[0]++;
+				return super.query(query, monitor);
+			}
+		};
+		PublisherInfo info = new PublisherInfo();
+		info.setContextMetadataRepository(context);
+		TestAction action = new TestAction();
+		action.setPublisherInfo(info);
+		PublisherResult result = new PublisherResult();
+
+		assertSame("1.0", a2, action.testQueryForIU(result, "a", null));
+		assertSame("1.1", a1, action.testQueryForIU(result, "a", Version.create("1.0.0")));
+		assertNull("1.2", action.testQueryForIU(result, "a", Version.create("3.0.0")));
+		assertNull("1.3", action.testQueryForIU(result, "c", null));
+		assertNull("1.4", action.testQueryForIU(result, "c", null));
+		// the context is indexed once, whether ids are found or not
+		assertEquals("1.5", 1, queries[0]);
+
+		// the publisher result is looked at first
+		IInstallableUnit a3 = createIU("a", Version.create("3.0.0"));
+		result.addIU(a3, IPublisherResult.ROOT);
+		assertSame("2.0", a3, action.testQueryForIU(result, "a", null));
+		assertEquals("2.1", 1, action.testQueryForIUs(result, "a", null).toUnmodifiableSet().size());
+		assertEquals("2.2", 2, action.testQueryForIUs(result, "a", new VersionRange("[1.0.0,3.0.0)")).toUnmodifiableSet().size());
+
+		// IUs added to a repository are found once the change is reported
+		IInstallableUnit b1 = createIU("b", Version.create("1.0.0"));
+		final int[] metadataQueries = new int[1];
+		TestMetadataRepository metadata = new TestMetadataRepository(getAgent(), new IInstallableUnit[0]) {
+			public IQueryResult query(IQuery query, IProgressMonitor monitor) {
+				metadataQueries[0]++;
+				return super.query(query, monitor);
+			}
+		};
+		info.setMetadataRepository(metadata);
+		assertNull("3.0", action.testQueryForIU(result, "b", null));
+		assertNull("3.1", action.testQueryForIU(result, "b", null));
+		// each id is only looked up once in the metadata repository
+		assertEquals("3.2", 1, metadataQueries[0]);
+		metadata.addInstallableUnits(Arrays.asList(new IInstallableUnit[] {b1}));
+		InstallableUnitLookup.repositoryChanged(info, metadata);
+		assertSame("3.3", b1, action.testQueryForIU(result, "b", null));
+	}
+
+	public void testFailedArtifactIsRemoved() throws IOException {
+		File directory = getTempFolder();
+		writeBuffer(new File(directory, "file.txt"), new StringBuffer("content"));
+		final boolean[] closed = new boolean[1];
+		final boolean[] committed = new boolean[1];
+		TestArtifactRepository repository = new TestArtifactRepository(getAgent()) {
+			public OutputStream getOutputStream(IArtifactDescriptor descriptor) {
+				// takes the first bytes, then fails like a full disk
+				return new ArtifactOutputStream(new ByteArrayOutputStream(), descriptor) {
+					public void write(byte[] b, int off, int len) throws IOException {
+						super.write(b, off, len);
+						throw new IOException("No space left on device");
+					}
+
+					public void close() throws IOException {
+						closed[0] = true;
+						super.close();
+					}
+				};
+			}
+
+			public void addDescriptor(IArtifactDescriptor descriptor, byte[] bytes) {
+				committed[0] = true;
+				super.addDescriptor(descriptor, bytes);
+			}
+		};
+		PublisherInfo info = new PublisherInfo();
+		info.setArtifactOptions(IPublisherInfo.A_INDEX | IPublisherInfo.A_PUBLISH);
+		info.setArtifactRepository(repository);
+		IArtifactDescriptor descriptor = repository.createArtifactDescriptor(ArtifactKey.parse("binary,failed,1.0.0"));
+		new TestAction().testPublishArtifact(descriptor, directory, info);
+
+		assertTrue("1.0", closed[0]);
+		// the partial artifact is never committed to the repository
+		assertFalse("1.1", committed[0]);
+		assertFalse("1.2", repository.contains(descriptor));
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 IBM Corporation and others.
+ * Copyright (c) 2009, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,11 +10,14 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.publisher.actions;
 
+import java.io.ByteArrayInputStream;
 import java.util.*;
 import junit.framework.TestCase;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.publisher.eclipse.AdviceFileAdvice;
 import org.eclipse.equinox.p2.publisher.eclipse.AdviceFileParser;
 import org.eclipse.equinox.p2.query.QueryUtil;
 
@@ -475,4 +478,22 @@ public class AdviceFileParserTest extends TestCase {
 		assertEquals(false, secondRequirement.isGreedy());
 		assertEquals(1, secondRequirement.getMin());
 	}
+
+	public void testSharedAdviceFiles() throws Exception {
+		String shared = "requires.0.namespace = testNamespace\nrequires.0.name = testName\nrequires.0.range = [1.0.0, 2.0.0)\n";
+		String versioned = "provides.0.namespace = testNamespace\nprovides.0.name = testName\nprovides.0.version = $version$\n";
+		Path base = new Path("/");
+		AdviceFileAdvice a1 = new AdviceFileAdvice("a", Version.create("1.0.0"), base, AdviceFileAdvice.BUNDLE_ADVICE_FILE, new ByteArrayInputStream(shared.getBytes("ISO-8859-1")));
+		AdviceFileAdvice a2 = new AdviceFileAdvice("b", Version.create("2.0.0"), base, AdviceFileAdvice.BUNDLE_ADVICE_FILE, new ByteArrayInputStream(shared.getBytes("ISO-8859-1")));
+		assertTrue(a1.containsAdvice());
+		assertTrue(a1.isApplicable(null, false, "a", Version.create("1.0.0")));
+		assertTrue(a2.isApplicable(null, false, "b", Version.create("2.0.0")));
+		// advice that does not depend on the IU is parsed once
+		assertSame(a1.getRequiredCapabilities(null)[0], a2.getRequiredCapabilities(null)[0]);
+
+		AdviceFileAdvice v1 = new AdviceFileAdvice("a", Version.create("1.0.0"), base, AdviceFileAdvice.BUNDLE_ADVICE_FILE, new ByteArrayInputStream(versioned.getBytes("ISO-8859-1")));
+		AdviceFileAdvice v2 = new AdviceFileAdvice("b", Version.create("2.0.0"), base, AdviceFileAdvice.BUNDLE_ADVICE_FILE, new ByteArrayInputStream(versioned.getBytes("ISO-8859-1")));
+		assertEquals(Version.create("1.0.0"), v1.getProvidedCapabilities(null)[0].getVersion());
+		assertEquals(Version.create("2.0.0"), v2.getProvidedCapabilities(null)[0].getVersion());
+	}
 }
@@ -14,11 +14,15 @@ import static org.easymock.EasyMock.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.jar.*;
 import java.util.zip.ZipInputStream;
 import org.easymock.EasyMock;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.director.QueryableArray;
 import org.eclipse.equinox.internal.p2.metadata.*;
+import org.eclipse.equinox.internal.p2.publisher.PublisherMetrics;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.BundleArchiveScan;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.publisher.*;
@@ -142,6 +146,204 @@ public class BundlesActionTest extends ActionTest {
 		assertEquals("2.2", "German Foo", utils.getIUProperty(iu, IInstallableUnit.PROP_NAME, Locale.GERMAN.toString()));
 	}
 
+	public void testTranslationFragmentConcurrent() {
+		File foo_fragment = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo.fragment");//$NON-NLS-1$
+		File foo = new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo");//$NON-NLS-1$
+		BundlesAction bundlesAction = new BundlesAction(new File[] {foo, foo_fragment});
+		PublisherInfo info = new PublisherInfo();
+		info.setParallelism(4);
+		PublisherResult results = new PublisherResult();
+
+		assertTrue("1.0", bundlesAction.perform(info, results, new NullProgressMonitor()).isOK());
+		Collection ius = results.getIUs(null, null);
+		assertEquals("1.1", 3, ius.size());
+		QueryableArray queryableArray = new QueryableArray((IInstallableUnit[]) ius.toArray(new IInstallableUnit[ius.size()]));
+		IQueryResult result = queryableArray.query(QueryUtil.createIUQuery("foo"), null);
+		assertEquals("1.2", 1, queryResultSize(result));
+		IInstallableUnit iu = (IInstallableUnit) result.iterator().next();
+		TranslationSupport utils = new TranslationSupport();
+		utils.setTranslationSource(queryableArray);
+		assertEquals("1.3", "German Foo", utils.getIUProperty(iu, IInstallableUnit.PROP_NAME, Locale.GERMAN.toString()));
+	}
+
+	public void testArchiveScan() throws Exception {
+		BundleArchiveScan scan = BundleArchiveScan.scan(TEST_FILE2);
+		assertNotNull("1.0", scan);
+		IArtifactDescriptor descriptor = PublisherHelper.createArtifactDescriptor(createBundleArtifactKey(), TEST_FILE2);
+		assertEquals("1.1", descriptor.getProperty(IArtifactDescriptor.DOWNLOAD_MD5), scan.getMD5());
+		InputStream manifest = scan.getInputStream(JarFile.MANIFEST_NAME);
+		assertNotNull("1.2", manifest);
+		manifest.close();
+		assertNull("1.3", scan.getInputStream(BundleArchiveScan.ADVICE_FILE));
+		assertNull("1.4", scan.getInputStream("bundleMeUp2.txt"));
+		assertNull("1.5", BundleArchiveScan.scan(TEST_FILE1));
+		assertNull("1.6", BundleArchiveScan.scan(TEST_FILE2, new String[0]).getMD5());
+	}
+
+	public void testArchiveScanRetainsLocalizations() throws Exception {
+		File jar = new File(getTempFolder(), "localized.jar");//$NON-NLS-1$
+		JarOutputStream output = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			String[] names = {"plugin.properties", "OSGI-INF/l10n/bundle.properties", "OSGI-INF/l10n/bundle_de.properties", "about.properties"};//$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+			for (int i = 0; i < names.length; i++) {
+				output.putNextEntry(new JarEntry(names[i]));
+				output.write("bundleName = Foo\n".getBytes());//$NON-NLS-1$
+				output.closeEntry();
+			}
+		} finally {
+			output.close();
+		}
+		BundleArchiveScan scan = BundleArchiveScan.scan(jar);
+		assertNotNull("1.0", scan);
+		scan.retainLocalizations(new String[] {"OSGI-INF/l10n/bundle"});//$NON-NLS-1$
+		assertNull("1.1", scan.getInputStream("plugin.properties"));//$NON-NLS-1$
+		assertNull("1.2", scan.getInputStream("about.properties"));//$NON-NLS-1$
+		assertNotNull("1.3", scan.getInputStream("OSGI-INF/l10n/bundle.properties"));//$NON-NLS-1$
+		assertNotNull("1.4", scan.getInputStream("OSGI-INF/l10n/bundle_de.properties"));//$NON-NLS-1$
+		assertEquals("1.5", 2, scan.getPropertyLocalizations("OSGI-INF/l10n/bundle", new String[] {"bundleName"}).size());//$NON-NLS-1$//$NON-NLS-2$
+	}
+
+	public void testPublishCache() throws Exception {
+		File foo = new File(getTempFolder(), "foo");//$NON-NLS-1$
+		copy("0.1", new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo"), foo);//$NON-NLS-1$//$NON-NLS-2$
+		File cacheFile = new File(getTempFolder(), "publisher.cache");//$NON-NLS-1$
+
+		PublisherInfo info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		PublisherResult results = new PublisherResult();
+		new BundlesAction(new File[] {foo}).perform(info, results, new NullProgressMonitor());
+		IInstallableUnit published = results.getIU("foo", IPublisherResult.ROOT);//$NON-NLS-1$
+		assertNotNull("1.0", published);
+		assertTrue("1.1", cacheFile.isFile());
+
+		// break the manifest without changing the fingerprint of the bundle, the IU must come from the cache
+		File manifest = new File(foo, JarFile.MANIFEST_NAME);
+		long modified = manifest.lastModified();
+		byte[] garbage = new byte[(int) manifest.length()];
+		Arrays.fill(garbage, (byte) ' ');
+		OutputStream output = new FileOutputStream(manifest);
+		output.write(garbage);
+		output.close();
+		manifest.setLastModified(modified);
+
+		info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		info.setMetadataRepository(createTestMetdataRepository(new IInstallableUnit[] {published}));
+		results = new PublisherResult();
+		new BundlesAction(new File[] {foo}).perform(info, results, new NullProgressMonitor());
+		assertEquals("2.0", published, results.getIU(published.getId(), published.getVersion(), IPublisherResult.ROOT));
+
+		// once the bundle changes, it is published again
+		manifest.setLastModified(modified + 10000);
+		results = new PublisherResult();
+		new BundlesAction(new File[] {foo}).perform(info, results, new NullProgressMonitor());
+		assertNull("3.0", results.getIU("foo", IPublisherResult.ROOT));//$NON-NLS-1$
+	}
+
+	public void testPublishCacheLocations() throws Exception {
+		File folder = getTempFolder();
+		File foo = new File(folder, "foo");//$NON-NLS-1$
+		File gone = new File(folder, "gone");//$NON-NLS-1$
+		copy("0.1", new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo"), foo);//$NON-NLS-1$//$NON-NLS-2$
+		copy("0.2", new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo"), gone);//$NON-NLS-1$//$NON-NLS-2$
+		File cacheFile = new File(getTempFolder(), "publisher.cache");//$NON-NLS-1$
+
+		// publish the bundle through a path that is not canonical
+		PublisherInfo info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		PublisherResult results = new PublisherResult();
+		new BundlesAction(new File[] {new File(gone, "../foo"), gone}).perform(info, results, new NullProgressMonitor());//$NON-NLS-1$
+		IInstallableUnit published = results.getIU("foo", IPublisherResult.ROOT);//$NON-NLS-1$
+		assertNotNull("1.0", published);
+		assertTrue("1.1", readContents(cacheFile).indexOf(gone.getCanonicalPath()) >= 0);
+
+		// break the manifest without changing the fingerprint of the bundle, the IU must come from the cache
+		File manifest = new File(foo, JarFile.MANIFEST_NAME);
+		long modified = manifest.lastModified();
+		byte[] garbage = new byte[(int) manifest.length()];
+		Arrays.fill(garbage, (byte) ' ');
+		OutputStream output = new FileOutputStream(manifest);
+		output.write(garbage);
+		output.close();
+		manifest.setLastModified(modified);
+		delete(gone);
+
+		info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		info.setMetadataRepository(createTestMetdataRepository(new IInstallableUnit[] {published}));
+		results = new PublisherResult();
+		new BundlesAction(new File[] {foo}).perform(info, results, new NullProgressMonitor());
+		assertEquals("2.0", published, results.getIU(published.getId(), published.getVersion(), IPublisherResult.ROOT));
+		// the entry of the bundle that no longer exists is dropped
+		String contents = readContents(cacheFile);
+		assertTrue("2.1", contents.indexOf(foo.getCanonicalPath()) >= 0);
+		assertTrue("2.2", contents.indexOf(gone.getCanonicalPath()) < 0);
+	}
+
+	private static String readContents(File file) throws IOException {
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		FileUtils.copyStream(new FileInputStream(file), true, contents, true);
+		return new String(contents.toByteArray(), "UTF-8");//$NON-NLS-1$
+	}
+
+	public void testPublishCacheSkipsFragments() throws Exception {
+		File foo = new File(getTempFolder(), "foo");//$NON-NLS-1$
+		File fragment = new File(getTempFolder(), "foo.fragment");//$NON-NLS-1$
+		copy("0.1", new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo"), foo);//$NON-NLS-1$//$NON-NLS-2$
+		copy("0.2", new File(TestActivator.getTestDataFolder(), "FragmentPublisherTest/foo.fragment"), fragment);//$NON-NLS-1$//$NON-NLS-2$
+		File cacheFile = new File(getTempFolder(), "publisher.cache");//$NON-NLS-1$
+
+		// without its host the fragment gets no host localization IU
+		PublisherInfo info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		PublisherResult results = new PublisherResult();
+		new BundlesAction(new File[] {fragment}).perform(info, results, new NullProgressMonitor());
+		Collection<IInstallableUnit> published = results.getIUs(null, null);
+		assertEquals("1.0", 1, published.size());
+
+		// once the host is there, the unchanged fragment must not be replayed from the cache
+		info = new PublisherInfo();
+		info.setPublishCacheLocation(cacheFile);
+		info.setMetadataRepository(createTestMetdataRepository(published.toArray(new IInstallableUnit[published.size()])));
+		results = new PublisherResult();
+		new BundlesAction(new File[] {foo, fragment}).perform(info, results, new NullProgressMonitor());
+		assertEquals("2.0", 3, results.getIUs(null, null).size());
+		assertNotNull("2.1", results.getIU("foo.fragment.translated_host_properties", IPublisherResult.NON_ROOT));//$NON-NLS-1$
+	}
+
+	public void testMetrics() throws Exception {
+		PublisherInfo info = new PublisherInfo();
+		info.setMetrics(new PublisherMetrics(false));
+		BundlesAction action = new BundlesAction(new File[] {TEST_FILE2});
+		IStatus status = new Publisher(info, new PublisherResult()).publish(new IPublisherAction[] {action}, new NullProgressMonitor());
+		assertTrue("1.0", status.isOK());
+
+		Map<String, PublisherMetrics.Totals> totals = new HashMap<String, PublisherMetrics.Totals>();
+		PublisherMetrics.Totals[] all = info.getMetrics().getTotals();
+		for (int i = 0; i < all.length; i++)
+			if (all[i].getOwner().equals(BundlesAction.class.getName()))
+				totals.put(all[i].getPhase(), all[i]);
+		assertEquals("1.1", 1, totals.get(PublisherMetrics.PHASE_ACTION).getCount());
+		assertTrue("1.2", totals.get(PublisherMetrics.PHASE_ACTION).getIUs() > 0);
+		assertEquals("1.3", 1, totals.get(PublisherMetrics.PHASE_MANIFEST).getCount());
+		assertEquals("1.4", TEST_FILE2.length(), totals.get(PublisherMetrics.PHASE_DIGEST).getBytesRead());
+		assertEquals("1.5", -1, totals.get(PublisherMetrics.PHASE_DIGEST).getAllocated());
+
+		File report = new File(getTempFolder(), "metrics.csv");//$NON-NLS-1$
+		info.getMetrics().write(report);
+		BufferedReader reader = new BufferedReader(new FileReader(report));
+		try {
+			assertTrue("2.0", reader.readLine().startsWith("owner,phase,count,timeMillis"));//$NON-NLS-1$
+			assertNotNull("2.1", reader.readLine());
+		} finally {
+			reader.close();
+		}
+	}
+
+	private IArtifactKey createBundleArtifactKey() {
+		return BundlesAction.createBundleArtifactKey(TEST2_PROVBUNDLE_NAME, PROVBUNDLE2_VERSION.toString());
+	}
+
 	private void verifyBundlesAction() throws Exception {
 		// verify publisher result
 		verifyBundle1();
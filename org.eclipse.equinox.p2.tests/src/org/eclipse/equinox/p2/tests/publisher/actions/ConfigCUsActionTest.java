@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -16,13 +16,14 @@ import java.io.File;
 import java.util.*;
 import org.easymock.EasyMock;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.frameworkadmin.BundleInfo;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.DataLoader;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.ProductFile;
 import org.eclipse.equinox.internal.provisional.frameworkadmin.ConfigData;
 import org.eclipse.equinox.internal.provisional.frameworkadmin.LauncherData;
 import org.eclipse.equinox.p2.metadata.*;
-import org.eclipse.equinox.p2.publisher.IPublisherResult;
+import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.eclipse.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.tests.*;
@@ -49,6 +50,43 @@ public class ConfigCUsActionTest extends ActionTest {
 		debug("Completed ConfigCUsAction test."); //$NON-NLS-1$
 	}
 
+	public void testConcurrentConfigurations() throws Exception {
+		ConfigData data = new ConfigData("org.eclipse.osgi", "3.7.0", "eclipse", "1.4.0"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		data.setProperty("osgi.bundles.defaultStartLevel", "4"); //$NON-NLS-1$ //$NON-NLS-2$
+		BundleInfo defaultLevel = new BundleInfo("org.default", "1.0.0", null, 4, false); //$NON-NLS-1$ //$NON-NLS-2$
+		BundleInfo early = new BundleInfo("org.early", "1.0.0", null, 2, true); //$NON-NLS-1$ //$NON-NLS-2$
+		data.addBundle(defaultLevel);
+		data.addBundle(early);
+		// one advice, and so the same bundle infos, for every configuration
+		ConfigAdvice sharedAdvice = new ConfigAdvice(data, null) {
+			public boolean isApplicable(String spec, boolean includeDefault, String iuId, Version iuVersion) {
+				return true;
+			}
+		};
+
+		String[] configs = new String[] {"win32.win32.x86", "win32.win32.x86_64", "gtk.linux.x86", "gtk.linux.x86_64", "cocoa.macosx.x86_64"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		PublisherInfo info = new PublisherInfo();
+		info.setConfigurations(configs);
+		info.setParallelism(4);
+		info.addAdvice(sharedAdvice);
+		PublisherResult results = new PublisherResult();
+		results.addIU(createIU("org.default", Version.create("1.0.0")), IPublisherResult.ROOT); //$NON-NLS-1$ //$NON-NLS-2$
+		results.addIU(createIU("org.early", Version.create("1.0.0")), IPublisherResult.ROOT); //$NON-NLS-1$ //$NON-NLS-2$
+		new ConfigCUsAction(info, flavor, id, version).perform(info, results, new NullProgressMonitor());
+
+		// the advice is left as it was
+		assertEquals("1.0", 4, defaultLevel.getStartLevel());
+		assertEquals("1.1", 2, early.getStartLevel());
+		// the bundle started at the default level needs no CU, the other one gets one per configuration
+		int earlyCUs = 0;
+		for (IInstallableUnit iu : results.getIUs(null, IPublisherResult.NON_ROOT)) {
+			assertFalse("2.0", iu.getId().endsWith("org.default")); //$NON-NLS-1$
+			if (iu.getId().endsWith("org.early")) //$NON-NLS-1$
+				earlyCUs++;
+		}
+		assertEquals("2.1", configs.length, earlyCUs);
+	}
+
 	private void verifyAction() {
 		ArrayList IUs = new ArrayList(publisherResult.getIUs(null, IPublisherResult.ROOT));
 		assertTrue(IUs.size() == 1);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -92,6 +92,61 @@ public class EquinoxExecutableActionTest extends ActionTest {
 		testExecutableAction("linux", "linux", linuxConfig, LINUX_EXEC, icon); //$NON-NLS-1$//$NON-NLS-2$
 	}
 
+	public void testBrandingLeavesExecutablesUntouched() throws Exception {
+		File icon = File.createTempFile(EXECUTABLE_NAME, ".xpm");
+		FileUtils.copyStream(new FileInputStream(new File(LINUX_EXEC, "eclipse.xpm")), true, new FileOutputStream(icon), true);
+		String[] before = LINUX_EXEC.list();
+		Arrays.sort(before);
+
+		expectedExecutablesContents = new String[] {EXECUTABLE_NAME, "icon.xpm"};
+		testExecutableAction("linux", "linux", linuxConfig, LINUX_EXEC, icon); //$NON-NLS-1$//$NON-NLS-2$
+
+		// the launcher is renamed and the icon added in the published zip only
+		String[] after = LINUX_EXEC.list();
+		Arrays.sort(after);
+		assertTrue(Arrays.equals(before, after));
+		assertFalse(new File(LINUX_EXEC, EXECUTABLE_NAME).exists());
+	}
+
+	public void testWinBrandingLeavesExecutablesUntouched() throws Exception {
+		File icon = File.createTempFile(EXECUTABLE_NAME, ".ico");
+		FileUtils.copyStream(new FileInputStream(new File(WIN_EXEC, "eclipse.ico")), true, new FileOutputStream(icon), true);
+		String[] before = WIN_EXEC.list();
+		Arrays.sort(before);
+		byte[] launcher = readContents(new File(WIN_EXEC, "eclipse.exe"));
+
+		// the icons are replaced in a changeable copy of the launcher
+		expectedExecutablesContents = new String[] {EXECUTABLE_NAME + ".exe"};
+		testExecutableAction("win", "win32", winConfig, WIN_EXEC, icon); //$NON-NLS-1$//$NON-NLS-2$
+
+		String[] after = WIN_EXEC.list();
+		Arrays.sort(after);
+		assertTrue(Arrays.equals(before, after));
+		assertTrue(Arrays.equals(launcher, readContents(new File(WIN_EXEC, "eclipse.exe"))));
+	}
+
+	public void testCopiedDescriptorKeepsChangedFiles() throws Exception {
+		ExecutablesDescriptor original = ExecutablesDescriptor.createDescriptor("win32", "eclipse", WIN_EXEC);
+		original.makeVirtualCopy();
+		File changed = original.getChangeableFile(new File("eclipse.exe"));
+		FileUtils.copyStream(new ByteArrayInputStream(new byte[] {1, 2, 3}), true, new FileOutputStream(changed), true);
+
+		ExecutablesDescriptor copy = new ExecutablesDescriptor(original);
+		original.deleteTemporaryFiles();
+		assertFalse(changed.exists());
+		File source = copy.getSource(new File("eclipse.exe"));
+		assertTrue(Arrays.equals(new byte[] {1, 2, 3}, readContents(source)));
+		copy.deleteTemporaryFiles();
+		assertFalse(source.exists());
+		assertTrue(new File(WIN_EXEC, "eclipse.exe").exists());
+	}
+
+	private byte[] readContents(File file) throws IOException {
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		FileUtils.copyStream(new FileInputStream(file), true, contents, true);
+		return contents.toByteArray();
+	}
+
 	private void testExecutableAction(String idBase, final String osArg, String config, File exec, File icon) {
 		id = idBase;
 		setupBrandingAdvice(osArg, configSpec, exec, icon);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,6 +27,7 @@ import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescriptio
 import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.actions.*;
+import org.eclipse.equinox.p2.publisher.eclipse.Feature;
 import org.eclipse.equinox.p2.publisher.eclipse.FeaturesAction;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.tests.*;
@@ -102,6 +103,48 @@ public class FeaturesActionTest extends ActionTest {
 		}
 	}
 
+	/**
+	 * Tests that features parsed on several threads come back in the order of their locations.
+	 */
+	public void testConcurrentParsing() throws Exception {
+		class ParsingFeaturesAction extends FeaturesAction {
+			ParsingFeaturesAction(File[] locations) {
+				super(locations);
+			}
+
+			Feature[] getParsedFeatures() {
+				return features;
+			}
+		}
+		File testFolder = getTestFolder("FeaturesAction.testConcurrentParsing");
+		File[] locations = new File[20];
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = new File(testFolder, "feature" + i);
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("<feature id=\"test.feature" + i + "\" version=\"1.0.0\" >                      \n");
+			buffer.append("   <plugin id=\"org.plug" + i + "\" version=\"1.0.0\" />                        \n");
+			buffer.append("</feature>                                                                  \n");
+			writeBuffer(new File(locations[i], "feature.xml"), buffer);
+		}
+		List<File> reversed = new ArrayList<File>(Arrays.asList(locations));
+		Collections.reverse(reversed);
+		// a location without a feature is skipped
+		reversed.add(10, new File(testFolder, "missing"));
+
+		PublisherInfo info = new PublisherInfo();
+		info.setParallelism(4);
+		ParsingFeaturesAction action = new ParsingFeaturesAction(reversed.toArray(new File[reversed.size()]));
+		action.perform(info, publisherResult, new NullProgressMonitor());
+
+		Feature[] features = action.getParsedFeatures();
+		assertEquals(20, features.length);
+		for (int i = 0; i < features.length; i++) {
+			assertEquals("test.feature" + (19 - i), features[i].getId());
+			assertEquals(locations[19 - i].getAbsolutePath(), features[i].getLocation());
+			assertNotNull(publisherResult.getIU("test.feature" + i + ".feature.group", null));
+		}
+	}
+
 	private void verifyRepositoryContents() throws Exception {
 		verifyArtifacts();
 		verifyMetadata();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2005, 2008 IBM Corporation and others.
+ *  Copyright (c) 2005, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,8 +10,12 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.publisher.actions;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.publisher.PublisherInfo;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
@@ -46,4 +50,28 @@ public class MD5GenerationTest extends AbstractProvisioningTest {
 		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(new ArtifactKey("classifierTest", "idTest", Version.createOSGi(1, 0, 0)), null);
 		assertNull(ad.getProperty(IArtifactDescriptor.DOWNLOAD_MD5));
 	}
+
+	public void testAdditionalChecksums() {
+		PublisherInfo info = new PublisherInfo();
+		info.setChecksumAlgorithms(new String[] {"SHA-256"});
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info, new ArtifactKey("classifierTest", "idTest", Version.createOSGi(1, 0, 0)), getTestData("Artifact to generate from", "testData/artifactRepo/simpleWithMD5/plugins/aaPlugin_1.0.0.jar"));
+		assertEquals("1.0", "50d4ea58b02706ab373a908338877e02", ad.getProperty(IArtifactDescriptor.DOWNLOAD_MD5));
+		assertEquals("1.1", "11da2dd636ab76f460513cbcbfe8c56a6e5ad47aa9b38b36c6d04f8ee7722252", ad.getProperty("download.checksum.sha-256"));
+	}
+
+	public void testNoMD5() {
+		PublisherInfo info = new PublisherInfo();
+		info.setArtifactOptions(IPublisherInfo.A_NO_MD5);
+		info.setChecksumAlgorithms(new String[] {"SHA-256"});
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info, new ArtifactKey("classifierTest", "idTest", Version.createOSGi(1, 0, 0)), getTestData("Artifact to generate from", "testData/artifactRepo/simpleWithMD5/plugins/aaPlugin_1.0.0.jar"));
+		assertNull("1.0", ad.getProperty(IArtifactDescriptor.DOWNLOAD_MD5));
+		assertEquals("1.1", "11da2dd636ab76f460513cbcbfe8c56a6e5ad47aa9b38b36c6d04f8ee7722252", ad.getProperty("download.checksum.sha-256"));
+	}
+
+	public void testKnownChecksums() {
+		Map<String, String> known = new HashMap<String, String>();
+		known.put("MD5", "0123456789abcdef0123456789abcdef");
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(new PublisherInfo(), new ArtifactKey("classifierTest", "idTest", Version.createOSGi(1, 0, 0)), getTestData("Artifact to generate from", "testData/artifactRepo/simpleWithMD5/plugins/aaPlugin_1.0.0.jar"), known);
+		assertEquals("1.0", "0123456789abcdef0123456789abcdef", ad.getProperty(IArtifactDescriptor.DOWNLOAD_MD5));
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -181,6 +181,45 @@ public class ProductActionTest extends ActionTest {
 		assertEquals("1.0", 1, queryResultSize(queryResult));
 	}
 
+	public void testProductsAction() throws Exception {
+		ProductFile productFile1 = new ProductFile(TestData.getFile("ProductActionTest", "boundedVersionConfigurations.product").toString());
+		ProductFile productFile2 = new ProductFile(TestData.getFile("ProductActionTest", "unboundedVersionConfigurations.product").toString());
+		PublisherInfo info = new PublisherInfo();
+		info.setConfigurations(getArrayFromString(configSpec, COMMA_SEPARATOR));
+		info.setParallelism(4);
+		PublisherResult results = new PublisherResult();
+
+		InstallableUnitDescription iuDescription = new InstallableUnitDescription();
+		iuDescription.setId("org.eclipse.core.runtime");
+		iuDescription.setVersion(Version.create("4.0.0"));
+		IInstallableUnit iu = MetadataFactory.createInstallableUnit(iuDescription);
+		results.addIU(iu, IPublisherResult.NON_ROOT);
+
+		ProductsAction action = new ProductsAction(null, new ProductFile[] {productFile1, productFile2}, flavorArg, executablesFeatureLocation);
+		assertTrue("1.0", action.perform(info, results, new NullProgressMonitor()).isOK());
+
+		// the advice of each product is kept from the other products and the shared info
+		assertEquals("1.1", 0, info.getAdvice().size());
+		IInstallableUnit bounded = results.getIU("bounded.product", Version.create("1.0.0"), IPublisherResult.ROOT);
+		IInstallableUnit unbounded = results.getIU("unbounded.product", Version.create("1.0.0"), IPublisherResult.ROOT);
+		assertNotNull("1.2", bounded);
+		assertNotNull("1.3", unbounded);
+		for (IInstallableUnit published : results.getIUs(null, null)) {
+			IInstallableUnit other;
+			if (published.getId().indexOf("unbounded.product") >= 0)
+				other = bounded;
+			else if (published.getId().indexOf("bounded.product") >= 0)
+				other = unbounded;
+			else
+				continue;
+			for (IRequirement requirement : other.getRequirements())
+				assertFalse("1.4 " + published.getId(), published.satisfies(requirement));
+		}
+
+		IQueryResult queryResult = results.query(QueryUtil.createIUQuery(flavorArg + configSpec + "org.eclipse.core.runtime"), new NullProgressMonitor());
+		assertEquals("2.0", 1, queryResultSize(queryResult));
+	}
+
 	public void testMultiPlatformCUs_DifferentPlatforms() throws Exception {
 		ProductFile productFile2 = new ProductFile(TestData.getFile("ProductActionTest", "unboundedVersionConfigurations.product").toString());
 		PublisherInfo info = new PublisherInfo();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -18,10 +18,8 @@ import java.util.zip.ZipInputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
-import org.eclipse.equinox.p2.metadata.IArtifactKey;
-import org.eclipse.equinox.p2.metadata.Version;
-import org.eclipse.equinox.p2.publisher.AbstractPublisherAction;
-import org.eclipse.equinox.p2.publisher.IPublisherInfo;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.actions.*;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.tests.TestActivator;
@@ -62,6 +60,35 @@ public class RootFilesActionTest extends ActionTest {
 		}
 	}
 
+	public void testConcurrentConfigurations() throws Exception {
+		String[] configs = new String[] {"win32,win32,x86", "gtk,linux,x86", "gtk,linux,x86_64", "cocoa,macosx,x86"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		IInstallableUnit[] parents = new IInstallableUnit[2];
+		for (int run = 0; run < parents.length; run++) {
+			PublisherInfo info = new PublisherInfo();
+			info.setConfigurations(configs);
+			info.setParallelism(run == 0 ? 1 : 4);
+			info.setArtifactOptions(IPublisherInfo.A_INDEX | IPublisherInfo.A_PUBLISH);
+			artifactRepository = new TestArtifactRepository(getAgent());
+			info.setArtifactRepository(artifactRepository);
+			for (int i = 0; i < configs.length; i++)
+				info.addAdvice(new RootFilesAdvice(null, root.listFiles(), null, configs[i]));
+			IPublisherResult result = new PublisherResult();
+			testAction = new RootFilesAction(info, idArg, versionArg, flavorArg);
+			assertEquals(Status.OK_STATUS, testAction.perform(info, result, new NullProgressMonitor()));
+
+			assertEquals(2 * configs.length, result.getIUs(null, IPublisherResult.NON_ROOT).size());
+			for (int i = 0; i < configs.length; i++) {
+				String configId = configs[i].replace(',', '.');
+				assertTrue(configId, artifactRepository.contains(ArtifactKey.parse("binary,sdk.rootfiles." + configId + ",3.4.0.i0305"))); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			parents[run] = result.getIU(RootFilesAction.computeIUId(idArg, flavorArg), IPublisherResult.ROOT);
+			assertNotNull(parents[run]);
+			artifactRepository.removeAll();
+		}
+		// the same children in the same order no matter how many threads were used
+		assertEquals(parents[0].getRequirements(), parents[1].getRequirements());
+	}
+
 	public void insertPublisherInfoBehavior() {
 		expect(publisherInfo.getArtifactRepository()).andReturn(artifactRepository).anyTimes();
 		expect(publisherInfo.getArtifactOptions()).andReturn(IPublisherInfo.A_INDEX | IPublisherInfo.A_OVERWRITE | IPublisherInfo.A_PUBLISH).anyTimes();
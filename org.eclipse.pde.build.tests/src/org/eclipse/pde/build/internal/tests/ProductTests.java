@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -263,6 +263,37 @@ public class ProductTests extends PDETestCase {
 		assertEquals(new File(buildFolder.getLocation().toOSString(), "out.out").length(), 0);
 	}
 
+	public void testIconExeBatch() throws Exception {
+		IFolder buildFolder = newTest("iconExeBatch");
+
+		// launcher_mail.exe is launcher.exe branded with mail.ico by the IconExe that decoded and rewrote every icon
+		URL launcher = FileLocator.find(Platform.getBundle(Activator.PLUGIN_ID), new Path("/resources/iconExeBatch/launcher.exe"), null);
+		URL golden = FileLocator.find(Platform.getBundle(Activator.PLUGIN_ID), new Path("/resources/iconExeBatch/launcher_mail.exe"), null);
+		URL ico = FileLocator.find(Platform.getBundle(Activator.PLUGIN_ID), new Path("/resources/237922/rcp/icons/mail.ico"), null);
+		File icoFile = new File(buildFolder.getLocation().toFile(), "mail.ico");
+		FileUtils.copyStream(ico.openStream(), true, new FileOutputStream(icoFile), true);
+
+		String[] batch = new String[3];
+		for (int i = 0; i < batch.length; i++) {
+			File batchFile = new File(buildFolder.getLocation().toFile(), "batch" + i + ".exe");
+			FileUtils.copyStream(launcher.openStream(), true, new FileOutputStream(batchFile), true);
+			batch[i] = batchFile.getAbsolutePath();
+		}
+		int[] missing = IconExe.replaceIcons(batch, new String[] {icoFile.getAbsolutePath()});
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		FileUtils.copyStream(golden.openStream(), true, expected, true);
+		ByteArrayOutputStream original = new ByteArrayOutputStream();
+		FileUtils.copyStream(launcher.openStream(), true, original, true);
+		assertFalse(Arrays.equals(original.toByteArray(), expected.toByteArray()));
+		for (int i = 0; i < batch.length; i++) {
+			assertEquals(0, missing[i]);
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			FileUtils.copyStream(new FileInputStream(batch[i]), true, actual, true);
+			assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+		}
+	}
+
 	public void testBug249410() throws Exception {
 		IFolder buildFolder = newTest("249410");
 		IFile product = buildFolder.getFile("foo.product");
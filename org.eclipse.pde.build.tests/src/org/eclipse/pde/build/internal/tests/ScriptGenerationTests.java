@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2007, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -22,6 +22,7 @@ import org.apache.tools.ant.types.Path;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.p2.publisher.eclipse.FeatureEntry;
+import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.VersionRange;
 import org.eclipse.pde.build.internal.tests.ant.AntUtils;
 import org.eclipse.pde.build.tests.BuildConfiguration;
@@ -2154,4 +2155,528 @@ public class ScriptGenerationTests extends PDETestCase {
 		Utils.storeBuildProperties(buildFolder, properties);
 		runBuild(buildFolder);
 	}
+
+	public void testConcurrentBundleReading() throws Exception {
+		IFolder buildFolder = newTest("concurrentBundleReading");
+
+		List locations = new ArrayList();
+		for (int i = 0; i < 5; i++) {
+			IFolder bundle = Utils.createFolder(buildFolder, "plugins/bundle" + i);
+			Utils.generateBundle(bundle, "bundle" + i);
+			locations.add(bundle.getLocation().toFile());
+
+			//old style plug-ins have their manifest converted
+			IFolder plugin = Utils.createFolder(buildFolder, "plugins/plugin" + i);
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			buffer.append("<plugin id=\"plugin" + i + "\" version=\"1.0.0\">\n");
+			buffer.append("  <requires><import plugin=\"bundle" + i + "\"/></requires>\n");
+			buffer.append("</plugin>\n");
+			Utils.writeBuffer(plugin.getFile("plugin.xml"), buffer);
+			locations.add(plugin.getLocation().toFile());
+		}
+		//not a bundle
+		locations.add(Utils.createFolder(buildFolder, "plugins/empty").getLocation().toFile());
+
+		Properties antProperties = new Properties();
+		BuildScriptGenerator generator = new BuildScriptGenerator() {
+			public void setImmutableAntProperties(Properties properties) {
+				AbstractScriptGenerator.setStaticAntProperties(properties);
+			}
+		};
+
+		try {
+			antProperties.put(IBuildPropertiesConstants.PROPERTY_GENERATION_THREADS, "1");
+			generator.setImmutableAntProperties(antProperties);
+			PDEState serial = new PDEState();
+			serial.addBundles(locations);
+
+			antProperties.put(IBuildPropertiesConstants.PROPERTY_GENERATION_THREADS, "4");
+			generator.setImmutableAntProperties(antProperties);
+			PDEState concurrent = new PDEState();
+			concurrent.addBundles(locations);
+
+			BundleDescription[] expected = serial.getState().getBundles();
+			assertEquals(10, expected.length);
+			assertEquals(expected.length, concurrent.getState().getBundles().length);
+			for (int i = 0; i < expected.length; i++) {
+				BundleDescription actual = concurrent.getState().getBundle(expected[i].getBundleId());
+				assertNotNull(expected[i].getSymbolicName(), actual);
+				assertEquals(expected[i].getSymbolicName(), actual.getSymbolicName());
+				assertEquals(expected[i].getVersion(), actual.getVersion());
+				assertEquals(expected[i].getLocation(), actual.getLocation());
+				assertEquals(expected[i].getUserObject(), actual.getUserObject());
+				assertEquals(expected[i].getRequiredBundles().length, actual.getRequiredBundles().length);
+				Long id = new Long(expected[i].getBundleId());
+				assertEquals(serial.getExtraData().get(id), concurrent.getExtraData().get(id));
+			}
+			BundleDescription converted = concurrent.getState().getBundle("plugin0", null);
+			assertNotNull(converted);
+			assertTrue(((Properties) converted.getUserObject()).containsKey(IBuildPropertiesConstants.PROPERTY_CONVERTED_MANIFEST));
+		} finally {
+			generator.setImmutableAntProperties(null);
+		}
+	}
+
+	public void testStateSnapshot() throws Exception {
+		IFolder buildFolder = newTest("stateSnapshot");
+		IFolder A = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder B = Utils.createFolder(buildFolder, "plugins/B");
+		Utils.generateBundle(A, "A");
+		Attributes manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "A");
+		manifestAdditions.put(new Attributes.Name("Bundle-ClassPath"), "b.jar, .");
+		Utils.generateBundleManifest(B, "B", "1.0.0", manifestAdditions);
+
+		List bundles = new ArrayList();
+		bundles.add(A.getLocation().toFile());
+		bundles.add(B.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		PDEState first = new PDEState();
+		assertFalse(resolveCachedState(first, cache, bundles));
+		assertTrue(new File(cache, "pdeState.data").isFile());
+
+		PDEState second = new PDEState();
+		assertTrue(resolveCachedState(second, cache, bundles));
+		BundleDescription[] expected = first.getState().getBundles();
+		assertEquals(2, expected.length);
+		assertEquals(expected.length, second.getState().getBundles().length);
+		for (int i = 0; i < expected.length; i++) {
+			BundleDescription actual = second.getState().getBundle(expected[i].getBundleId());
+			assertNotNull(expected[i].getSymbolicName(), actual);
+			assertEquals(expected[i].getSymbolicName(), actual.getSymbolicName());
+			assertEquals(expected[i].getVersion(), actual.getVersion());
+			assertEquals(expected[i].getLocation(), actual.getLocation());
+			assertTrue(actual.isResolved());
+			assertEquals(expected[i].getUserObject(), actual.getUserObject());
+			Long id = new Long(expected[i].getBundleId());
+			assertEquals(first.getExtraData().get(id), second.getExtraData().get(id));
+		}
+		BundleDescription bundleB = second.getResolvedBundle("B");
+		assertEquals(1, bundleB.getResolvedRequires().length);
+		assertEquals("A", bundleB.getResolvedRequires()[0].getSymbolicName());
+	}
+
+	public void testStateSnapshotInvalidation() throws Exception {
+		IFolder buildFolder = newTest("stateSnapshotInvalidation");
+		IFolder A = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder B = Utils.createFolder(buildFolder, "plugins/B");
+		IFolder C = Utils.createFolder(buildFolder, "plugins/C");
+		Utils.generateBundle(A, "A");
+		Utils.generateBundle(B, "B");
+		Utils.generateBundle(C, "C");
+
+		List bundles = new ArrayList();
+		bundles.add(A.getLocation().toFile());
+		bundles.add(B.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		assertFalse(resolveCachedState(new PDEState(), cache, bundles));
+		assertTrue(resolveCachedState(new PDEState(), cache, bundles));
+
+		//a bundle changes
+		Utils.generateBundleManifest(B, "B", "2.0.0", null);
+		File manifest = B.getFile("META-INF/MANIFEST.MF").getLocation().toFile();
+		manifest.setLastModified(manifest.lastModified() + 10000);
+		PDEState state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertEquals("2.0.0", state.getResolvedBundle("B").getVersion().toString());
+		assertTrue(resolveCachedState(new PDEState(), cache, bundles));
+
+		//a bundle is added
+		bundles.add(C.getLocation().toFile());
+		state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertNotNull(state.getResolvedBundle("C"));
+		assertTrue(resolveCachedState(new PDEState(), cache, bundles));
+
+		//a bundle is removed
+		bundles.remove(0);
+		state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertNull(state.getResolvedBundle("A"));
+		assertTrue(resolveCachedState(new PDEState(), cache, bundles));
+	}
+
+	public void testStateSnapshotFlexibleRoot() throws Exception {
+		IFolder buildFolder = newTest("stateSnapshotFlexibleRoot");
+		IFolder project = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder root = Utils.createFolder(project, "root");
+		Utils.generateBundle(root, "A");
+		Utils.writeBuffer(project.getFile(".settings/org.eclipse.pde.core.prefs"), new StringBuffer("BUNDLE_ROOT_PATH=root\n"));
+
+		List bundles = new ArrayList();
+		bundles.add(project.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		PDEState state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertEquals("1.0.0", state.getResolvedBundle("A").getVersion().toString());
+		assertTrue(resolveCachedState(new PDEState(), cache, bundles));
+
+		//the manifest under the root changes
+		Utils.generateBundleManifest(root, "A", "2.0.0", null);
+		File manifest = root.getFile("META-INF/MANIFEST.MF").getLocation().toFile();
+		manifest.setLastModified(manifest.lastModified() + 10000);
+		state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertEquals("2.0.0", state.getResolvedBundle("A").getVersion().toString());
+	}
+
+	public void testStateSnapshotVolatileVersions() throws Exception {
+		IFolder buildFolder = newTest("stateSnapshotVolatileVersions");
+		IFolder A = Utils.createFolder(buildFolder, "plugins/A");
+		Utils.generateBundleManifest(A, "A", "1.0.0.qualifier", null);
+
+		List bundles = new ArrayList();
+		bundles.add(A.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		//the qualifier is the time of the build, the state is not kept
+		assertFalse(resolveCachedState(new PDEState(), cache, bundles));
+		assertFalse(new File(cache, "pdeState.data").exists());
+		assertFalse(resolveCachedState(new PDEState(), cache, bundles));
+
+		//with a global qualifier the versions are the same in every build
+		QualifierReplacer.setGlobalQualifier("v1");
+		PDEState state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertTrue(new File(cache, "pdeState.data").isFile());
+		assertEquals("1.0.0.v1", state.getResolvedBundle("A").getVersion().toString());
+		state = new PDEState();
+		assertTrue(resolveCachedState(state, cache, bundles));
+		assertEquals("1.0.0.v1", state.getResolvedBundle("A").getVersion().toString());
+
+		//a different global qualifier is a different state
+		QualifierReplacer.setGlobalQualifier("v2");
+		state = new PDEState();
+		assertFalse(resolveCachedState(state, cache, bundles));
+		assertEquals("1.0.0.v2", state.getResolvedBundle("A").getVersion().toString());
+	}
+
+	public void testBuildBundlesOnCachedState() throws Exception {
+		IFolder buildFolder = newTest("buildBundlesOnCachedState");
+		IFolder A = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder B = Utils.createFolder(buildFolder, "plugins/B");
+		IFolder C = Utils.createFolder(buildFolder, "C");
+		IFolder D = Utils.createFolder(buildFolder, "D");
+		Utils.generateBundle(A, "A");
+		Utils.generateBundle(B, "B");
+		Attributes manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "A");
+		Utils.generateBundleManifest(C, "C", "1.0.0", manifestAdditions);
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Fragment-Host"), "B");
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "C");
+		Utils.generateBundleManifest(D, "D", "1.0.0", manifestAdditions);
+
+		List targetBundles = new ArrayList();
+		targetBundles.add(A.getLocation().toFile());
+		targetBundles.add(B.getLocation().toFile());
+		List buildBundles = new ArrayList();
+		buildBundles.add(C.getLocation().toFile());
+		buildBundles.add(D.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		assertFalse(resolveCachedState(new PDEState(), cache, targetBundles, buildBundles));
+		for (int i = 0; i < 2; i++) {
+			PDEState state = new PDEState();
+			assertTrue(resolveCachedState(state, cache, targetBundles, buildBundles));
+			assertEquals(4, state.getState().getResolvedBundles().length);
+
+			BundleDescription bundleC = state.getResolvedBundle("C");
+			assertEquals(1, bundleC.getResolvedRequires().length);
+			assertEquals("A", bundleC.getResolvedRequires()[0].getSymbolicName());
+
+			BundleDescription bundleD = state.getResolvedBundle("D");
+			assertEquals("B", bundleD.getHost().getSupplier().getName());
+			BundleDescription[] fragments = state.getResolvedBundle("B").getFragments();
+			assertEquals(1, fragments.length);
+			assertSame(bundleD, fragments[0]);
+			assertEquals(1, bundleD.getResolvedRequires().length);
+			assertSame(bundleC, bundleD.getResolvedRequires()[0]);
+		}
+	}
+
+	public void testBuildBundleReplacesCachedBundle() throws Exception {
+		IFolder buildFolder = newTest("buildBundleReplacesCachedBundle");
+		IFolder A1 = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder B = Utils.createFolder(buildFolder, "plugins/B");
+		IFolder A2 = Utils.createFolder(buildFolder, "A");
+		Utils.generateBundleManifest(A1, "A", "1.0.0", null);
+		Attributes manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "A");
+		Utils.generateBundleManifest(B, "B", "1.0.0", manifestAdditions);
+		Utils.generateBundleManifest(A2, "A", "2.0.0", null);
+
+		//C is built at the same version as in the target
+		IFolder C1 = Utils.createFolder(buildFolder, "plugins/C");
+		IFolder D = Utils.createFolder(buildFolder, "plugins/D");
+		IFolder C2 = Utils.createFolder(buildFolder, "C");
+		Utils.generateBundleManifest(C1, "C", "1.0.0", null);
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "C");
+		Utils.generateBundleManifest(D, "D", "1.0.0", manifestAdditions);
+		Utils.generateBundleManifest(C2, "C", "1.0.0", null);
+
+		List targetBundles = new ArrayList();
+		targetBundles.add(A1.getLocation().toFile());
+		targetBundles.add(B.getLocation().toFile());
+		targetBundles.add(C1.getLocation().toFile());
+		targetBundles.add(D.getLocation().toFile());
+		List buildBundles = new ArrayList();
+		buildBundles.add(A2.getLocation().toFile());
+		buildBundles.add(C2.getLocation().toFile());
+		File cache = buildFolder.getFolder("cache").getLocation().toFile();
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+
+		//the target state is kept with B wired to A 1.0.0
+		assertFalse(resolveCachedState(new PDEState(), cache, targetBundles, null));
+		PDEState state = new PDEState();
+		assertTrue(resolveCachedState(state, cache, targetBundles, buildBundles));
+
+		//the whole state is resolved again, like a state read without the cache, where the bundles being built come first
+		PDEState uncached = new PDEState();
+		List allBundles = new ArrayList(buildBundles);
+		allBundles.addAll(targetBundles);
+		uncached.addBundles(allBundles);
+		uncached.resolveState();
+
+		BundleDescription bundleB = state.getResolvedBundle("B");
+		assertEquals(1, bundleB.getResolvedRequires().length);
+		assertEquals("2.0.0", bundleB.getResolvedRequires()[0].getVersion().toString());
+		assertEquals(uncached.getResolvedBundle("B").getResolvedRequires()[0].getVersion(), bundleB.getResolvedRequires()[0].getVersion());
+
+		//at the same version the bundle being built is chosen over the bundle of the target
+		BundleDescription bundleD = state.getResolvedBundle("D");
+		assertEquals(1, bundleD.getResolvedRequires().length);
+		assertEquals(C2.getLocation().toFile().getAbsolutePath(), bundleD.getResolvedRequires()[0].getLocation());
+		assertEquals(uncached.getResolvedBundle("D").getResolvedRequires()[0].getLocation(), bundleD.getResolvedRequires()[0].getLocation());
+		assertEquals(uncached.getState().getResolvedBundles().length, state.getState().getResolvedBundles().length);
+	}
+
+	public void testPrerequisiteClasspath() throws Exception {
+		IFolder buildFolder = newTest("prerequisiteClasspath");
+
+		//binary bundles: X with two libraries requires Z, W requires X, Z has a fragment
+		IFolder X = Utils.createFolder(buildFolder, "plugins/cpX");
+		Attributes manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "cpZ");
+		manifestAdditions.put(new Attributes.Name("Bundle-ClassPath"), "x1.jar, x2.jar");
+		Utils.generateBundleManifest(X, "cpX", "1.0.0", manifestAdditions);
+		IFolder W = Utils.createFolder(buildFolder, "plugins/cpW");
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "cpX");
+		Utils.generateBundleManifest(W, "cpW", "1.0.0", manifestAdditions);
+		Utils.generateBundleManifest(Utils.createFolder(buildFolder, "plugins/cpZ"), "cpZ", "1.0.0", null);
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Fragment-Host"), "cpZ");
+		Utils.generateBundleManifest(Utils.createFolder(buildFolder, "plugins/cpFragZ"), "cpFragZ", "1.0.0", manifestAdditions);
+
+		//bundles being built: Y requires Z and W, a fragment of Y, and Top with two jars requires X and Y
+		IFolder Y = Utils.createFolder(buildFolder, "plugins/cpY");
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "cpZ, cpW");
+		Utils.generateBundleManifest(Y, "cpY", "1.0.0", manifestAdditions);
+		Utils.generatePluginBuildProperties(Y, null);
+		IFolder fragY = Utils.createFolder(buildFolder, "plugins/cpFragY");
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Fragment-Host"), "cpY");
+		Utils.generateBundleManifest(fragY, "cpFragY", "1.0.0", manifestAdditions);
+		Utils.generatePluginBuildProperties(fragY, null);
+		IFolder top = Utils.createFolder(buildFolder, "plugins/cpTop");
+		manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "cpX, cpY");
+		manifestAdditions.put(new Attributes.Name("Bundle-ClassPath"), "a.jar, b.jar");
+		Utils.generateBundleManifest(top, "cpTop", "1.0.0", manifestAdditions);
+		Properties buildProperties = new Properties();
+		buildProperties.put("source.a.jar", "srcA/");
+		buildProperties.put("source.b.jar", "srcB/");
+		buildProperties.put("bin.includes", "META-INF/, a.jar, b.jar");
+		Utils.storeBuildProperties(top, buildProperties);
+
+		//Y comes first, Top and the fragment reuse the prerequisites computed for it
+		Utils.generateFeature(buildFolder, "f", null, new String[] {"cpY", "cpFragY", "cpTop"});
+		generateScripts(buildFolder, BuildConfiguration.getScriptGenerationProperties(buildFolder, "feature", "f"));
+
+		//the order of the depth first traversal of the prerequisites
+		String path = getClasspath(Y, "@dot");
+		assertOrder(path, new String[] {"cpZ", "cpFragZ", "cpW", "cpX/x1.jar", "cpX/x2.jar"});
+
+		path = getClasspath(fragY, "@dot");
+		assertOrder(path, new String[] {"cpY", "cpZ", "cpFragZ", "cpW", "cpX/x1.jar", "cpX/x2.jar"});
+
+		String[] topOrder = new String[] {"cpX/x1.jar", "cpX/x2.jar", "cpZ", "cpFragZ", "cpY", "cpW"};
+		String aPath = getClasspath(top, "a.jar");
+		assertOrder(aPath, topOrder);
+		String bPath = getClasspath(top, "b.jar");
+		assertOrder(bPath, topOrder);
+		//the second jar has the same prerequisites, followed by the first jar
+		int prerequisitesEnd = aPath.indexOf("cpTop");
+		assertTrue(prerequisitesEnd > 0);
+		assertEquals(aPath.substring(0, prerequisitesEnd), bPath.substring(0, prerequisitesEnd));
+		assertTrue(bPath.indexOf("a.jar", prerequisitesEnd) > 0);
+	}
+
+	public void testPrerequisiteClasspathBinaryCycle() throws Exception {
+		IFolder buildFolder = newTest("prerequisiteClasspathBinaryCycle", "208011");
+
+		//B requires A requires C requires B, with A and C binary
+		Properties properties = BuildConfiguration.getScriptGenerationProperties(buildFolder, "plugin", "B");
+		properties.put("allowBinaryCycles", "true");
+		generateScripts(buildFolder, properties);
+
+		String path = getClasspath(buildFolder.getFolder("plugins/B"), "@dot");
+		assertOrder(path, new String[] {"org.eclipse.core.runtime", "a_1.0.0.jar", "c_1.0.0.jar"});
+	}
+
+	public void testPrerequisiteCacheFollowsState() throws Exception {
+		IFolder buildFolder = newTest("prerequisiteCacheFollowsState");
+		IFolder A = Utils.createFolder(buildFolder, "plugins/A");
+		IFolder B = Utils.createFolder(buildFolder, "plugins/B");
+		Utils.generateBundle(A, "A");
+		Attributes manifestAdditions = new Attributes();
+		manifestAdditions.put(new Attributes.Name("Require-Bundle"), "A");
+		Utils.generateBundleManifest(B, "B", "1.0.0", manifestAdditions);
+
+		List bundles = new ArrayList();
+		bundles.add(A.getLocation().toFile());
+		bundles.add(B.getLocation().toFile());
+		AbstractScriptGenerator.setConfigInfo("win32,win32,x86");
+		PDEState state = new PDEState();
+		state.addBundles(bundles);
+		state.resolveState();
+
+		Map cache = state.getPrerequisiteCache();
+		synchronized (cache) {
+			cache.put("", new HashMap());
+		}
+		assertSame(cache, state.getPrerequisiteCache());
+		assertEquals(1, cache.size());
+
+		//replace a bundle, as the source generator does
+		state.getState().removeBundle(state.getResolvedBundle("A"));
+		state.addBundle(A.getLocation().toFile());
+		state.getState().resolve(true);
+		assertTrue(state.getPrerequisiteCache().isEmpty());
+	}
+
+	public void testConcurrentScriptGeneration() throws Exception {
+		IFolder buildFolder = newTest("concurrentScriptGeneration");
+
+		//a chain of bundles, each requiring the one before
+		String[] plugins = new String[8];
+		for (int i = 0; i < plugins.length; i++) {
+			plugins[i] = "gen" + i;
+			IFolder bundle = Utils.createFolder(buildFolder, "plugins/" + plugins[i]);
+			Attributes manifestAdditions = null;
+			if (i > 0) {
+				manifestAdditions = new Attributes();
+				manifestAdditions.put(new Attributes.Name("Require-Bundle"), plugins[i - 1]);
+			}
+			Utils.generateBundleManifest(bundle, plugins[i], "1.0.0", manifestAdditions);
+			Utils.generatePluginBuildProperties(bundle, null);
+		}
+		Utils.generateFeature(buildFolder, "f", null, plugins);
+
+		Properties properties = BuildConfiguration.getScriptGenerationProperties(buildFolder, "feature", "f");
+		generateScripts(buildFolder, properties);
+		String[] serialScripts = new String[plugins.length];
+		for (int i = 0; i < plugins.length; i++)
+			serialScripts[i] = readContents(buildFolder.getFile("plugins/" + plugins[i] + "/build.xml"));
+
+		//the scripts generated concurrently replace the ones generated serially
+		properties.put("generationThreads", "4");
+		generateScripts(buildFolder, properties);
+		for (int i = 0; i < plugins.length; i++) {
+			IFile buildScript = buildFolder.getFile("plugins/" + plugins[i] + "/build.xml");
+			assertEquals(plugins[i], serialScripts[i], readContents(buildScript));
+			assertValidAntScript(buildScript);
+			assertFalse(buildFolder.getFile("plugins/" + plugins[i] + "/build.xml.partial").getLocation().toFile().exists());
+		}
+	}
+
+	public void testPartialScriptReplacesScript() throws Exception {
+		IFolder buildFolder = newTest("partialScriptReplacesScript");
+		IFolder bundle = Utils.createFolder(buildFolder, "plugins/bundle");
+		Utils.generateBundle(bundle, "bundle");
+		String stale = "<project name=\"stale\" default=\"build.jars\"/>";
+		Utils.writeBuffer(bundle.getFile("build.xml"), new StringBuffer(stale));
+
+		generateScripts(buildFolder, BuildConfiguration.getScriptGenerationProperties(buildFolder, "plugin", "bundle"));
+
+		IFile buildScript = bundle.getFile("build.xml");
+		assertFalse(stale.equals(readContents(buildScript)));
+		Project antProject = assertValidAntScript(buildScript);
+		assertNotNull(antProject.getTargets().get("@dot"));
+		assertFalse(bundle.getFile("build.xml.partial").getLocation().toFile().exists());
+	}
+
+	public void testPartialScriptDeletedOnFailure() throws Exception {
+		IFolder buildFolder = newTest("partialScriptDeletedOnFailure", "208011");
+		IFolder B = buildFolder.getFolder("plugins/B");
+		String previous = "<project name=\"previous\" default=\"build.jars\"/>";
+		Utils.writeBuffer(B.getFile("build.xml"), new StringBuffer(previous));
+
+		//without allowBinaryCycles the cycle B -> A -> C -> B fails the classpath of B
+		try {
+			generateScripts(buildFolder, BuildConfiguration.getScriptGenerationProperties(buildFolder, "plugin", "B"));
+			fail("Script generation was expected to fail.");
+		} catch (Exception e) {
+			//expected
+		}
+
+		assertEquals(previous, readContents(B.getFile("build.xml")));
+		assertFalse(B.getFile("build.xml.partial").getLocation().toFile().exists());
+	}
+
+	private String readContents(IFile file) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Utils.transferStreams(new FileInputStream(file.getLocation().toFile()), output);
+		return output.toString("UTF-8");
+	}
+
+	private String getClasspath(IFolder bundle, String jar) throws Exception {
+		Project antProject = assertValidAntScript(bundle.getFile("build.xml"));
+		Target target = (Target) antProject.getTargets().get(jar);
+		assertNotNull(jar, target);
+		Object child = AntUtils.getFirstChildByName(target, "path");
+		assertTrue(child instanceof Path);
+		return child.toString();
+	}
+
+	private void assertOrder(String path, String[] entries) {
+		int last = -1;
+		for (int i = 0; i < entries.length; i++) {
+			int index = path.indexOf(entries[i]);
+			assertTrue(entries[i] + " in " + path, index > last);
+			last = index;
+		}
+	}
+
+	/*
+	 * Restores the state kept in the given folder if the bundles have not changed, otherwise adds
+	 * the bundles to the state, and resolves it.  Returns whether the kept state was restored.
+	 */
+	private boolean resolveCachedState(PDEState state, File cache, Collection bundles) {
+		return resolveCachedState(state, cache, bundles, null);
+	}
+
+	/*
+	 * As above, with the bundles being built resolved on top of the state.
+	 */
+	private boolean resolveCachedState(PDEState state, File cache, Collection bundles, Collection buildBundles) {
+		boolean restored = state.loadSnapshot(cache, state.getSnapshotFingerprint(bundles));
+		if (!restored)
+			state.addBundles(bundles);
+		state.setBuildBundles(buildBundles);
+		state.resolveState();
+		return restored;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -132,6 +132,23 @@ public abstract class AbstractScriptGenerator implements IXMLConstants, IPDEBuil
 		return (obj instanceof String) ? (String) obj : null;
 	}
 
+	/**
+	 * Returns the number of threads to generate with, as given by the generationThreads
+	 * property.  Defaults to 1, generating serially unless more threads are asked for.
+	 * @return the number of threads, at least 1
+	 */
+	public static int getGenerationThreads() {
+		String threads = getImmutableAntProperty(PROPERTY_GENERATION_THREADS);
+		if (threads != null) {
+			try {
+				return Math.max(1, Integer.parseInt(threads.trim()));
+			} catch (NumberFormatException e) {
+				//use the default
+			}
+		}
+		return 1;
+	}
+
 	public static void setConfigInfo(String spec) throws CoreException {
 		configInfos.clear();
 		String[] configs = Utils.getArrayFromStringWithBlank(spec, "&"); //$NON-NLS-1$
@@ -177,7 +194,7 @@ public abstract class AbstractScriptGenerator implements IXMLConstants, IPDEBuil
 
 	static public class MissingProperties extends Properties {
 		private static final long serialVersionUID = 3546924667060303927L;
-		private static MissingProperties singleton;
+		private static final MissingProperties singleton = new MissingProperties();
 
 		private MissingProperties() {
 			//nothing to do;
@@ -192,8 +209,6 @@ public abstract class AbstractScriptGenerator implements IXMLConstants, IPDEBuil
 		}
 
 		public static MissingProperties getInstance() {
-			if (singleton == null)
-				singleton = new MissingProperties();
 			return singleton;
 		}
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -84,6 +84,8 @@ public interface IBuildPropertiesConstants {
 	public static final String RESOLVER_DEV_MODE = "resolution.devMode"; //$NON-NLS-1$
 	public static final String PROPERTY_INDIVIDUAL_SOURCE = "individualSourceBundles"; //$NON-NLS-1$
 	public static final String PROPERTY_ALLOW_BINARY_CYCLES = "allowBinaryCycles"; //$NON-NLS-1$
+	public static final String PROPERTY_GENERATION_THREADS = "generationThreads"; //$NON-NLS-1$
+	public static final String PROPERTY_STATE_CACHE = "stateCacheLocation"; //$NON-NLS-1$
 
 	public static final String PROPERTY_TRANSFORMED_REPO = "transformedRepoLocation"; //$NON-NLS-1$
 	public static final String PROPERTY_P2_METADATA_REPO = "p2.metadata.repo"; //$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2009 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -40,7 +40,7 @@ public abstract class AbstractBuildScriptGenerator extends AbstractScriptGenerat
 
 	abstract protected Properties getBuildProperties() throws CoreException;
 
-	static public Properties getExecutionEnvironmentMappings() {
+	static synchronized public Properties getExecutionEnvironmentMappings() {
 		if (executionEnvironmentMappings != null)
 			return executionEnvironmentMappings;
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@ package org.eclipse.pde.internal.build.builder;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.equinox.p2.publisher.eclipse.Feature;
 import org.eclipse.equinox.p2.publisher.eclipse.FeatureEntry;
 import org.eclipse.osgi.service.resolver.BundleDescription;
@@ -484,6 +485,8 @@ public class BuildDirector extends AbstractBuildScriptGenerator {
 		if (binaryFeature == false || models.isEmpty())
 			return;
 
+		int threads = AbstractScriptGenerator.getGenerationThreads();
+		List generators = new ArrayList(models.size());
 		Set generatedScripts = new HashSet(models.size());
 		for (Iterator iterator = models.iterator(); iterator.hasNext();) {
 			BundleDescription model = (BundleDescription) iterator.next();
@@ -496,7 +499,7 @@ public class BuildDirector extends AbstractBuildScriptGenerator {
 			//are configuration agnostic so we only generate once.
 			Set matchingEntries = (Set) ((Properties) model.getUserObject()).get(PLUGIN_ENTRY);
 			if (matchingEntries == null || matchingEntries.isEmpty())
-				return;
+				break;
 
 			Iterator entryIter = matchingEntries.iterator();
 			FeatureEntry correspondingEntry = (FeatureEntry) entryIter.next();
@@ -517,9 +520,45 @@ public class BuildDirector extends AbstractBuildScriptGenerator {
 			generator.setSignJars(signJars);
 			generator.setAssociatedEntry(correspondingEntry);
 			generator.setGenerateSourceReferences(sourceReferences);
-			generator.generate();
+			if (threads > 1)
+				generators.add(generator);
+			else
+				generator.generate();
 		}
 
+		if (generators.size() > 0)
+			generateConcurrently(generators, threads);
+	}
+
+	/*
+	 * Generates the scripts of the given generators, which are all set up, using up to the given
+	 * number of threads.  The scripts of the models do not depend on each other and the generators
+	 * only change the data of their own model.  Fails with the first failure in the order of the
+	 * generators.
+	 */
+	private void generateConcurrently(List generators, int threads) throws CoreException {
+		final CoreException[] failures = new CoreException[generators.size()];
+		ParallelExecutor executor = new ParallelExecutor("Build script generator", threads); //$NON-NLS-1$
+		for (int i = 0; i < failures.length; i++) {
+			final int index = i;
+			final ModelBuildScriptGenerator generator = (ModelBuildScriptGenerator) generators.get(i);
+			executor.add(new ParallelExecutor.Task() {
+				protected IStatus run(IProgressMonitor monitor) {
+					try {
+						generator.generate();
+					} catch (CoreException e) {
+						failures[index] = e;
+						return e.getStatus();
+					}
+					return Status.OK_STATUS;
+				}
+			});
+		}
+		executor.execute(new NullProgressMonitor());
+		for (int i = 0; i < failures.length; i++) {
+			if (failures[i] != null)
+				throw failures[i];
+		}
 	}
 
 	/**
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -81,11 +81,12 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 
 		public static String normalize(String path) {
 			//always use '/' as a path separator to help with comparing paths in equals
-			return path.replaceAll("\\\\", "/"); //$NON-NLS-1$ //$NON-NLS-2$
+			return path.replace('\\', '/');
 		}
 	}
 
 	private static final String EXCLUDE_ALL_RULE = "?**/*"; //$NON-NLS-1$
+	private static final String EXCLUDE_ALL_RULES = "[" + EXCLUDE_ALL_RULE + "]"; //$NON-NLS-1$ //$NON-NLS-2$
 
 	private final ModelBuildScriptGenerator generator;
 	private Map visiblePackages = null;
@@ -93,6 +94,11 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 	private boolean allowBinaryCycles = false;
 	private Set requiredIds = null;
 
+	// the classpath entries that do not depend on the jar, as computed for the first jar of the model
+	private BundleDescription sharedModel = null;
+	private List sharedClasspath = null;
+	private Set sharedRequiredIds = null;
+
 	public ClasspathComputer3_0(ModelBuildScriptGenerator modelGenerator) {
 		this.generator = modelGenerator;
 	}
@@ -108,19 +114,32 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 	 */
 	public List getClasspath(BundleDescription model, ModelBuildScriptGenerator.CompiledEntry jar) throws CoreException {
 		List classpath = new ArrayList(20);
-		List pluginChain = new ArrayList(10); //The list of plugins added to detect cycle
 		String location = generator.getLocation(model);
-		Set addedPlugins = new HashSet(10); //The set of all the plugins already added to the classpath (this allows for optimization)
 		pathElements = new HashMap();
-		visiblePackages = getVisiblePackages(model);
-		requiredIds = new HashSet();
-		allowBinaryCycles = AbstractScriptGenerator.getPropertyAsBoolean(IBuildPropertiesConstants.PROPERTY_ALLOW_BINARY_CYCLES);
-
-		//PREREQUISITE
-		addPrerequisites(model, classpath, location, pluginChain, addedPlugins);
+		if (model != sharedModel) {
+			List pluginChain = new ArrayList(10); //The list of plugins added to detect cycle
+			Set addedPlugins = new HashSet(10); //The set of all the plugins already added to the classpath (this allows for optimization)
+			visiblePackages = getVisiblePackages(model);
+			requiredIds = new HashSet();
+			allowBinaryCycles = AbstractScriptGenerator.getPropertyAsBoolean(IBuildPropertiesConstants.PROPERTY_ALLOW_BINARY_CYCLES);
+
+			//PREREQUISITE
+			addPrerequisites(model, classpath, location, pluginChain, addedPlugins);
+
+			//SELF, the hosts if the model is a fragment
+			addHosts(model, classpath, location, pluginChain, addedPlugins);
+
+			//the entries so far are the same for all the jars of the model
+			sharedModel = model;
+			sharedClasspath = copyClasspath(classpath, null);
+			sharedRequiredIds = new HashSet(requiredIds);
+		} else {
+			classpath = copyClasspath(sharedClasspath, pathElements);
+			requiredIds = new HashSet(sharedRequiredIds);
+		}
 
-		//SELF
-		addSelf(model, jar, classpath, location, pluginChain, addedPlugins);
+		//SELF, the libraries
+		addSelf(model, jar, classpath, location);
 
 		recordRequiredIds(model);
 
@@ -128,6 +147,22 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 
 	}
 
+	/*
+	 * Returns a copy of the given classpath, the access rules of the elements are changed as more
+	 * entries are added.  The copied elements are also put in the given map of path elements.
+	 */
+	private List copyClasspath(List classpath, Map elements) {
+		List result = new ArrayList(Math.max(20, classpath.size()));
+		for (Iterator iterator = classpath.iterator(); iterator.hasNext();) {
+			ClasspathElement element = (ClasspathElement) iterator.next();
+			ClasspathElement copy = new ClasspathElement(element.getPath(), element.getAccessRules());
+			result.add(copy);
+			if (elements != null)
+				elements.put(copy.getPath(), copy);
+		}
+		return result;
+	}
+
 	private void recordRequiredIds(BundleDescription model) {
 		Properties bundleProperties = null;
 		bundleProperties = (Properties) model.getUserObject();
@@ -143,12 +178,29 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 		bundleProperties.setProperty(PROPERTY_REQUIRED_BUNDLE_IDS, buffer.toString());
 	}
 
+	/*
+	 * Returns the access rules of the classpath entries of each bundle exporting packages that
+	 * are visible to the given model, keyed by the symbolic name and version of the exporter.
+	 */
 	private Map getVisiblePackages(BundleDescription model) {
 		Map packages = new HashMap(20);
 		StateHelper helper = Platform.getPlatformAdmin().getStateHelper();
 		addVisiblePackagesFromState(helper, model, packages);
 		if (model.getHost() != null)
 			addVisiblePackagesFromState(helper, (BundleDescription) model.getHost().getSupplier(), packages);
+
+		//render the rules of each exporter once
+		for (Iterator iterator = packages.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			StringBuffer rules = new StringBuffer("["); //$NON-NLS-1$
+			for (Iterator rule = ((Set) entry.getValue()).iterator(); rule.hasNext();) {
+				rules.append(rule.next());
+				rules.append(File.pathSeparatorChar);
+			}
+			rules.append(EXCLUDE_ALL_RULE);
+			rules.append(']');
+			entry.setValue(rules.toString());
+		}
 		return packages;
 	}
 
@@ -160,19 +212,15 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 				continue;
 
 			boolean discouraged = helper.getAccessCode(model, exports[i]) == StateHelper.ACCESS_DISCOURAGED;
-			String pattern = exports[i].getName().replaceAll("\\.", "/") + "/*"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			String rule = (discouraged ? '~' : '+') + pattern;
+			String rule = (discouraged ? '~' : '+') + exports[i].getName().replace('.', '/') + "/*"; //$NON-NLS-1$
 
 			String packagesKey = exporter.getSymbolicName() + "_" + exporter.getVersion(); //$NON-NLS-1$
-			String rules = (String) packages.get(packagesKey);
-			if (rules != null) {
-				if (rules.indexOf(rule) == -1)
-					rules = rules + File.pathSeparator + rule;
-			} else {
-				rules = rule;
+			Set rules = (Set) packages.get(packagesKey);
+			if (rules == null) {
+				rules = new LinkedHashSet();
+				packages.put(packagesKey, rules);
 			}
-
-			packages.put(packagesKey, rules);
+			rules.add(rule);
 		}
 	}
 
@@ -319,11 +367,9 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 				BundleDescription host = (BundleDescription) model.getHost().getSupplier();
 				packageKey = host.getSymbolicName() + "_" + host.getVersion(); //$NON-NLS-1$
 			}
-			if (visiblePackages.containsKey(packageKey)) {
-				rules = "[" + (String) visiblePackages.get(packageKey) + File.pathSeparator + EXCLUDE_ALL_RULE + "]"; //$NON-NLS-1$ //$NON-NLS-2$
-			} else {
-				rules = "[" + EXCLUDE_ALL_RULE + "]"; //$NON-NLS-1$//$NON-NLS-2$
-			}
+			rules = (String) visiblePackages.get(packageKey);
+			if (rules == null)
+				rules = EXCLUDE_ALL_RULES;
 		}
 
 		String path = null;
@@ -363,7 +409,7 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 		}
 	}
 
-	private void addSelf(BundleDescription model, ModelBuildScriptGenerator.CompiledEntry jar, List classpath, String location, List pluginChain, Set addedPlugins) throws CoreException {
+	private void addHosts(BundleDescription model, List classpath, String location, List pluginChain, Set addedPlugins) throws CoreException {
 		// If model is a fragment, we need to add in the classpath the plugin to which it is related
 		HostSpecification host = model.getHost();
 		if (host != null) {
@@ -371,7 +417,9 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 			for (int i = 0; i < hosts.length; i++)
 				addPluginAndPrerequisites(hosts[i], classpath, location, pluginChain, addedPlugins);
 		}
+	}
 
+	private void addSelf(BundleDescription model, ModelBuildScriptGenerator.CompiledEntry jar, List classpath, String location) throws CoreException {
 		// Add the libraries
 		Properties modelProperties = generator.getBuildProperties();
 		String jarOrder = (String) modelProperties.get(PROPERTY_JAR_ORDER);
@@ -520,6 +568,16 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 		if (addedPlugins.contains(target)) //the plugin we are considering has already been added	
 			return;
 
+		// the prerequisites of a bundle are the same for all the bundles requiring it, unless there are cycles
+		List prerequisites = getPrerequisites(target);
+		if (prerequisites != null && !containsAny(prerequisites, pluginChain)) {
+			for (Iterator iterator = prerequisites.iterator(); iterator.hasNext();)
+				addPlugin((BundleDescription) iterator.next(), classpath, baseLocation);
+			addedPlugins.addAll(prerequisites);
+			addedPlugins.add(target);
+			return;
+		}
+
 		// add libraries from pre-requisite plug-ins.  Don't worry about the export flag
 		// as all required plugins may be required for compilation.
 		BundleDescription[] requires = PDEState.getDependentBundles(target);
@@ -531,6 +589,83 @@ public class ClasspathComputer3_0 implements IClasspathComputer, IPDEBuildConsta
 		addedPlugins.add(target);
 	}
 
+	/*
+	 * Returns the plug-ins that addPrerequisites adds to the classpath for the given bundle, in the
+	 * order it adds them, or null if there is a cycle among them.  The lists are kept with the
+	 * state, per platform the plug-ins are filtered for, and shared by all the script generators
+	 * of a build.
+	 */
+	private List getPrerequisites(BundleDescription target) throws CoreException {
+		Map cache;
+		Map filters = generator.getSite(false).getRegistry().getPrerequisiteCache();
+		synchronized (filters) {
+			String filterKey = getFilterKey();
+			cache = (Map) filters.get(filterKey);
+			if (cache == null) {
+				cache = new HashMap();
+				filters.put(filterKey, cache);
+			}
+		}
+		return computePrerequisites(target, cache, new HashSet());
+	}
+
+	/*
+	 * Returns the prerequisites of the given bundle, computing them from the prerequisites of the
+	 * bundles it requires.  The chain holds the bundles being computed, to detect cycles.
+	 */
+	private List computePrerequisites(BundleDescription target, Map cache, Set chain) {
+		synchronized (cache) {
+			List cached = (List) cache.get(target);
+			if (cached != null)
+				return cached;
+		}
+		if (!chain.add(target))
+			return null;
+
+		List result = new ArrayList();
+		Set added = new HashSet();
+		BundleDescription[] requires = PDEState.getDependentBundles(target);
+		for (int i = 0; i < requires.length; i++) {
+			if (!matchFilter(requires[i]))
+				continue;
+			List prerequisites = computePrerequisites(requires[i], cache, chain);
+			if (prerequisites == null)
+				return null;
+			if (added.add(requires[i]))
+				result.add(requires[i]);
+			for (Iterator iterator = prerequisites.iterator(); iterator.hasNext();) {
+				Object prerequisite = iterator.next();
+				if (added.add(prerequisite))
+					result.add(prerequisite);
+			}
+		}
+		chain.remove(target);
+
+		result = Collections.unmodifiableList(result);
+		synchronized (cache) {
+			cache.put(target, result);
+		}
+		return result;
+	}
+
+	private static boolean containsAny(List list, List elements) {
+		for (Iterator iterator = elements.iterator(); iterator.hasNext();) {
+			if (list.contains(iterator.next()))
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Returns a key for the platform that matchFilter matches bundles against.
+	 */
+	private String getFilterKey() {
+		FeatureEntry associatedEntry = generator.getAssociatedEntry();
+		if (associatedEntry == null)
+			return ""; //$NON-NLS-1$
+		return associatedEntry.getOS() + '/' + associatedEntry.getWS() + '/' + associatedEntry.getArch() + '/' + associatedEntry.getNL();
+	}
+
 	/* We can allow a cycle if it only contains 1 bundle that needs to be built and the rest are  binary. */
 	private boolean isAllowableCycle(BundleDescription target, List pluginChain) {
 		boolean haveNonBinary = false;
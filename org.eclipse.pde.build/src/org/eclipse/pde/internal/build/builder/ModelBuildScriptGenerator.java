@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2000, 2011 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -109,6 +109,7 @@ public class ModelBuildScriptGenerator extends AbstractBuildScriptGenerator {
 
 	private String propertiesFileName = PROPERTIES_FILE;
 	private String buildScriptFileName = DEFAULT_BUILD_SCRIPT_FILENAME;
+	private static final String PARTIAL_SCRIPT_SUFFIX = ".partial"; //$NON-NLS-1$
 	private String customBuildCallbacks = null;
 	private String customCallbacksBuildpath = null;
 	private String customCallbacksFailOnError = null;
@@ -156,11 +157,27 @@ public class ModelBuildScriptGenerator extends AbstractBuildScriptGenerator {
 			return;
 		}
 
-		openScript(getLocation(model), buildScriptFileName);
+		//the script is written next to the existing one and only replaces it once complete
+		File scriptFile = new File(getLocation(model), buildScriptFileName);
+		File partialScriptFile = new File(getLocation(model), buildScriptFileName + PARTIAL_SCRIPT_SUFFIX);
+		openScript(getLocation(model), partialScriptFile.getName());
+		boolean generated = false;
 		try {
 			generateBuildScript();
+			generated = true;
 		} finally {
 			closeScript();
+			if (!generated)
+				partialScriptFile.delete();
+		}
+		if (!partialScriptFile.renameTo(scriptFile)) {
+			//renaming does not replace an existing file on every platform
+			scriptFile.delete();
+			if (!partialScriptFile.renameTo(scriptFile)) {
+				partialScriptFile.delete();
+				String message = NLS.bind(Messages.exception_writeScript, scriptFile);
+				throw new CoreException(new Status(IStatus.ERROR, PI_PDEBUILD, EXCEPTION_WRITING_SCRIPT, message, null));
+			}
 		}
 	}
 
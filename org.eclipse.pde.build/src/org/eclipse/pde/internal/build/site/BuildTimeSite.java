@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -98,6 +98,37 @@ public class BuildTimeSite /*extends Site*/implements IPDEBuildConstants, IXMLCo
 		return result;
 	}
 
+	/*
+	 * Returns whether the state of the target is kept between builds.  Filtering states depend
+	 * on the features being built and are never kept.
+	 */
+	private boolean useStateCache() {
+		return AbstractScriptGenerator.getImmutableAntProperty(IBuildPropertiesConstants.PROPERTY_STATE_CACHE) != null && state.getClass() == PDEState.class;
+	}
+
+	/*
+	 * Splits the given bundles into the bundles in the build directory, which are being built,
+	 * and the bundles of the target.  The order of the bundles is kept.
+	 */
+	private void splitBuildBundles(Collection bundles, Collection buildBundles, Collection targetBundles) {
+		String buildDirectory = getCanonicalPath(new File(AbstractScriptGenerator.getWorkingDirectory()));
+		for (Iterator iterator = bundles.iterator(); iterator.hasNext();) {
+			File bundle = (File) iterator.next();
+			if (getCanonicalPath(bundle).startsWith(buildDirectory + File.separator))
+				buildBundles.add(bundle);
+			else
+				targetBundles.add(bundle);
+		}
+	}
+
+	private static String getCanonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
 	private Collection removeDuplicates(Collection bundles) {
 		Set result = new LinkedHashSet(bundles.size() / 2);
 		for (Iterator iterator = bundles.iterator(); iterator.hasNext();) {
@@ -142,7 +173,19 @@ public class BuildTimeSite /*extends Site*/implements IPDEBuildConstants, IXMLCo
 			}
 
 			Collection bundles = removeDuplicates(provider.getPluginPaths());
-			state.addBundles(bundles);
+			if (!useStateCache()) {
+				state.addBundles(bundles);
+			} else {
+				//only the bundles of the target are kept between builds, the bundles being built are resolved on top of them
+				//and, as when all the bundles are added at once, take precedence over target bundles of the same version
+				Collection buildBundles = new ArrayList();
+				Collection targetBundles = new ArrayList(bundles.size());
+				splitBuildBundles(bundles, buildBundles, targetBundles);
+				File cacheLocation = new File(AbstractScriptGenerator.getImmutableAntProperty(IBuildPropertiesConstants.PROPERTY_STATE_CACHE));
+				if (!state.loadSnapshot(cacheLocation, state.getSnapshotFingerprint(targetBundles)))
+					state.addBundles(targetBundles);
+				state.setBuildBundles(buildBundles);
+			}
 			state.setEESources(eeSources);
 
 			//Once all the elements have been added to the state, the filter is removed to allow for the generated plug-ins to be added
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2004, 2010 IBM Corporation and others.
+ *  Copyright (c) 2004, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,11 +11,14 @@
 package org.eclipse.pde.internal.build.site;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.osgi.service.pluginconversion.PluginConversionException;
 import org.eclipse.osgi.service.pluginconversion.PluginConverter;
 import org.eclipse.osgi.service.resolver.*;
@@ -27,6 +30,12 @@ import org.osgi.framework.*;
 // This class provides a higher level API on the state
 public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 	private static final String[] MANIFEST_ENTRIES = {Constants.BUNDLE_LOCALIZATION, Constants.BUNDLE_NAME, Constants.BUNDLE_VENDOR, ECLIPSE_BUNDLE_SHAPE, ECLIPSE_SOURCE_BUNDLE, ECLIPSE_SOURCE_REF};
+	// the files that make a folder a bundle rather than a project with a flexible root
+	private static final String[] MANIFEST_FILES = {JarFile.MANIFEST_NAME, org.eclipse.pde.build.Constants.PLUGIN_FILENAME_DESCRIPTOR, org.eclipse.pde.build.Constants.FRAGMENT_FILENAME_DESCRIPTOR};
+	// the files of a bundle folder that are read when adding the bundle
+	private static final String[] BUNDLE_FILES = {JarFile.MANIFEST_NAME, org.eclipse.pde.build.Constants.PLUGIN_FILENAME_DESCRIPTOR, org.eclipse.pde.build.Constants.FRAGMENT_FILENAME_DESCRIPTOR, PROPERTIES_FILE, PDE_CORE_PREFS};
+	private static final String SNAPSHOT_DATA = "pdeState.data"; //$NON-NLS-1$
+	private static final int SNAPSHOT_FORMAT = 1;
 
 	private StateObjectFactory factory;
 	protected State state;
@@ -41,8 +50,21 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 	private Dictionary platformProperties;
 	private List sortedBundles = null;
 	private final Set convertedManifests;
+	// the plug-in converter keeps the plug-in being converted in fields, conversions must not overlap
+	private final Object converterLock = new Object();
 	private long lastSortingDate = 0L;
 	private String[] eeSources;
+	// where the state is kept between builds, null if it is not
+	private File snapshotLocation;
+	private String snapshotFingerprint;
+	private boolean snapshotLoaded = false;
+	// whether a bundle version got a qualifier that differs from build to build
+	private boolean volatileVersions = false;
+	// the bundles to add once the state has been resolved, see setBuildBundles
+	private Collection buildBundles;
+	// platform filter -> (BundleDescription -> prerequisites), see getPrerequisiteCache
+	private final Map prerequisiteCache = new HashMap();
+	private long prerequisiteCacheDate = 0L;
 
 	protected long getNextId() {
 		return ++id;
@@ -216,32 +238,50 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 	}
 
 	public boolean addBundle(File bundleLocation) {
-		Dictionary manifest;
-		manifest = loadManifest(bundleLocation);
-		if (manifest == null) {
-			return addFlexibleRoot(bundleLocation);
+		File[] locations = new File[] {bundleLocation};
+		Dictionary manifest = loadBundleManifest(locations, 0);
+		if (manifest == null)
+			return false;
+		return addBundle(manifest, locations[0]);
+	}
+
+	/*
+	 * Loads the manifest of the bundle at the given location and detects its qualifier, everything
+	 * but adding the bundle to the state.  If the location is the project of a bundle with a flexible
+	 * root the location is replaced by the root.  Returns null if the location is not a bundle.
+	 * May be called from multiple threads.
+	 */
+	private Dictionary loadBundleManifest(File[] locations, int index) {
+		File bundleLocation = locations[index];
+		Dictionary manifest = loadManifest(bundleLocation);
+		while (manifest == null) {
+			bundleLocation = getFlexibleRoot(bundleLocation);
+			if (bundleLocation == null)
+				return null;
+			manifest = loadManifest(bundleLocation);
 		}
 		try {
 			hasQualifier(bundleLocation, manifest);
 		} catch (BundleException e) {
 			//should not happen since we know the header
 		}
-		return addBundle(manifest, bundleLocation);
+		locations[index] = bundleLocation;
+		return manifest;
 	}
 
-	private boolean addFlexibleRoot(File bundleLocation) {
+	private File getFlexibleRoot(File bundleLocation) {
 		if (!new File(bundleLocation, PDE_CORE_PREFS).exists())
-			return false;
+			return null;
 
 		try {
 			Properties properties = AbstractScriptGenerator.readProperties(bundleLocation.getAbsolutePath(), PDE_CORE_PREFS, IStatus.OK);
 			String root = properties.getProperty(BUNDLE_ROOT_PATH);
 			if (root != null)
-				return addBundle(new File(bundleLocation, root));
+				return new File(bundleLocation, root);
 		} catch (CoreException e) {
 			//ignore
 		}
-		return false;
+		return null;
 	}
 
 	private String updateVersionNumber(Dictionary manifest) {
@@ -258,8 +298,13 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 		} catch (BundleException e) {
 			//ignore
 		}
-		if (newVersion != null)
+		if (newVersion != null) {
 			manifest.put(Constants.BUNDLE_VERSION, newVersion);
+			//without a global qualifier the context qualifier is the time of the build
+			String replaceTag = (String) manifest.get(PROPERTY_QUALIFIER);
+			if (!newVersion.equals(oldVersion) && (replaceTag == null || replaceTag.equalsIgnoreCase(PROPERTY_CONTEXT)) && QualifierReplacer.getGlobalQualifier() == null)
+				volatileVersions = true;
+		}
 		return oldVersion;
 	}
 
@@ -380,10 +425,13 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 	private Dictionary convertPluginManifest(File bundleLocation, boolean logConversionException) {
 		PluginConverter converter;
 		try {
-			converter = acquirePluginConverter();
-			Dictionary manifest = converter.convertManifest(bundleLocation, false, AbstractScriptGenerator.isBuildingOSGi() ? null : "2.1", false, null); //$NON-NLS-1$
-			if (convertedManifests != null)
-				convertedManifests.add(manifest);
+			Dictionary manifest;
+			synchronized (converterLock) {
+				converter = acquirePluginConverter();
+				manifest = converter.convertManifest(bundleLocation, false, AbstractScriptGenerator.isBuildingOSGi() ? null : "2.1", false, null); //$NON-NLS-1$
+				if (convertedManifests != null)
+					convertedManifests.add(manifest);
+			}
 			return manifest;
 		} catch (PluginConversionException convertException) {
 			if (bundleLocation.getName().equals(org.eclipse.pde.build.Constants.FEATURE_FILENAME_DESCRIPTOR))
@@ -403,9 +451,32 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 	}
 
 	public void addBundles(Collection bundles) {
-		for (Iterator iter = bundles.iterator(); iter.hasNext();) {
-			File bundle = (File) iter.next();
-			addBundle(bundle);
+		int threads = AbstractScriptGenerator.getGenerationThreads();
+		if (threads <= 1 || bundles.size() <= 1) {
+			for (Iterator iter = bundles.iterator(); iter.hasNext();) {
+				File bundle = (File) iter.next();
+				addBundle(bundle);
+			}
+			return;
+		}
+
+		// read the manifests concurrently, but add the bundles in order so they always get the same ids
+		final File[] locations = (File[]) bundles.toArray(new File[bundles.size()]);
+		final Dictionary[] manifests = new Dictionary[locations.length];
+		ParallelExecutor executor = new ParallelExecutor("Bundle manifest reader", threads); //$NON-NLS-1$
+		for (int i = 0; i < locations.length; i++) {
+			final int index = i;
+			executor.add(new ParallelExecutor.Task() {
+				protected IStatus run(IProgressMonitor monitor) {
+					manifests[index] = loadBundleManifest(locations, index);
+					return Status.OK_STATUS;
+				}
+			});
+		}
+		executor.execute(null);
+		for (int i = 0; i < locations.length; i++) {
+			if (manifests[i] != null)
+				addBundle(manifests[i], locations[i]);
 		}
 	}
 
@@ -476,8 +547,17 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 		}
 
 		Dictionary[] stateProperties = (Dictionary[]) properties.toArray(new Dictionary[properties.size()]);
-		state.setPlatformProperties(stateProperties);
-		state.resolve(false);
+		boolean propertiesChanged = state.setPlatformProperties(stateProperties);
+		//a state from an earlier build only needs to be resolved again when it was resolved for other platforms
+		if (!snapshotLoaded || propertiesChanged || !state.isResolved()) {
+			state.resolve(false);
+			if (snapshotLocation != null && !volatileVersions)
+				writeSnapshot();
+		}
+		if (buildBundles != null) {
+			resolveBuildBundles(buildBundles);
+			buildBundles = null;
+		}
 
 		if (unqualifiedBundles != null) {
 			forceQualifiers();
@@ -488,6 +568,217 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 		return state;
 	}
 
+	/**
+	 * Sets the bundles that are being built.  Unlike the other bundles these change from
+	 * build to build, so they are only added once the other bundles have been resolved
+	 * and are then resolved on their own.  This way the state of the other bundles can
+	 * be {@link #loadSnapshot(File, String) kept} between builds.
+	 * @param bundles the locations of the bundles being built
+	 */
+	public void setBuildBundles(Collection bundles) {
+		buildBundles = bundles;
+	}
+
+	/*
+	 * Adds the given bundles to the resolved state and resolves them, together with the
+	 * hosts of the fragments among them.  The bundles already resolved are only resolved
+	 * again if a new bundle has the same symbolic name as one of them, otherwise the resolver
+	 * would keep the one it already chose.  Like in a state where the bundles being built are
+	 * added first, they come ahead of the bundles with the same symbolic name and version,
+	 * which are added again after them.
+	 */
+	private void resolveBuildBundles(Collection bundles) {
+		long lastId = id;
+		Set resolvedNames = new HashSet();
+		BundleDescription[] existing = state.getBundles();
+		for (int i = 0; i < existing.length; i++)
+			resolvedNames.add(existing[i].getSymbolicName());
+
+		addBundles(bundles);
+
+		List displaced = new ArrayList();
+		BundleDescription[] added = state.getBundles();
+		for (int i = 0; i < added.length; i++) {
+			if (added[i].getBundleId() <= lastId)
+				continue;
+			BundleDescription[] sameName = state.getBundles(added[i].getSymbolicName());
+			for (int j = 0; j < sameName.length; j++) {
+				if (sameName[j].getBundleId() <= lastId && sameName[j].getVersion().equals(added[i].getVersion())) {
+					state.removeBundle(sameName[j]);
+					Long key = new Long(sameName[j].getBundleId());
+					bundleClasspaths.remove(key);
+					patchBundles.remove(key);
+					displaced.add(new File(sameName[j].getLocation()));
+				}
+			}
+		}
+		addBundles(displaced);
+
+		BundleDescription[] all = state.getBundles();
+		List toResolve = new ArrayList();
+		boolean replacesBundle = false;
+		for (int i = 0; i < all.length; i++) {
+			if (all[i].getBundleId() <= lastId)
+				continue;
+			toResolve.add(all[i]);
+			if (resolvedNames.contains(all[i].getSymbolicName()))
+				replacesBundle = true;
+			HostSpecification host = all[i].getHost();
+			if (host != null) {
+				BundleDescription[] hosts = state.getBundles(host.getName());
+				for (int j = 0; j < hosts.length; j++) {
+					if (hosts[j].getBundleId() <= lastId && !toResolve.contains(hosts[j]))
+						toResolve.add(hosts[j]);
+				}
+			}
+		}
+		if (replacesBundle)
+			state.resolve(false);
+		else if (toResolve.size() > 0)
+			state.resolve((BundleDescription[]) toResolve.toArray(new BundleDescription[toResolve.size()]));
+	}
+
+	/**
+	 * Returns a fingerprint of everything that goes into the state when the given bundles
+	 * are added: the location, size and time stamp of each bundle and of the files read
+	 * from bundle folders, or from the flexible root of a project, and the settings that
+	 * change the versions of the bundles.
+	 * @param bundles the locations of the bundles, as given to {@link #addBundles(Collection)}
+	 * @return the fingerprint
+	 */
+	public String getSnapshotFingerprint(Collection bundles) {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(SNAPSHOT_FORMAT).append(',').append(AbstractScriptGenerator.isBuildingOSGi());
+		buffer.append(',').append(AbstractScriptGenerator.getPropertyAsBoolean(PROPERTY_PACKAGER_AS_NORMALIZER));
+		buffer.append(',').append(QualifierReplacer.getGlobalQualifier()).append('\n');
+		appendStamp(buffer, new File(AbstractScriptGenerator.getWorkingDirectory(), DEFAULT_PLUGIN_REPOTAG_FILENAME_DESCRIPTOR));
+		appendStamp(buffer, new File(AbstractScriptGenerator.getWorkingDirectory(), DEFAULT_SOURCE_REFERENCES_FILENAME_DESCRIPTOR));
+		for (Iterator iter = bundles.iterator(); iter.hasNext();) {
+			File bundle = (File) iter.next();
+			appendStamp(buffer, bundle);
+			//like loadBundleManifest, follow the flexible root of a project without a manifest
+			File location = bundle;
+			while (location != null && location.isDirectory()) {
+				for (int i = 0; i < BUNDLE_FILES.length; i++)
+					appendStamp(buffer, new File(location, BUNDLE_FILES[i]));
+				location = hasManifestFile(location) ? null : getFlexibleRoot(location);
+			}
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(buffer.toString().getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+			StringBuffer result = new StringBuffer(digest.length * 2);
+			for (int i = 0; i < digest.length; i++) {
+				result.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+				result.append(Character.forDigit(digest[i] & 0xF, 16));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return buffer.toString();
+		} catch (UnsupportedEncodingException e) {
+			return buffer.toString();
+		}
+	}
+
+	private boolean hasManifestFile(File bundleLocation) {
+		for (int i = 0; i < MANIFEST_FILES.length; i++) {
+			if (new File(bundleLocation, MANIFEST_FILES[i]).exists())
+				return true;
+		}
+		return false;
+	}
+
+	private void appendStamp(StringBuffer buffer, File file) {
+		buffer.append(file.getAbsolutePath()).append(',').append(file.length()).append(',').append(file.lastModified()).append('\n');
+	}
+
+	/**
+	 * Restores the state kept in the given folder by an earlier build, if it was made from
+	 * bundles with the given fingerprint.  The bundles then do not need to be added again
+	 * and, unless the platform properties have changed, the state does not need to be resolved
+	 * again.  Otherwise the state made by this build is kept in the folder once it has been
+	 * resolved.
+	 * @param location the folder to keep the state in
+	 * @param fingerprint the {@link #getSnapshotFingerprint(Collection) fingerprint} of the bundles
+	 * @return whether the state was restored
+	 */
+	public boolean loadSnapshot(File location, String fingerprint) {
+		snapshotLocation = location;
+		snapshotFingerprint = fingerprint;
+		File dataFile = new File(location, SNAPSHOT_DATA);
+		if (!dataFile.isFile())
+			return false;
+		try {
+			ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+			try {
+				if (input.readInt() != SNAPSHOT_FORMAT || !fingerprint.equals(input.readUTF()))
+					return false;
+				long nextId = input.readLong();
+				HashMap classpaths = (HashMap) input.readObject();
+				Map patches = (Map) input.readObject();
+				Map userObjects = (Map) input.readObject();
+				State snapshot = factory.readState(location);
+				if (snapshot == null)
+					return false;
+				snapshot.setResolver(Platform.getPlatformAdmin().createResolver());
+				BundleDescription[] bundles = snapshot.getBundles();
+				for (int i = 0; i < bundles.length; i++)
+					bundles[i].setUserObject(userObjects.get(new Long(bundles[i].getBundleId())));
+				state = snapshot;
+				id = nextId;
+				bundleClasspaths = classpaths;
+				patchBundles = patches;
+				snapshotLoaded = true;
+				return true;
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			//build the state from scratch
+		} catch (ClassNotFoundException e) {
+			//build the state from scratch
+		} catch (ClassCastException e) {
+			//build the state from scratch
+		}
+		return false;
+	}
+
+	private void writeSnapshot() {
+		File dataFile = new File(snapshotLocation, SNAPSHOT_DATA);
+		try {
+			//the data is written last, without it a partly written state is never read
+			dataFile.delete();
+			snapshotLocation.mkdirs();
+			factory.writeState(state, snapshotLocation);
+
+			Map userObjects = new HashMap();
+			BundleDescription[] bundles = state.getBundles();
+			for (int i = 0; i < bundles.length; i++) {
+				if (bundles[i].getUserObject() instanceof Properties)
+					userObjects.put(new Long(bundles[i].getBundleId()), bundles[i].getUserObject());
+			}
+			ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+			try {
+				output.writeInt(SNAPSHOT_FORMAT);
+				output.writeUTF(snapshotFingerprint);
+				output.writeLong(id);
+				output.writeObject(bundleClasspaths);
+				output.writeObject(patchBundles);
+				output.writeObject(userObjects);
+			} finally {
+				output.close();
+			}
+		} catch (IOException e) {
+			dataFile.delete();
+			IStatus status = new Status(IStatus.WARNING, PI_PDEBUILD, EXCEPTION_WRITING_FILE, NLS.bind(Messages.exception_writingFile, snapshotLocation), e);
+			BundleHelper.getDefault().getLog().log(status);
+		} catch (RuntimeException e) {
+			//the state may hold platform properties that cannot be written
+			dataFile.delete();
+			IStatus status = new Status(IStatus.WARNING, PI_PDEBUILD, EXCEPTION_WRITING_FILE, NLS.bind(Messages.exception_writingFile, snapshotLocation), e);
+			BundleHelper.getDefault().getLog().log(status);
+		}
+	}
+
 	public BundleDescription[] getDependentBundles(String bundleId, Version version) {
 		BundleDescription root = state.getBundle(bundleId, version);
 		return getDependentBundles(root);
@@ -656,6 +947,21 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 		return patchBundles;
 	}
 
+	/**
+	 * Returns the map in which the classpath computers keep the prerequisites of the bundles
+	 * of this state, so that they are only computed once as long as the state does not change.
+	 * Access to the map must be synchronized on it.
+	 */
+	public Map getPrerequisiteCache() {
+		synchronized (prerequisiteCache) {
+			if (prerequisiteCacheDate != getState().getTimeStamp()) {
+				prerequisiteCacheDate = getState().getTimeStamp();
+				prerequisiteCache.clear();
+			}
+		}
+		return prerequisiteCache;
+	}
+
 	public List getSortedBundles() {
 		if (lastSortingDate != getState().getTimeStamp()) {
 			lastSortingDate = getState().getTimeStamp();
@@ -750,7 +1056,7 @@ public class PDEState implements IPDEBuildConstants, IBuildPropertiesConstants {
 		this.eeSources = eeSources;
 	}
 
-	public ProfileManager getProfileManager() {
+	public synchronized ProfileManager getProfileManager() {
 		if (profileManager == null) {
 			File osgi = getOSGiLocation();
 			String[] sources = null;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -121,4 +121,8 @@ public class QualifierReplacer implements IBuildPropertiesConstants {
 		else if (globalQualifier.length() > 0 && globalQualifier.charAt(0) != '$')
 			QualifierReplacer.globalQualifier = globalQualifier;
 	}
+
+	public static String getGlobalQualifier() {
+		return globalQualifier;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2005, 2008 IBM Corporation and others.
+ *  Copyright (c) 2005, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -17,7 +17,13 @@ import org.eclipse.pde.internal.publishing.Utils;
 import org.eclipse.pde.internal.swt.tools.IconExe;
 
 /**
- *
+ * Brands the executables of one configuration with the name and icons of a product.
+ * <p>
+ * The files are changed through the {@link ExecutablesDescriptor}, so for a virtual copy
+ * only the executable whose icons change is copied and files are only renamed in the
+ * descriptor.  Mac launchers are restructured on disk, so a virtual copy of them is
+ * first made a temporary copy.
+ * </p>
  */
 public class BrandingIron {
 	private static final String MARKER_NAME = "%EXECUTABLE_NAME%"; //$NON-NLS-1$
@@ -78,6 +84,9 @@ public class BrandingIron {
 		if (name.startsWith("${")) //$NON-NLS-1$
 			return;
 
+		if ("macosx".equals(os) && descriptor.isVirtual()) //$NON-NLS-1$
+			descriptor.makeTemporaryCopy();
+
 		if (icons == null || icons[0].startsWith("${")) //$NON-NLS-1$
 			brandIcons = false;
 
@@ -138,8 +147,7 @@ public class BrandingIron {
 			}
 			if (icon != null) {
 				File targetIcon = new File(descriptor.getLocation(), "icon.xpm"); //$NON-NLS-1$
-				Utils.copy(icon, targetIcon);
-				descriptor.addFile(targetIcon);
+				descriptor.addFile(targetIcon, icon);
 			}
 		}
 	}
@@ -160,8 +168,7 @@ public class BrandingIron {
 			// check if the extension is one of: .l.pm, .m.pm, .s.pm, .t.pm
 			if (extension.charAt(0) == '.' && extension.endsWith(".pm") && "lmst".indexOf(extension.charAt(1)) >= 0) { //$NON-NLS-1$ //$NON-NLS-2$
 				File targetIcon = new File(root, name + extension);
-				Utils.copy(new File(icon), targetIcon);
-				descriptor.addFile(targetIcon);
+				descriptor.addFile(targetIcon, new File(icon));
 			}
 		}
 	}
@@ -348,19 +355,17 @@ public class BrandingIron {
 			templateLauncher = new File(root, "eclipse.exe"); //$NON-NLS-1$
 		if (brandIcons) {
 			if (templateLauncher.exists()) {
-				String[] args = new String[icons.length + 1];
-				args[0] = templateLauncher.getAbsolutePath();
-				System.arraycopy(icons, 0, args, 1, icons.length);
-				IconExe.main(args);
+				String launcher = descriptor.getChangeableFile(templateLauncher).getAbsolutePath();
+				int missing = IconExe.replaceIcons(new String[] {launcher}, icons)[0];
+				if (missing != 0)
+					System.err.println("Error - " + missing + " icon(s) not replaced in " + launcher); //$NON-NLS-1$ //$NON-NLS-2$
 			} else {
 				System.out.println("Could not find executable to brand");
 			}
 		}
 		File targetLauncher = new File(root, name + ".exe"); //$NON-NLS-1$
-		if (templateLauncher.exists() && !templateLauncher.getName().equals(name + ".exe")) { //$NON-NLS-1$
-			templateLauncher.renameTo(targetLauncher);
-			descriptor.replace(templateLauncher, targetLauncher);
-		}
+		if (templateLauncher.exists() && !templateLauncher.getName().equals(name + ".exe")) //$NON-NLS-1$
+			descriptor.renameFile(templateLauncher, targetLauncher);
 		descriptor.setExecutableName(name, true);
 	}
 
@@ -370,8 +375,7 @@ public class BrandingIron {
 		if (launcher == null)
 			return;
 		File targetLauncher = new File(root, name);
-		launcher.renameTo(targetLauncher);
-		descriptor.replace(launcher, targetLauncher);
+		descriptor.renameFile(launcher, targetLauncher);
 		descriptor.setExecutableName(name, true);
 	}
 
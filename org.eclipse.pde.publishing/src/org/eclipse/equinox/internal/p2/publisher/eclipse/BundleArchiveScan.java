@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.publisher.eclipse;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.internal.p2.publisher.ArtifactChecksums;
+import org.eclipse.equinox.spi.p2.publisher.LocalizationHelper;
+
+/**
+ * A snapshot of the parts of a bundle jar that are needed to publish it.  The jar is
+ * opened once and read sequentially from start to end.  Along the way the manifest,
+ * the p2 advice file and all properties files are captured and the checksums of the
+ * whole jar are computed.  All other entries are skipped.
+ * <p>
+ * Jars that cannot be read this way (for example, stored entries followed by a data
+ * descriptor) are not scanned and callers should fall back to reading the jar directly.
+ * </p>
+ */
+public class BundleArchiveScan {
+	public static final String ADVICE_FILE = "META-INF/p2.inf"; //$NON-NLS-1$
+	private static final String PROPERTIES_FILE_EXTENSION = ".properties"; //$NON-NLS-1$
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File location;
+	private final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+	private Map<String, String> checksums;
+
+	/**
+	 * Scans the jar at the given location computing its MD5 checksum.
+	 * @param location the location of the jar
+	 * @return the scan of the jar or <code>null</code> if the location is not a jar
+	 * or the jar could not be scanned
+	 */
+	public static BundleArchiveScan scan(File location) {
+		return scan(location, new String[] {ArtifactChecksums.MD5});
+	}
+
+	/**
+	 * Scans the jar at the given location computing its checksums with the given algorithms.
+	 * @param location the location of the jar
+	 * @param algorithms the digest algorithms of the checksums to compute
+	 * @return the scan of the jar or <code>null</code> if the location is not a jar
+	 * or the jar could not be scanned
+	 */
+	public static BundleArchiveScan scan(File location, String[] algorithms) {
+		if (location == null || !location.isFile() || !location.getName().toLowerCase().endsWith(".jar")) //$NON-NLS-1$
+			return null;
+		BundleArchiveScan result = new BundleArchiveScan(location);
+		try {
+			result.read(algorithms);
+		} catch (IOException e) {
+			return null;
+		}
+		return result;
+	}
+
+	private BundleArchiveScan(File location) {
+		this.location = location;
+	}
+
+	private void read(String[] algorithms) throws IOException {
+		MessageDigest[] digests = ArtifactChecksums.createDigests(algorithms);
+		InputStream input = new BufferedInputStream(new FileInputStream(location), BUFFER_SIZE);
+		for (int i = 0; i < digests.length; i++)
+			if (digests[i] != null)
+				input = new DigestInputStream(input, digests[i]);
+		try {
+			ZipInputStream zip = new ZipInputStream(input);
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				if (!entry.isDirectory() && isCaptured(entry.getName()))
+					entries.put(entry.getName(), readEntry(zip));
+			}
+			// the central directory follows the entries, run it through the digest as well
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (input.read(buffer) != -1) {
+				// keep reading
+			}
+		} finally {
+			input.close();
+		}
+		checksums = ArtifactChecksums.toChecksums(algorithms, digests);
+	}
+
+	private static boolean isCaptured(String name) {
+		return name.equals(JarFile.MANIFEST_NAME) || name.equals(ADVICE_FILE) || name.endsWith(PROPERTIES_FILE_EXTENSION);
+	}
+
+	private static byte[] readEntry(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = input.read(buffer)) != -1)
+			output.write(buffer, 0, read);
+		return output.toByteArray();
+	}
+
+	/**
+	 * Drops the captured properties files that are not localizations under any of the given
+	 * paths.  Bundles are scanned long before their IUs are created, this keeps only what
+	 * the IUs need until then.
+	 * @param localizationPaths the localization paths to keep, for example <code>OSGI-INF/l10n/bundle</code>
+	 */
+	public void retainLocalizations(String[] localizationPaths) {
+		for (Iterator<String> iter = entries.keySet().iterator(); iter.hasNext();) {
+			String name = iter.next();
+			if (!name.endsWith(PROPERTIES_FILE_EXTENSION))
+				continue;
+			boolean needed = false;
+			for (int i = 0; i < localizationPaths.length && !needed; i++)
+				needed = localizationPaths[i] != null && LocalizationHelper.getLocaleString(name, localizationPaths[i]) != null;
+			if (!needed)
+				iter.remove();
+		}
+	}
+
+	/**
+	 * Returns the location of the scanned jar.
+	 */
+	public File getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns the checksums of the jar as hex strings keyed by digest algorithm.
+	 */
+	public Map<String, String> getChecksums() {
+		return checksums;
+	}
+
+	/**
+	 * Returns the MD5 checksum of the jar as a hex string, or <code>null</code> if
+	 * it was not computed.
+	 */
+	public String getMD5() {
+		return checksums.get(ArtifactChecksums.MD5);
+	}
+
+	/**
+	 * Returns the content of the given captured entry as a stream.
+	 * @param name the name of the entry, for example <code>META-INF/MANIFEST.MF</code>
+	 * @return a stream on the content of the entry or <code>null</code> if the jar
+	 * has no such entry or it was not captured
+	 */
+	public InputStream getInputStream(String name) {
+		byte[] content = entries.get(name);
+		return content == null ? null : new ByteArrayInputStream(content);
+	}
+
+	/**
+	 * Returns a map from locale to the localized values of the given keys found in the
+	 * properties files of the jar whose names start with the given localization path.
+	 * This is the scanned equivalent of {@link LocalizationHelper#getJarPropertyLocalizations(File, String, Locale, String[])}.
+	 */
+	public Map<Locale, Map<String, String>> getPropertyLocalizations(String localizationPath, String[] propertyKeys) {
+		Map<Locale, Map<String, String>> localizations = new HashMap<Locale, Map<String, String>>(4);
+		for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+			String localeString = LocalizationHelper.getLocaleString(entry.getKey(), localizationPath);
+			if (localeString == null)
+				continue;
+			try {
+				Map<String, String> properties = CollectionUtils.loadProperties(new ByteArrayInputStream(entry.getValue()));
+				Map<String, String> localizedStrings = LocalizationHelper.getLocalizedProperties(propertyKeys, properties);
+				if (localizedStrings.size() > 0)
+					localizations.put(LocalizationHelper.getLocale(localeString), localizedStrings);
+			} catch (IOException e) {
+				// cannot happen reading from memory
+			}
+		}
+		return localizations;
+	}
+}
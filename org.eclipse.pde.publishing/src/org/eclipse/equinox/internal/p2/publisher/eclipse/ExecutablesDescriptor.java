@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2009 EclipseSource and others.
+ *  Copyright (c) 2008, 2011 EclipseSource and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,15 +12,28 @@
 package org.eclipse.equinox.internal.p2.publisher.eclipse;
 
 import java.io.*;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.FileUtils.IPathComputer;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.publisher.AbstractPublisherAction;
 import org.eclipse.osgi.service.environment.Constants;
 import org.eclipse.pde.internal.publishing.Activator;
+import org.eclipse.pde.internal.publishing.Utils;
 
+/**
+ * Describes the files that make up the executables of one configuration.  The files are
+ * relative to the location of the descriptor.
+ * <p>
+ * Branding changes the executables.  To leave the originals alone the descriptor is
+ * either made a {@link #makeTemporaryCopy() temporary copy}, where all files are copied to a
+ * new location, or a {@link #makeVirtualCopy() virtual copy}.  A virtual copy keeps the
+ * location and only records how the files differ from the ones there: which files have
+ * been renamed or added from elsewhere and, for files whose content changes, the copies
+ * holding the new content.  Unchanged files are never copied.
+ * </p>
+ */
 public class ExecutablesDescriptor {
 
 	private File location;
@@ -29,6 +42,10 @@ public class ExecutablesDescriptor {
 	private boolean temporary = false;
 	private final String os;
 	private File iniFile;
+	// for a virtual copy, the file holding the content of each file that is not at the location
+	private Map<File, File> sources;
+	// for a virtual copy, the folder holding the files whose content has changed
+	private File changedLocation;
 
 	public static File findExecutable(String os, File root, String baseName) {
 		// TODO this may need to get more intelligent
@@ -140,6 +157,21 @@ public class ExecutablesDescriptor {
 		this.executableName = descriptor.executableName;
 		this.temporary = descriptor.temporary;
 		this.files = new HashSet<File>(descriptor.files);
+		this.iniFile = descriptor.iniFile;
+		if (descriptor.sources == null)
+			return;
+		// the changed files belong to the given descriptor, which may delete them, so take
+		// copies of our own.  Files changed from here on are copied again anyway.
+		this.sources = new HashMap<File, File>(descriptor.sources);
+		if (descriptor.changedLocation == null)
+			return;
+		try {
+			for (Map.Entry<File, File> entry : sources.entrySet())
+				if (descriptor.isChanged(entry.getValue()))
+					entry.setValue(copyToChangedLocation(entry.getKey(), entry.getValue()));
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Error copying changed executables", e)); //$NON-NLS-1$
+		}
 	}
 
 	public void addAllFiles(File file) {
@@ -172,10 +204,20 @@ public class ExecutablesDescriptor {
 	}
 
 	public void removeFile(File file) {
-		files.remove(relativize(file));
+		File relative = relativize(file);
+		files.remove(relative);
+		if (sources != null)
+			sources.remove(relative);
 	}
 
 	public void replace(File oldFile, File newFile) {
+		if (sources != null) {
+			// in a virtual copy the new file still has the content of the old one
+			File source = getSource(oldFile);
+			removeFile(oldFile);
+			addSourceFile(newFile, source);
+			return;
+		}
 		removeFile(oldFile);
 		addFile(newFile);
 	}
@@ -187,6 +229,129 @@ public class ExecutablesDescriptor {
 		return result;
 	}
 
+	/**
+	 * Returns the files that hold the content of the files of this descriptor.  Unless this
+	 * is a virtual copy these are the files themselves.
+	 * @see #createPathComputer()
+	 */
+	public File[] getSourceFiles() {
+		File[] result = files.toArray(new File[files.size()]);
+		for (int i = 0; i < result.length; i++)
+			result[i] = getSource(result[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the file that holds the content of the given file of this descriptor.
+	 * @param file a file of this descriptor, absolute or relative to the location
+	 * @return the file to read
+	 */
+	public File getSource(File file) {
+		File relative = relativize(file);
+		File source = sources == null ? null : sources.get(relative);
+		return source != null ? source : new File(location, relative.getPath());
+	}
+
+	/**
+	 * Returns a path computer that gives the path of each of the {@link #getSourceFiles() source files}
+	 * relative to the location, as it is to be installed.
+	 */
+	public IPathComputer createPathComputer() {
+		final IPathComputer rootComputer = FileUtils.createRootPathComputer(location);
+		if (sources == null || sources.isEmpty())
+			return rootComputer;
+		final Map<File, IPath> paths = new HashMap<File, IPath>(sources.size());
+		for (Map.Entry<File, File> entry : sources.entrySet())
+			paths.put(entry.getValue(), new Path(entry.getKey().getPath()));
+		return new IPathComputer() {
+			public IPath computePath(File source) {
+				IPath path = paths.get(source);
+				return path != null ? path : rootComputer.computePath(source);
+			}
+
+			public void reset() {
+				rootComputer.reset();
+			}
+		};
+	}
+
+	/**
+	 * Renames the given file of this descriptor.  Files of a virtual copy are only renamed in
+	 * the descriptor.
+	 * @param file the file to rename, absolute or relative to the location
+	 * @param newFile the new name, absolute or relative to the location
+	 */
+	public void renameFile(File file, File newFile) {
+		if (sources == null) {
+			File absolute = file.isAbsolute() ? file : new File(location, file.getPath());
+			File newAbsolute = newFile.isAbsolute() ? newFile : new File(location, newFile.getPath());
+			absolute.renameTo(newAbsolute);
+		}
+		replace(file, newFile);
+	}
+
+	/**
+	 * Adds a file with the content of the given source to this descriptor.  The source is
+	 * only copied unless this is a virtual copy.
+	 * @param file the file to add, absolute or relative to the location
+	 * @param source the file with the content
+	 * @throws IOException if the source cannot be copied
+	 */
+	public void addFile(File file, File source) throws IOException {
+		if (sources == null) {
+			Utils.copy(source, file.isAbsolute() ? file : new File(location, file.getPath()));
+			addFile(file);
+			return;
+		}
+		addSourceFile(file, source);
+	}
+
+	private void addSourceFile(File file, File source) {
+		File relative = relativize(file);
+		files.add(relative);
+		if (source.equals(new File(location, relative.getPath())))
+			sources.remove(relative);
+		else
+			sources.put(relative, source);
+	}
+
+	/**
+	 * Returns a file whose content may be changed in place to change the given file of
+	 * this descriptor.  For a virtual copy this is a copy of the file that then takes
+	 * its place, otherwise it is the file itself.
+	 * @param file a file of this descriptor, absolute or relative to the location
+	 * @return the file to change
+	 * @throws IOException if the file cannot be copied
+	 */
+	public File getChangeableFile(File file) throws IOException {
+		if (sources == null)
+			return file.isAbsolute() ? file : new File(location, file.getPath());
+		File relative = relativize(file);
+		File source = getSource(relative);
+		if (isChanged(source))
+			return source;
+		File copy = copyToChangedLocation(relative, source);
+		sources.put(relative, copy);
+		files.add(relative);
+		return copy;
+	}
+
+	// whether the given file is one of the changed files of this virtual copy
+	private boolean isChanged(File source) {
+		return changedLocation != null && source.getPath().startsWith(changedLocation.getPath() + File.separator);
+	}
+
+	private File copyToChangedLocation(File relative, File source) throws IOException {
+		if (changedLocation == null) {
+			changedLocation = File.createTempFile("p2.brandingIron", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			changedLocation.delete();
+		}
+		File copy = new File(changedLocation, relative.getPath());
+		copy.getParentFile().mkdirs();
+		Utils.copy(source, copy);
+		return copy;
+	}
+
 	public String getExecutableName() {
 		return executableName;
 	}
@@ -211,6 +376,10 @@ public class ExecutablesDescriptor {
 		return temporary;
 	}
 
+	public boolean isVirtual() {
+		return sources != null;
+	}
+
 	public void setExecutableName(String value, boolean updateFiles) {
 		if (updateFiles)
 			updateExecutableName(value);
@@ -224,15 +393,47 @@ public class ExecutablesDescriptor {
 		try {
 			tempFile = File.createTempFile("p2.brandingIron", ""); //$NON-NLS-1$ //$NON-NLS-2$
 			tempFile.delete();
-			for (File file : files)
-				FileUtils.copy(location, tempFile, file, true);
+			for (File file : files) {
+				File source = sources == null ? null : sources.get(file);
+				if (source == null)
+					FileUtils.copy(location, tempFile, file, true);
+				else
+					Utils.copy(source, new File(tempFile, file.getPath()));
+			}
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Error publishing artifacts", e)); //$NON-NLS-1$
 		}
+		if (changedLocation != null)
+			FileUtils.deleteAll(changedLocation);
+		changedLocation = null;
+		sources = null;
 		location = tempFile;
 		temporary = true;
 	}
 
+	/**
+	 * Makes this descriptor a virtual copy of the files at its location, if it is not
+	 * a copy already.  From then on changes made through the descriptor are only recorded.
+	 */
+	public void makeVirtualCopy() {
+		if (isTemporary() || isVirtual())
+			return;
+		sources = new HashMap<File, File>();
+	}
+
+	/**
+	 * Deletes the files of a temporary copy, or the changed files of a virtual copy.
+	 * The descriptor must not be used afterwards.
+	 */
+	public void deleteTemporaryFiles() {
+		if (temporary)
+			FileUtils.deleteAll(location);
+		if (changedLocation != null)
+			FileUtils.deleteAll(changedLocation);
+		changedLocation = null;
+		sources = null;
+	}
+
 	/**
 	 * If the executable represented by this descriptor has been branded then a mess
 	 * of files have been renamed.  Here scan the descriptor's file list and update the names
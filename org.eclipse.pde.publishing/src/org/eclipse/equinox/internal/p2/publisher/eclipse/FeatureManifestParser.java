@@ -58,8 +58,11 @@ public class FeatureManifestParser extends DefaultHandler {
 		if (!createParser)
 			return;
 		try {
-			parserFactory.setNamespaceAware(true);
-			this.parser = parserFactory.newSAXParser();
+			// the factory is shared by all parsers and factories are not thread safe
+			synchronized (parserFactory) {
+				parserFactory.setNamespaceAware(true);
+				this.parser = parserFactory.newSAXParser();
+			}
 		} catch (ParserConfigurationException e) {
 			System.out.println(e);
 		} catch (SAXException e) {
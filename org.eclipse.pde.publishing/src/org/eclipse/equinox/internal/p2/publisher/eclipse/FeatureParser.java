@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2009 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,11 +21,10 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.publisher.ZipArchiveReader;
 import org.eclipse.equinox.p2.publisher.eclipse.Feature;
 import org.eclipse.equinox.spi.p2.publisher.LocalizationHelper;
 import org.eclipse.pde.internal.publishing.Activator;
@@ -34,6 +33,10 @@ import org.xml.sax.SAXException;
 /**
  * The publisher feature parser. This class parses a feature either in jar or folder
  * form. Feature localization data (feature.properties) is also processed here.
+ * <p>
+ * A parser must only be used by one thread at a time.  Features can be parsed
+ * concurrently by giving each thread its own parser.
+ * </p>
  */
 public class FeatureParser {
 
@@ -78,14 +81,14 @@ public class FeatureParser {
 					}
 			}
 		} else if (location.getName().endsWith(".jar")) { //$NON-NLS-1$
-			JarFile jar = null;
+			ZipArchiveReader jar = null;
 			try {
-				jar = new JarFile(location);
-				JarEntry entry = jar.getJarEntry("feature.xml"); //$NON-NLS-1$
-				if (entry == null)
+				// only the feature.xml is needed, there is no point in verifying the jar
+				jar = ZipArchiveReader.open(location);
+				InputStream input = jar.getInputStream("feature.xml"); //$NON-NLS-1$
+				if (input == null)
 					return null;
 
-				InputStream input = new BufferedInputStream(jar.getInputStream(entry));
 				feature = parser.parse(input, toURL(location));
 				if (feature != null) {
 					List<String> messageKeys = parser.getMessageKeys();
@@ -96,15 +99,9 @@ public class FeatureParser {
 				logWarning(location, e);
 			} catch (IOException e) {
 				logWarning(location, e);
-			} catch (SecurityException e) {
-				logWarning(location, e);
 			} finally {
-				try {
-					if (jar != null)
-						jar.close();
-				} catch (IOException e) {
-					//
-				}
+				if (jar != null)
+					jar.close();
 			}
 		}
 		return feature;
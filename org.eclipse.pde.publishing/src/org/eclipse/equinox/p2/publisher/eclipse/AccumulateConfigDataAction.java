@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -17,7 +17,9 @@ import org.eclipse.equinox.internal.provisional.frameworkadmin.ConfigData;
 import org.eclipse.equinox.internal.provisional.frameworkadmin.LauncherData;
 import org.eclipse.equinox.p2.publisher.*;
 
-public class AccumulateConfigDataAction extends AbstractPublisherAction {
+public class AccumulateConfigDataAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {};
+	private static final String[] WRITES = {IConfigAdvice.class.getName(), IExecutableAdvice.class.getName()};
 
 	private String configSpec;
 	private DataLoader loader;
@@ -42,4 +44,16 @@ public class AccumulateConfigDataAction extends AbstractPublisherAction {
 			return;
 		publisherInfo.addAdvice(new LaunchingAdvice(launcherData, config));
 	}
+
+	/*
+	 * We only read the configuration and launcher files we are given and turn them into
+	 * advice for the configuration actions.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
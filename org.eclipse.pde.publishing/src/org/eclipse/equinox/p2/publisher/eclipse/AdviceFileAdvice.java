@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2009 IBM Corporation and others.
+ *  Copyright (c) 2008, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,12 +11,11 @@
 package org.eclipse.equinox.p2.publisher.eclipse;
 
 import java.io.*;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.publisher.ZipArchiveReader;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.publisher.AbstractAdvice;
@@ -36,6 +35,55 @@ public class AdviceFileAdvice extends AbstractAdvice implements ITouchpointAdvic
 	 */
 	public static final IPath BUNDLE_ADVICE_FILE = new Path("META-INF/p2.inf"); //$NON-NLS-1$
 
+	private static final String VERSION_SUBSTITUTION = "$version$"; //$NON-NLS-1$
+	private static final String QUALIFIER_SUBSTITUTION = "$qualifier$"; //$NON-NLS-1$
+	private static final int TEMPLATE_CACHE_SIZE = 64;
+
+	/**
+	 * The content of an advice file.  Large builds use the same few advice files for
+	 * many bundles, so the content is cached and, unless the advice depends on the IU
+	 * it is for, parsed only once.
+	 */
+	private static class AdviceTemplate {
+		final Map<String, String> advice;
+		// whether the parsed advice depends on the id or version of the IU
+		final boolean hostDependent;
+		// the parsed advice if it is not host dependent and has been parsed successfully
+		AdviceFileParser parsed;
+
+		AdviceTemplate(Map<String, String> advice) {
+			this.advice = Collections.unmodifiableMap(advice);
+			this.hostDependent = isHostDependent(advice);
+		}
+
+		/*
+		 * The update descriptor defaults to the id and version of the IU and other values may
+		 * refer to its version.  Descriptions of additional IUs are never shared since they are
+		 * not immutable.
+		 */
+		private static boolean isHostDependent(Map<String, String> advice) {
+			for (Map.Entry<String, String> entry : advice.entrySet()) {
+				String key = entry.getKey();
+				if (key.startsWith("update.") || key.startsWith("units.")) //$NON-NLS-1$ //$NON-NLS-2$
+					return true;
+				String value = entry.getValue();
+				if (value.indexOf(VERSION_SUBSTITUTION) != -1 || value.indexOf(QUALIFIER_SUBSTITUTION) != -1)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	// the most recently used advice files keyed by their content, the content is
+	// decoded as ISO-8859-1 so that each byte maps to exactly one char
+	private static final Map<String, AdviceTemplate> templates = new LinkedHashMap<String, AdviceTemplate>(TEMPLATE_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, AdviceTemplate> eldest) {
+			return size() > TEMPLATE_CACHE_SIZE;
+		}
+	};
+
 	private final String id;
 	private final Version version;
 
@@ -69,18 +117,54 @@ public class AdviceFileAdvice extends AbstractAdvice implements ITouchpointAdvic
 		this.id = id;
 		this.version = version;
 
-		Map<String, String> advice = loadAdviceMap(basePath, adviceFilePath);
-		if (advice.isEmpty())
-			return;
+		parse(loadAdvice(basePath, adviceFilePath), basePath, adviceFilePath);
+	}
 
-		AdviceFileParser parser = new AdviceFileParser(id, version, advice);
-		try {
-			parser.parse();
-		} catch (Exception e) {
-			String message = "An error occured while parsing advice file: basePath=" + basePath + ", adviceFilePath=" + adviceFilePath + "."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			IStatus status = new Status(IStatus.ERROR, Activator.ID, message, e);
-			LogHelper.log(status);
+	/**
+	 * Creates advice from the content of an advice file that has already been read.
+	 * The given paths are only used to report problems.
+	 * @param id The symbolic id of the installable unit this advice applies to
+	 * @param version The version of the installable unit this advice applies to
+	 * @param basePath The root location of the the advice file
+	 * @param adviceFilePath The location of the advice file within the base path
+	 * @param adviceStream The content of the advice file or <code>null</code> if
+	 * there is no advice file. The stream is closed by this method.
+	 */
+	public AdviceFileAdvice(String id, Version version, IPath basePath, IPath adviceFilePath, InputStream adviceStream) {
+		Assert.isNotNull(id);
+		Assert.isNotNull(version);
+		this.id = id;
+		this.version = version;
+
+		if (adviceStream != null)
+			parse(loadAdvice(adviceStream, basePath, adviceFilePath), basePath, adviceFilePath);
+	}
+
+	private void parse(AdviceTemplate template, IPath basePath, IPath adviceFilePath) {
+		if (template == null || template.advice.isEmpty())
 			return;
+
+		AdviceFileParser parser = null;
+		if (!template.hostDependent) {
+			synchronized (template) {
+				parser = template.parsed;
+			}
+		}
+		if (parser == null) {
+			parser = new AdviceFileParser(id, version, template.advice);
+			try {
+				parser.parse();
+			} catch (Exception e) {
+				String message = "An error occured while parsing advice file: basePath=" + basePath + ", adviceFilePath=" + adviceFilePath + "."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				IStatus status = new Status(IStatus.ERROR, Activator.ID, message, e);
+				LogHelper.log(status);
+				return;
+			}
+			if (!template.hostDependent) {
+				synchronized (template) {
+					template.parsed = parser;
+				}
+			}
 		}
 		touchpointInstructions = parser.getTouchpointInstructions();
 		providedCapabilities = parser.getProvidedCapabilities();
@@ -97,35 +181,66 @@ public class AdviceFileAdvice extends AbstractAdvice implements ITouchpointAdvic
 	}
 
 	/**
-	 * Loads the advice file and returns it in map form.
+	 * Loads the advice file, returns <code>null</code> if there is none.
 	 */
-	private static Map<String, String> loadAdviceMap(IPath basePath, IPath adviceFilePath) {
+	private static AdviceTemplate loadAdvice(IPath basePath, IPath adviceFilePath) {
 		File location = basePath.toFile();
 		if (location == null || !location.exists())
-			return CollectionUtils.emptyMap();
+			return null;
 
-		ZipFile jar = null;
+		ZipArchiveReader jar = null;
 		InputStream stream = null;
 		try {
 			if (location.isDirectory()) {
 				File adviceFile = new File(location, adviceFilePath.toString());
 				if (!adviceFile.isFile())
-					return CollectionUtils.emptyMap();
+					return null;
 				stream = new BufferedInputStream(new FileInputStream(adviceFile));
 			} else if (location.isFile()) {
-				jar = new ZipFile(location);
-				ZipEntry entry = jar.getEntry(adviceFilePath.toString());
-				if (entry == null)
-					return CollectionUtils.emptyMap();
+				jar = ZipArchiveReader.open(location);
+				stream = jar.getInputStream(adviceFilePath.toString());
+				if (stream == null)
+					return null;
+			}
+			return loadAdvice(stream, basePath, adviceFilePath);
+		} catch (IOException e) {
+			String message = "An error occured while reading advice file: basePath=" + basePath + ", adviceFilePath=" + adviceFilePath + "."; //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+			IStatus status = new Status(IStatus.ERROR, Activator.ID, message, e);
+			LogHelper.log(status);
+			return null;
+		} finally {
+			if (jar != null)
+				jar.close();
+		}
+	}
 
-				stream = new BufferedInputStream(jar.getInputStream(entry));
+	/**
+	 * Reads the given advice file content, returns <code>null</code> if it cannot be read.
+	 * Advice files with the same content share the same template.
+	 */
+	private static AdviceTemplate loadAdvice(InputStream stream, IPath basePath, IPath adviceFilePath) {
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = stream.read(buffer)) != -1)
+				content.write(buffer, 0, read);
+			String key = content.toString("ISO-8859-1"); //$NON-NLS-1$
+			synchronized (templates) {
+				AdviceTemplate template = templates.get(key);
+				if (template != null)
+					return template;
 			}
-			return CollectionUtils.loadProperties(stream);
+			AdviceTemplate template = new AdviceTemplate(CollectionUtils.loadProperties(new ByteArrayInputStream(content.toByteArray())));
+			synchronized (templates) {
+				templates.put(key, template);
+			}
+			return template;
 		} catch (IOException e) {
 			String message = "An error occured while reading advice file: basePath=" + basePath + ", adviceFilePath=" + adviceFilePath + "."; //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
 			IStatus status = new Status(IStatus.ERROR, Activator.ID, message, e);
 			LogHelper.log(status);
-			return CollectionUtils.emptyMap();
+			return null;
 		} finally {
 			if (stream != null)
 				try {
@@ -133,12 +248,6 @@ public class AdviceFileAdvice extends AbstractAdvice implements ITouchpointAdvic
 				} catch (IOException e) {
 					// ignore secondary failure
 				}
-			if (jar != null)
-				try {
-					jar.close();
-				} catch (IOException e) {
-					// ignore secondary failure
-				}
 		}
 	}
 
@@ -147,6 +256,14 @@ public class AdviceFileAdvice extends AbstractAdvice implements ITouchpointAdvic
 		return id.equals(candidateId) && version.equals(candidateVersion);
 	}
 
+	protected String getId() {
+		return id;
+	}
+
+	protected Version getVersion() {
+		return version;
+	}
+
 	/*(non-Javadoc)
 	 * @see org.eclipse.equinox.p2.publisher.eclipse.ITouchpointAdvice#getTouchpointData()
 	 */
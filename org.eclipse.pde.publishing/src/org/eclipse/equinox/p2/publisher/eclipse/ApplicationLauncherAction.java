@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -13,6 +13,7 @@ package org.eclipse.equinox.p2.publisher.eclipse;
 import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.ExecutablesDescriptor;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -60,10 +61,20 @@ public class ApplicationLauncherAction extends AbstractPublisherAction {
 		createAdvice(publisherInfo, results);
 		IPublisherResult innerResult = new PublisherResult();
 		MultiStatus finalStatus = new MultiStatus(ApplicationLauncherAction.class.getName(), 0, "publishing result", null); //$NON-NLS-1$
-		for (IPublisherAction action : actions) {
-			if (monitor.isCanceled())
+		int parallelism = ParallelExecutor.getParallelism(publisherInfo);
+		if (parallelism > 1 && actions.size() > 1) {
+			try {
+				// each configuration is branded on its own files, so all of them can be published at once
+				ParallelExecutor.perform("Executables publisher", parallelism, new ArrayList<IPublisherAction>(actions), publisherInfo, innerResult, finalStatus, monitor); //$NON-NLS-1$
+			} catch (OperationCanceledException e) {
 				return Status.CANCEL_STATUS;
-			finalStatus.merge(action.perform(publisherInfo, innerResult, monitor));
+			}
+		} else {
+			for (IPublisherAction action : actions) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				finalStatus.merge(action.perform(publisherInfo, innerResult, monitor));
+			}
 		}
 		if (!finalStatus.isOK())
 			return finalStatus;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -14,14 +14,13 @@ import java.io.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.frameworkadmin.BundleInfo;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.ServiceHelper;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
-import org.eclipse.equinox.internal.p2.publisher.Messages;
+import org.eclipse.equinox.internal.p2.publisher.*;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.BundleArchiveScan;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.GeneratorBundleInfo;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -32,8 +31,10 @@ import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.publisher.*;
 import org.eclipse.equinox.p2.publisher.actions.*;
 import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.spi.p2.publisher.LocalizationHelper;
 import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 import org.eclipse.osgi.service.pluginconversion.PluginConversionException;
@@ -59,7 +60,7 @@ import org.osgi.service.packageadmin.PackageAdmin;
  * <li>{@link ITouchpointAdvice}</li>
  * </ul>
  */
-public class BundlesAction extends AbstractPublisherAction {
+public class BundlesAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
 
 	// TODO reconsider the references to these specific ids in the action.  The action should be generic
 	protected static final String ORG_ECLIPSE_EQUINOX_SIMPLECONFIGURATOR = "org.eclipse.equinox.simpleconfigurator"; //$NON-NLS-1$
@@ -96,8 +97,15 @@ public class BundlesAction extends AbstractPublisherAction {
 	private static final String FRAGMENT_FILENAME_DESCRIPTOR = "fragment.xml"; //$NON-NLS-1$
 	public static String BUNDLE_SHAPE = "Eclipse-BundleShape"; //$NON-NLS-1$
 
+	private static final String[] READS = {TYPE_ECLIPSE_BUNDLE, IBundleShapeAdvice.class.getName(), ICapabilityAdvice.class.getName(), IPropertyAdvice.class.getName(), ITouchpointAdvice.class.getName(), IUpdateDescriptorAdvice.class.getName(), IAdditionalInstallableUnitAdvice.class.getName()};
+	private static final String[] WRITES = {TYPE_ECLIPSE_BUNDLE};
+
 	private File[] locations;
 	private BundleDescription[] bundles;
+	// the scans of the bundle jars whose descriptions we created, keyed by location
+	private final Map<String, BundleArchiveScan> archiveScans = Collections.synchronizedMap(new HashMap<String, BundleArchiveScan>());
+	// the IUs published for unchanged bundles in earlier runs, null unless asked for
+	private PublishCache publishCache;
 
 	public static IArtifactKey createBundleArtifactKey(String bsn, String version) {
 		return new ArtifactKey(OSGI_BUNDLE_CLASSIFIER, bsn, Version.parseVersion(version));
@@ -134,11 +142,18 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	public static IInstallableUnit createBundleIU(BundleDescription bd, IArtifactKey key, IPublisherInfo info) {
+		return createBundleIU(bd, key, info, null);
+	}
+
+	private static IInstallableUnit createBundleIU(BundleDescription bd, IArtifactKey key, IPublisherInfo info, BundleArchiveScan scan) {
 		@SuppressWarnings("unchecked")
 		Map<String, String> manifest = (Map<String, String>) bd.getUserObject();
 		Map<Locale, Map<String, String>> manifestLocalizations = null;
-		if (manifest != null && bd.getLocation() != null)
-			manifestLocalizations = getManifestLocalizations(manifest, new File(bd.getLocation()));
+		if (manifest != null && bd.getLocation() != null) {
+			PublisherMetrics.Measurement measurement = PublisherMetrics.start(info);
+			manifestLocalizations = getManifestLocalizations(manifest, new File(bd.getLocation()), scan);
+			PublisherMetrics.stop(measurement, BundlesAction.class, PublisherMetrics.PHASE_LOCALIZATION, 0, 0);
+		}
 		InstallableUnitDescription iu = new MetadataFactory.InstallableUnitDescription();
 		iu.setSingleton(bd.isSingleton());
 		iu.setId(bd.getSymbolicName());
@@ -199,7 +214,7 @@ public class BundlesAction extends AbstractPublisherAction {
 				Locale locale = locEntry.getKey();
 				Map<String, String> translatedStrings = locEntry.getValue();
 				for (Entry<String, String> entry : translatedStrings.entrySet()) {
-					iu.setProperty(locale.toString() + '.' + entry.getKey(), entry.getValue());
+					iu.setProperty(LocalizationStore.getPropertyName(locale, entry.getKey()), entry.getValue());
 				}
 				providedCapabilities.add(PublisherHelper.makeTranslationCapability(bd.getSymbolicName(), locale));
 			}
@@ -247,8 +262,8 @@ public class BundlesAction extends AbstractPublisherAction {
 		return updateRange;
 	}
 
-	private IInstallableUnitFragment createHostLocalizationFragment(IInstallableUnit bundleIU, BundleDescription bd, String hostId, String[] hostBundleManifestValues) {
-		Map<Locale, Map<String, String>> hostLocalizations = getHostLocalizations(new File(bd.getLocation()), hostBundleManifestValues);
+	private IInstallableUnitFragment createHostLocalizationFragment(IInstallableUnit bundleIU, BundleDescription bd, String hostId, String[] hostBundleManifestValues, BundleArchiveScan scan) {
+		Map<Locale, Map<String, String>> hostLocalizations = getHostLocalizations(new File(bd.getLocation()), hostBundleManifestValues, scan);
 		if (hostLocalizations == null || hostLocalizations.isEmpty())
 			return null;
 		return createLocalizationFragmentOfHost(bd, hostId, hostBundleManifestValues, hostLocalizations);
@@ -281,7 +296,7 @@ public class BundlesAction extends AbstractPublisherAction {
 			Locale locale = localeEntry.getKey();
 			Map<String, String> translatedStrings = localeEntry.getValue();
 			for (Entry<String, String> entry : translatedStrings.entrySet()) {
-				fragment.setProperty(locale.toString() + '.' + entry.getKey(), entry.getValue());
+				fragment.setProperty(LocalizationStore.getPropertyName(locale, entry.getKey()), entry.getValue());
 			}
 			providedCapabilities.add(PublisherHelper.makeTranslationCapability(hostId, locale));
 		}
@@ -394,13 +409,15 @@ public class BundlesAction extends AbstractPublisherAction {
 	// Return a map from locale to property set for the manifest localizations
 	// from the given bundle directory and given bundle localization path/name
 	// manifest property value.
-	private static Map<Locale, Map<String, String>> getManifestLocalizations(Map<String, String> manifest, File bundleLocation) {
+	private static Map<Locale, Map<String, String>> getManifestLocalizations(Map<String, String> manifest, File bundleLocation, BundleArchiveScan scan) {
 		Map<Locale, Map<String, String>> localizations;
 		Locale defaultLocale = null; // = Locale.ENGLISH; // TODO: get this from GeneratorInfo
 		String[] bundleManifestValues = getManifestCachedValues(manifest);
 		String bundleLocalization = bundleManifestValues[BUNDLE_LOCALIZATION_INDEX]; // Bundle localization is the last one in the list
 
-		if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && //$NON-NLS-1$
+		if (scan != null) {
+			localizations = scan.getPropertyLocalizations(bundleLocalization, bundleManifestValues);
+		} else if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && //$NON-NLS-1$
 				bundleLocation.isFile()) {
 			localizations = LocalizationHelper.getJarPropertyLocalizations(bundleLocation, bundleLocalization, defaultLocale, bundleManifestValues);
 			//localizations = getJarManifestLocalization(bundleLocation, bundleLocalization, defaultLocale, bundleManifestValues);
@@ -446,13 +463,19 @@ public class BundlesAction extends AbstractPublisherAction {
 	// from the given bundle directory and given bundle localization path/name
 	// manifest property value.
 	public static Map<Locale, Map<String, String>> getHostLocalizations(File bundleLocation, String[] hostBundleManifestValues) {
+		return getHostLocalizations(bundleLocation, hostBundleManifestValues, null);
+	}
+
+	private static Map<Locale, Map<String, String>> getHostLocalizations(File bundleLocation, String[] hostBundleManifestValues, BundleArchiveScan scan) {
 		Map<Locale, Map<String, String>> localizations;
 		Locale defaultLocale = null; // = Locale.ENGLISH; // TODO: get this from GeneratorInfo
 		String hostBundleLocalization = hostBundleManifestValues[BUNDLE_LOCALIZATION_INDEX];
 		if (hostBundleLocalization == null)
 			return null;
 
-		if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && //$NON-NLS-1$
+		if (scan != null) {
+			localizations = scan.getPropertyLocalizations(hostBundleLocalization, hostBundleManifestValues);
+		} else if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && //$NON-NLS-1$
 				bundleLocation.isFile()) {
 			localizations = LocalizationHelper.getJarPropertyLocalizations(bundleLocation, hostBundleLocalization, defaultLocale, hostBundleManifestValues);
 			//localizations = getJarManifestLocalization(bundleLocation, hostBundleLocalization, defaultLocale, hostBundleManifestValues);
@@ -477,7 +500,10 @@ public class BundlesAction extends AbstractPublisherAction {
 				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, message));
 				return null;
 			}
-			return converter.convertManifest(bundleLocation, false, null, true, null);
+			// the converter keeps the state of the conversion in progress so only use it on one thread at a time
+			synchronized (converter) {
+				return converter.convertManifest(bundleLocation, false, null, true, null);
+			}
 		} catch (PluginConversionException convertException) {
 			// only log the exception if we had a plugin.xml or fragment.xml and we failed conversion
 			if (bundleLocation.getName().equals(FEATURE_FILENAME_DESCRIPTOR))
@@ -506,14 +532,22 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	public static BundleDescription createBundleDescription(File bundleLocation) {
-		Dictionary<String, String> manifest = loadManifest(bundleLocation);
+		return createBundleDescription(bundleLocation, null);
+	}
+
+	private static BundleDescription createBundleDescription(File bundleLocation, BundleArchiveScan scan) {
+		Dictionary<String, String> manifest = loadManifest(bundleLocation, scan);
 		if (manifest == null)
 			return null;
 		return createBundleDescription(manifest, bundleLocation);
 	}
 
 	public static Dictionary<String, String> loadManifest(File bundleLocation) {
-		Dictionary<String, String> manifest = basicLoadManifest(bundleLocation);
+		return loadManifest(bundleLocation, null);
+	}
+
+	private static Dictionary<String, String> loadManifest(File bundleLocation, BundleArchiveScan scan) {
+		Dictionary<String, String> manifest = basicLoadManifest(bundleLocation, scan);
 		if (manifest == null)
 			return null;
 		// if the bundle itself does not define its shape, infer the shape from the current form
@@ -523,15 +557,18 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	public static Dictionary<String, String> basicLoadManifest(File bundleLocation) {
+		return basicLoadManifest(bundleLocation, null);
+	}
+
+	private static Dictionary<String, String> basicLoadManifest(File bundleLocation, BundleArchiveScan scan) {
 		InputStream manifestStream = null;
-		ZipFile jarFile = null;
+		ZipArchiveReader jarFile = null;
 		try {
-			if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && bundleLocation.isFile()) { //$NON-NLS-1$
-				jarFile = new ZipFile(bundleLocation, ZipFile.OPEN_READ);
-				ZipEntry manifestEntry = jarFile.getEntry(JarFile.MANIFEST_NAME);
-				if (manifestEntry != null) {
-					manifestStream = jarFile.getInputStream(manifestEntry);
-				}
+			if (scan != null) {
+				manifestStream = scan.getInputStream(JarFile.MANIFEST_NAME);
+			} else if ("jar".equalsIgnoreCase(new Path(bundleLocation.getName()).getFileExtension()) && bundleLocation.isFile()) { //$NON-NLS-1$
+				jarFile = ZipArchiveReader.open(bundleLocation);
+				manifestStream = jarFile.getInputStream(JarFile.MANIFEST_NAME);
 			} else {
 				File manifestFile = new File(bundleLocation, JarFile.MANIFEST_NAME);
 				if (manifestFile.exists())
@@ -562,12 +599,8 @@ public class BundlesAction extends AbstractPublisherAction {
 				manifest = convertPluginManifest(bundleLocation, true);
 			}
 		} finally {
-			try {
-				if (jarFile != null)
-					jarFile.close();
-			} catch (IOException e2) {
-				//Ignore
-			}
+			if (jarFile != null)
+				jarFile.close();
 		}
 
 		if (manifest == null)
@@ -594,18 +627,105 @@ public class BundlesAction extends AbstractPublisherAction {
 			throw new IllegalStateException(Messages.exception_noBundlesOrLocations);
 
 		setPublisherInfo(publisherInfo);
+		publishCache = PublishCache.load(publisherInfo);
 
 		try {
 			if (bundles == null)
-				bundles = getBundleDescriptions(expandLocations(locations), monitor);
+				bundles = getBundleDescriptions(replayCachedBundles(expandLocations(locations), publisherInfo, results), monitor);
 			generateBundleIUs(bundles, publisherInfo, results, monitor);
 			bundles = null;
 		} catch (OperationCanceledException e) {
 			return Status.CANCEL_STATUS;
+		} finally {
+			if (publishCache != null) {
+				publishCache.save();
+				publishCache = null;
+			}
 		}
 		return Status.OK_STATUS;
 	}
 
+	/*
+	 * Adds the IUs of the bundles that have not changed since they were last published to
+	 * the result and returns the locations of the bundles that still need to be published.
+	 */
+	private File[] replayCachedBundles(File[] bundleLocations, IPublisherInfo publisherInfo, IPublisherResult results) {
+		if (publishCache == null)
+			return bundleLocations;
+		ArrayList<File> result = new ArrayList<File>(bundleLocations.length);
+		for (int i = 0; i < bundleLocations.length; i++) {
+			PublishCache.Entry entry = publishCache.get(bundleLocations[i]);
+			if (entry == null || !replayCachedBundle(entry, publisherInfo, results))
+				result.add(bundleLocations[i]);
+		}
+		return result.toArray(new File[result.size()]);
+	}
+
+	private boolean replayCachedBundle(PublishCache.Entry entry, IPublisherInfo publisherInfo, IPublisherResult results) {
+		// the bundle IU is always the first one
+		String id = entry.getId(0);
+		Version version = entry.getVersion(0);
+		if (!isCacheable(id, version, publisherInfo))
+			return false;
+		String shape = getShapeAdvice(id, version, publisherInfo);
+		if (shape == null ? entry.getTag() != null : !shape.equals(entry.getTag()))
+			return false;
+
+		// the IUs and the artifact must still be in the repositories
+		IMetadataRepository metadataRepository = publisherInfo.getMetadataRepository();
+		if (metadataRepository == null)
+			return false;
+		IInstallableUnit[] ius = new IInstallableUnit[entry.size()];
+		for (int i = 0; i < ius.length; i++) {
+			IQueryResult<IInstallableUnit> found = metadataRepository.query(QueryUtil.createIUQuery(entry.getId(i), entry.getVersion(i)), null);
+			if (found.isEmpty())
+				return false;
+			ius[i] = found.iterator().next();
+		}
+		IArtifactRepository artifactRepository = publisherInfo.getArtifactRepository();
+		if (artifactRepository != null && (publisherInfo.getArtifactOptions() & (IPublisherInfo.A_INDEX | IPublisherInfo.A_PUBLISH)) != 0) {
+			for (IArtifactKey key : ius[0].getArtifacts())
+				if (!artifactRepository.contains(key))
+					return false;
+		}
+
+		for (int i = 0; i < ius.length; i++)
+			results.addIU(ius[i], entry.getType(i));
+		return true;
+	}
+
+	/*
+	 * The IUs of a bundle can be reused as long as the bundle does not change and none of
+	 * the advice we consult on bundle IUs applies to it.  Bundle shape advice is recorded in
+	 * the cache.
+	 */
+	private static boolean isCacheable(String id, Version version, IPublisherInfo publisherInfo) {
+		Collection<IPublisherAdvice> advice = publisherInfo.getAdvice(null, true, id, version, IPublisherAdvice.class);
+		for (IPublisherAdvice next : advice)
+			if (next instanceof ICapabilityAdvice || next instanceof IPropertyAdvice || next instanceof ITouchpointAdvice || next instanceof IUpdateDescriptorAdvice || next instanceof IAdditionalInstallableUnitAdvice)
+				return false;
+		return true;
+	}
+
+	private static String getShapeAdvice(String id, Version version, IPublisherInfo publisherInfo) {
+		Collection<IBundleShapeAdvice> advice = publisherInfo.getAdvice(null, true, id, version, IBundleShapeAdvice.class);
+		return advice.isEmpty() ? null : advice.iterator().next().getShape();
+	}
+
+	/*
+	 * Bundle IUs are looked up in the result to avoid duplicates and to find the hosts of
+	 * fragments.  Feature actions may advise us on the shape of the bundles, and any action
+	 * may add advice on the IUs of bundles.  The p2.inf advice we add only applies to the
+	 * bundles we publish.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
+
 	protected void publishArtifact(IArtifactDescriptor descriptor, File base, File[] inclusions, IPublisherInfo publisherInfo) {
 		IArtifactRepository destination = publisherInfo.getArtifactRepository();
 		if (descriptor == null || destination == null)
@@ -671,75 +791,144 @@ public class BundlesAction extends AbstractPublisherAction {
 	}
 
 	protected void generateBundleIUs(BundleDescription[] bundleDescriptions, IPublisherInfo info, IPublisherResult result, IProgressMonitor monitor) {
+		int parallelism = ParallelExecutor.getParallelism(info);
+		if (parallelism > 1 && bundleDescriptions.length > 1) {
+			generateBundleIUsConcurrently(bundleDescriptions, info, result, parallelism, monitor);
+			return;
+		}
 
 		// This assumes that hosts are processed before fragments because for each fragment the host
 		// is queried for the strings that should be translated.
 		for (int i = 0; i < bundleDescriptions.length; i++) {
 			if (monitor.isCanceled())
 				throw new OperationCanceledException();
+			generateBundleIU(bundleDescriptions[i], info, result);
+		}
+	}
 
-			BundleDescription bd = bundleDescriptions[i];
-			if (bd != null && bd.getSymbolicName() != null && bd.getVersion() != null) {
-				//First check to see if there is already an IU around for this
-				IInstallableUnit bundleIU = queryForIU(result, bundleDescriptions[i].getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
-				IArtifactKey key = createBundleArtifactKey(bd.getSymbolicName(), bd.getVersion().toString());
-				if (bundleIU == null) {
-					createAdviceFileAdvice(bundleDescriptions[i], info);
-					// Create the bundle IU according to any shape advice we have
-					bundleIU = createBundleIU(bd, key, info);
+	/*
+	 * Publishes the given bundles using up to the given number of threads.  To keep the outcome
+	 * the same as publishing them in order, a bundle waits for any earlier bundle with the same
+	 * symbolic name and a fragment waits for any earlier bundle with the symbolic name of its host.
+	 */
+	private void generateBundleIUsConcurrently(BundleDescription[] bundleDescriptions, final IPublisherInfo publisherInfo, IPublisherResult result, int parallelism, IProgressMonitor monitor) {
+		final ConcurrentPublisherResult sharedResult = ConcurrentPublisherResult.share(result);
+		ParallelExecutor executor = new ParallelExecutor("Bundle publisher", parallelism); //$NON-NLS-1$
+		Map<String, ParallelExecutor.Task> lastTasks = new HashMap<String, ParallelExecutor.Task>();
+		for (int i = 0; i < bundleDescriptions.length; i++) {
+			final BundleDescription bd = bundleDescriptions[i];
+			if (bd == null || bd.getSymbolicName() == null || bd.getVersion() == null)
+				continue;
+			ParallelExecutor.Task task = executor.add(new ParallelExecutor.Task() {
+				protected IStatus run(IProgressMonitor taskMonitor) {
+					generateBundleIU(bd, publisherInfo, sharedResult);
+					return Status.OK_STATUS;
 				}
+			});
+			task.dependsOn(lastTasks.get(bd.getSymbolicName()));
+			if (isFragment(bd))
+				task.dependsOn(lastTasks.get(bd.getHost().getName()));
+			lastTasks.put(bd.getSymbolicName(), task);
+		}
+		try {
+			executor.execute(monitor);
+		} finally {
+			sharedResult.mergeBack(result);
+		}
+	}
 
-				File location = new File(bd.getLocation());
-				IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(info, key, location);
-				processArtifactPropertiesAdvice(bundleIU, ad, info);
+	private void generateBundleIU(BundleDescription bd, IPublisherInfo publisherInfo, IPublisherResult result) {
+		if (bd == null || bd.getSymbolicName() == null || bd.getVersion() == null)
+			return;
 
-				// Publish according to the shape on disk
-				File bundleLocation = new File(bd.getLocation());
-				if (bundleLocation.isDirectory())
-					publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), info);
-				else
-					publishArtifact(ad, bundleLocation, info);
-
-				IInstallableUnit fragment = null;
-				if (isFragment(bd)) {
-					// TODO: Need a test case for multiple hosts
-					String hostId = bd.getHost().getName();
-					VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
-					IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
-
-					for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
-						IInstallableUnit host = itor.next();
-						String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
-						fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
-						if (fragment == null) {
-							String[] externalizedStrings = getExternalizedStrings(host);
-							fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings);
-						}
-					}
+		// Bundle jars are only read once, everything but the artifact copy is served from the scan
+		BundleArchiveScan scan = archiveScans.remove(bd.getLocation());
+		if (scan == null && bd.getLocation() != null)
+			scan = scanArchive(new File(bd.getLocation()), publisherInfo);
+		// decide before our own p2.inf advice is added.  The host localization IU of a fragment
+		// depends on the host found in the result, which the cache cannot tell has changed.
+		boolean cacheable = publishCache != null && !isFragment(bd) && isCacheable(bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()), publisherInfo);
+
+		//First check to see if there is already an IU around for this
+		IInstallableUnit bundleIU = queryForIU(result, bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()));
+		IArtifactKey key = createBundleArtifactKey(bd.getSymbolicName(), bd.getVersion().toString());
+		if (bundleIU == null) {
+			PublisherMetrics.Measurement measurement = PublisherMetrics.start(publisherInfo);
+			createAdviceFileAdvice(bd, publisherInfo, scan);
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_ADVICE, 0, 0);
+			// Create the bundle IU according to any shape advice we have
+			bundleIU = createBundleIU(bd, key, publisherInfo, scan);
+		}
+
+		File location = new File(bd.getLocation());
+		IArtifactDescriptor ad = PublisherHelper.createArtifactDescriptor(publisherInfo, key, location, scan == null ? null : scan.getChecksums());
+		processArtifactPropertiesAdvice(bundleIU, ad, publisherInfo);
 
+		// Publish according to the shape on disk
+		File bundleLocation = new File(bd.getLocation());
+		if (bundleLocation.isDirectory())
+			publishArtifact(ad, bundleLocation, bundleLocation.listFiles(), publisherInfo);
+		else
+			publishArtifact(ad, bundleLocation, publisherInfo);
+
+		IInstallableUnit fragment = null;
+		if (isFragment(bd)) {
+			// TODO: Need a test case for multiple hosts
+			String hostId = bd.getHost().getName();
+			VersionRange hostVersionRange = PublisherHelper.fromOSGiVersionRange(bd.getHost().getVersionRange());
+			IQueryResult<IInstallableUnit> hosts = queryForIUs(result, hostId, hostVersionRange);
+
+			for (Iterator<IInstallableUnit> itor = hosts.iterator(); itor.hasNext();) {
+				IInstallableUnit host = itor.next();
+				String fragmentId = makeHostLocalizationFragmentId(bd.getSymbolicName());
+				fragment = queryForIU(result, fragmentId, PublisherHelper.fromOSGiVersion(bd.getVersion()));
+				if (fragment == null) {
+					String[] externalizedStrings = getExternalizedStrings(host);
+					fragment = createHostLocalizationFragment(bundleIU, bd, hostId, externalizedStrings, scan);
 				}
+			}
 
-				result.addIU(bundleIU, IPublisherResult.ROOT);
-				if (fragment != null)
-					result.addIU(fragment, IPublisherResult.NON_ROOT);
+		}
 
-				InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, info);
-				for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
-					result.addIU(MetadataFactory.createInstallableUnit(others[iuIndex]), IPublisherResult.ROOT);
-				}
+		result.addIU(bundleIU, IPublisherResult.ROOT);
+		if (fragment != null)
+			result.addIU(fragment, IPublisherResult.NON_ROOT);
+
+		InstallableUnitDescription[] others = processAdditionalInstallableUnitsAdvice(bundleIU, publisherInfo);
+		List<IInstallableUnit> otherIUs = new ArrayList<IInstallableUnit>();
+		for (int iuIndex = 0; others != null && iuIndex < others.length; iuIndex++) {
+			IInstallableUnit other = MetadataFactory.createInstallableUnit(others[iuIndex]);
+			result.addIU(other, IPublisherResult.ROOT);
+			otherIUs.add(other);
+		}
+
+		if (cacheable) {
+			List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>();
+			List<String> types = new ArrayList<String>();
+			ius.add(bundleIU);
+			types.add(IPublisherResult.ROOT);
+			for (IInstallableUnit other : otherIUs) {
+				ius.add(other);
+				types.add(IPublisherResult.ROOT);
 			}
+			String shape = getShapeAdvice(bd.getSymbolicName(), PublisherHelper.fromOSGiVersion(bd.getVersion()), publisherInfo);
+			publishCache.put(bundleLocation, shape, ius.toArray(new IInstallableUnit[ius.size()]), types.toArray(new String[types.size()]));
 		}
 	}
 
 	/**
 	 * Adds advice for any p2.inf file found in this bundle.
 	 */
-	private void createAdviceFileAdvice(BundleDescription bundleDescription, IPublisherInfo publisherInfo) {
+	private void createAdviceFileAdvice(BundleDescription bundleDescription, IPublisherInfo publisherInfo, BundleArchiveScan scan) {
 		String location = bundleDescription.getLocation();
 		if (location == null)
 			return;
 
-		AdviceFileAdvice advice = new AdviceFileAdvice(bundleDescription.getSymbolicName(), PublisherHelper.fromOSGiVersion(bundleDescription.getVersion()), new Path(location), AdviceFileAdvice.BUNDLE_ADVICE_FILE);
+		AdviceFileAdvice advice;
+		if (scan != null)
+			advice = new AdviceFileAdvice(bundleDescription.getSymbolicName(), PublisherHelper.fromOSGiVersion(bundleDescription.getVersion()), new Path(location), AdviceFileAdvice.BUNDLE_ADVICE_FILE, scan.getInputStream(BundleArchiveScan.ADVICE_FILE));
+		else
+			advice = new AdviceFileAdvice(bundleDescription.getSymbolicName(), PublisherHelper.fromOSGiVersion(bundleDescription.getVersion()), new Path(location), AdviceFileAdvice.BUNDLE_ADVICE_FILE);
 		if (advice.containsAdvice())
 			publisherInfo.addAdvice(advice);
 
@@ -783,10 +972,15 @@ public class BundlesAction extends AbstractPublisherAction {
 		if (scIn)
 			addSimpleConfigurator = false;
 		BundleDescription[] result = new BundleDescription[bundleLocations.length + (addSimpleConfigurator ? 1 : 0)];
-		for (int i = 0; i < bundleLocations.length; i++) {
-			if (monitor.isCanceled())
-				throw new OperationCanceledException();
-			result[i] = createBundleDescription(bundleLocations[i]);
+		int parallelism = ParallelExecutor.getParallelism(info);
+		if (parallelism > 1 && bundleLocations.length > 1)
+			createBundleDescriptionsConcurrently(bundleLocations, result, parallelism, monitor);
+		else {
+			for (int i = 0; i < bundleLocations.length; i++) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				result[i] = loadBundleDescription(bundleLocations[i]);
+			}
 		}
 		if (addSimpleConfigurator) {
 			// Add simple configurator to the list of bundles
@@ -805,6 +999,59 @@ public class BundlesAction extends AbstractPublisherAction {
 		return result;
 	}
 
+	/*
+	 * Creates the description of the bundle at the given location.  Bundle jars are scanned once
+	 * and the scan is kept so that the rest of the publishing does not need to open the jar again.
+	 */
+	private BundleDescription loadBundleDescription(File location) {
+		BundleArchiveScan scan = scanArchive(location, info);
+		PublisherMetrics.Measurement measurement = PublisherMetrics.start(info);
+		BundleDescription result = createBundleDescription(location, scan);
+		PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_MANIFEST, 0, 0);
+		if (result != null && scan != null) {
+			// the localization a fragment provides for its host is only known once the host IU is
+			if (!isFragment(result) && result.getUserObject() instanceof Map) {
+				@SuppressWarnings("unchecked")
+				Map<String, String> manifest = (Map<String, String>) result.getUserObject();
+				scan.retainLocalizations(new String[] {getManifestCachedValues(manifest)[BUNDLE_LOCALIZATION_INDEX]});
+			}
+			archiveScans.put(result.getLocation(), scan);
+		}
+		return result;
+	}
+
+	/*
+	 * Scans the given bundle jar, the scan reads the whole jar to compute the checksums its
+	 * artifact descriptor gets.
+	 */
+	private BundleArchiveScan scanArchive(File location, IPublisherInfo publisherInfo) {
+		PublisherMetrics.Measurement measurement = PublisherMetrics.start(publisherInfo);
+		boolean md5 = (publisherInfo.getArtifactOptions() & IPublisherInfo.A_NO_MD5) == 0;
+		BundleArchiveScan result = BundleArchiveScan.scan(location, ArtifactChecksums.getAlgorithms(publisherInfo, md5));
+		if (result != null)
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_DIGEST, location.length(), 0);
+		return result;
+	}
+
+	/*
+	 * Loads the descriptions of the bundles at the given locations using up to the given number
+	 * of threads.  The description for each location is stored at the same index in the result.
+	 */
+	private void createBundleDescriptionsConcurrently(File[] bundleLocations, final BundleDescription[] result, int parallelism, IProgressMonitor monitor) {
+		ParallelExecutor executor = new ParallelExecutor("Bundle manifest loader", parallelism); //$NON-NLS-1$
+		for (int i = 0; i < bundleLocations.length; i++) {
+			final int index = i;
+			final File location = bundleLocations[i];
+			executor.add(new ParallelExecutor.Task() {
+				protected IStatus run(IProgressMonitor taskMonitor) {
+					result[index] = loadBundleDescription(location);
+					return Status.OK_STATUS;
+				}
+			});
+		}
+		executor.execute(monitor);
+	}
+
 	// This method is based on core.runtime's InternalPlatform.getBundle(...) with a difference just in how we get PackageAdmin
 	private static Bundle getBundle(String symbolicName) {
 		PackageAdmin packageAdmin = ServiceHelper.getService(Activator.getContext(), PackageAdmin.class);
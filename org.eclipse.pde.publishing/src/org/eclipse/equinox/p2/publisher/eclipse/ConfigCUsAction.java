@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -16,6 +16,7 @@ import java.util.Map.Entry;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.frameworkadmin.BundleInfo;
 import org.eclipse.equinox.internal.p2.metadata.TouchpointInstruction;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.GeneratorBundleInfo;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
@@ -31,7 +32,9 @@ import org.osgi.framework.Constants;
  * This adds config-specific CUs to capture start levels etc found in the config.ini
  * etc for is os, ws, arch combination seen so far.
  */
-public class ConfigCUsAction extends AbstractPublisherAction {
+public class ConfigCUsAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {BundlesAction.TYPE_ECLIPSE_BUNDLE, IConfigAdvice.class.getName(), IExecutableAdvice.class.getName()};
+	private static final String[] WRITES = {"configuration"}; //$NON-NLS-1$
 
 	protected static final String ORG_ECLIPSE_UPDATE_CONFIGURATOR = "org.eclipse.update.configurator"; //$NON-NLS-1$
 	protected static final String DEFAULT_START_LEVEL = "osgi.bundles.defaultStartLevel"; //$NON-NLS-1$
@@ -92,16 +95,19 @@ public class ConfigCUsAction extends AbstractPublisherAction {
 		// we have N platforms, generate a CU for each
 		// TODO try and find common properties across platforms
 		String[] configSpecs = publisherInfo.getConfigurations();
-		for (int i = 0; i < configSpecs.length; i++) {
-			if (monitor.isCanceled())
+		int parallelism = ParallelExecutor.getParallelism(publisherInfo);
+		if (parallelism > 1 && configSpecs.length > 1) {
+			try {
+				publishConfigurationsConcurrently(publisherInfo, configSpecs, results, innerResult, parallelism, monitor);
+			} catch (OperationCanceledException e) {
 				return Status.CANCEL_STATUS;
-			String configSpec = configSpecs[i];
-			Collection<IConfigAdvice> configAdvice = publisherInfo.getAdvice(configSpec, false, id, version, IConfigAdvice.class);
-			BundleInfo[] bundles = fillInBundles(configAdvice, results);
-			publishBundleCUs(publisherInfo, bundles, configSpec, innerResult);
-			publishConfigIUs(configAdvice, innerResult, configSpec);
-			Collection<IExecutableAdvice> launchingAdvice = publisherInfo.getAdvice(configSpec, false, id, version, IExecutableAdvice.class);
-			publishIniIUs(launchingAdvice, innerResult, configSpec);
+			}
+		} else {
+			for (int i = 0; i < configSpecs.length; i++) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				publishConfiguration(publisherInfo, configSpecs[i], results, innerResult);
+			}
 		}
 		// merge the IUs  into the final result as non-roots and create a parent IU that captures them all
 		results.merge(innerResult, IPublisherResult.MERGE_ALL_NON_ROOT);
@@ -109,6 +115,31 @@ public class ConfigCUsAction extends AbstractPublisherAction {
 		return Status.OK_STATUS;
 	}
 
+	private void publishConfigurationsConcurrently(final IPublisherInfo publisherInfo, String[] configSpecs, final IPublisherResult results, IPublisherResult innerResult, int parallelism, IProgressMonitor monitor) {
+		List<IPublisherResult> configResults = ParallelExecutor.map("Configuration publisher", parallelism, Arrays.asList(configSpecs), new ParallelExecutor.Function<String, IPublisherResult>() { //$NON-NLS-1$
+			public IPublisherResult apply(int index, String configSpec, IProgressMonitor taskMonitor) {
+				IPublisherResult configResult = new PublisherResult();
+				publishConfiguration(publisherInfo, configSpec, results, configResult);
+				return configResult;
+			}
+		}, monitor);
+		for (IPublisherResult configResult : configResults)
+			innerResult.merge(configResult, IPublisherResult.MERGE_MATCHING);
+	}
+
+	/*
+	 * Publishes the CUs of the given configuration into the given result.  May be called for
+	 * several configurations at once.
+	 */
+	private void publishConfiguration(IPublisherInfo publisherInfo, String configSpec, IPublisherResult results, IPublisherResult configResult) {
+		Collection<IConfigAdvice> configAdvice = publisherInfo.getAdvice(configSpec, false, id, version, IConfigAdvice.class);
+		BundleInfo[] bundles = fillInBundles(configAdvice, results);
+		publishBundleCUs(publisherInfo, bundles, configSpec, configResult);
+		publishConfigIUs(configAdvice, configResult, configSpec);
+		Collection<IExecutableAdvice> launchingAdvice = publisherInfo.getAdvice(configSpec, false, id, version, IExecutableAdvice.class);
+		publishIniIUs(launchingAdvice, configResult, configSpec);
+	}
+
 	private void publishTopLevelConfigurationIU(Collection<? extends IVersionedId> children, IPublisherResult result) {
 		InstallableUnitDescription descriptor = createParentIU(children, computeIUId(id, flavor), version);
 		descriptor.setSingleton(true);
@@ -138,13 +169,16 @@ public class ConfigCUsAction extends AbstractPublisherAction {
 			for (int i = 0; i < bundles.length; i++) {
 				BundleInfo bundleInfo = bundles[i];
 
+				// advice may apply to several configurations, which may be published at once,
+				// so the start level of this configuration goes into a copy
 				if (bundleInfo.getStartLevel() != BundleInfo.NO_LEVEL && bundleInfo.getStartLevel() == defaultStart) {
+					bundleInfo = new GeneratorBundleInfo(bundleInfo);
 					bundleInfo.setStartLevel(BundleInfo.NO_LEVEL);
 				}
 
 				// prime the result with the current info.  This will be replaced if there is more info...
 				if ((bundleInfo.getSymbolicName() != null && bundleInfo.getVersion() != null) || bundleInfo.getLocation() == null)
-					result.add(bundles[i]);
+					result.add(bundleInfo);
 				else {
 					try {
 						File location = new File(bundleInfo.getLocation());
@@ -363,29 +397,30 @@ public class ConfigCUsAction extends AbstractPublisherAction {
 
 	protected GeneratorBundleInfo createGeneratorBundleInfo(BundleInfo bundleInfo, IPublisherResult result) {
 		String name = bundleInfo.getSymbolicName();
+		// the bundle info may come from advice shared by configurations that are published at once, only change the copy
+		GeneratorBundleInfo newInfo = new GeneratorBundleInfo(bundleInfo);
 
 		//query for a matching IU
 		IInstallableUnit iu = queryForIU(outerResults, name, Version.create(bundleInfo.getVersion()));
 		if (iu != null) {
 			if (iu.getVersion() == null)
-				bundleInfo.setVersion("0.0.0"); //$NON-NLS-1$
+				newInfo.setVersion("0.0.0"); //$NON-NLS-1$
 			else
-				bundleInfo.setVersion(iu.getVersion().toString());
-			GeneratorBundleInfo newInfo = new GeneratorBundleInfo(bundleInfo);
+				newInfo.setVersion(iu.getVersion().toString());
 			newInfo.setIU(iu);
 			return newInfo;
 		}
 
 		if (bundleInfo.getLocation() != null || bundleInfo.getVersion() != null)
-			return new GeneratorBundleInfo(bundleInfo);
+			return newInfo;
 		//harder: try id_version
 		int i = name.indexOf('_');
 		while (i > -1) {
 			try {
 				Version bundleVersion = Version.parseVersion(name.substring(i));
-				bundleInfo.setSymbolicName(name.substring(0, i));
-				bundleInfo.setVersion(bundleVersion.toString());
-				return new GeneratorBundleInfo(bundleInfo);
+				newInfo.setSymbolicName(name.substring(0, i));
+				newInfo.setVersion(bundleVersion.toString());
+				return newInfo;
 			} catch (IllegalArgumentException e) {
 				// the '_' found was probably part of the symbolic id
 				i = name.indexOf('_', i);
@@ -395,4 +430,14 @@ public class ConfigCUsAction extends AbstractPublisherAction {
 		return null;
 	}
 
+	/*
+	 * The configured bundles are looked up in the result to find their IUs.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
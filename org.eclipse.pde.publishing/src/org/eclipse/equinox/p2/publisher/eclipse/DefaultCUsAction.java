@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -18,7 +18,9 @@ import org.eclipse.equinox.spi.p2.publisher.PublisherHelper;
 /**
  * Publish IUs that install/configure the standard things like bundles, features and source bundles
  */
-public class DefaultCUsAction extends AbstractPublisherAction {
+public class DefaultCUsAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {};
+	private static final String[] WRITES = {"defaultConfiguration"}; //$NON-NLS-1$
 
 	private String flavor;
 	private int startLevel;
@@ -67,4 +69,14 @@ public class DefaultCUsAction extends AbstractPublisherAction {
 		return result;
 	}
 
+	/*
+	 * The default CUs do not depend on anything else being published.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
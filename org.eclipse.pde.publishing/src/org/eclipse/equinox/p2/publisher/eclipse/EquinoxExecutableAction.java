@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -13,7 +13,6 @@ package org.eclipse.equinox.p2.publisher.eclipse;
 import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.*;
-import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.BrandingIron;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.ExecutablesDescriptor;
 import org.eclipse.equinox.p2.metadata.*;
@@ -38,8 +37,10 @@ import org.eclipse.osgi.service.environment.Constants;
  * <li>{@link IBrandingAdvice}</li>
  * </ul>
  */
-public class EquinoxExecutableAction extends AbstractPublisherAction {
+public class EquinoxExecutableAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
 	private static String TYPE = "executable"; //$NON-NLS-1$
+	private static final String[] READS = {IBrandingAdvice.class.getName()};
+	private static final String[] WRITES = {TYPE};
 
 	protected String configSpec;
 	protected String idBase;
@@ -68,8 +69,7 @@ public class EquinoxExecutableAction extends AbstractPublisherAction {
 				publishExecutableCU(brandedExecutables, result);
 			publishExecutableSetter(brandedExecutables, result);
 		} finally {
-			if (brandedExecutables.isTemporary())
-				FileUtils.deleteAll(brandedExecutables.getLocation());
+			brandedExecutables.deleteTemporaryFiles();
 		}
 		return Status.OK_STATUS;
 	}
@@ -127,9 +127,9 @@ public class EquinoxExecutableAction extends AbstractPublisherAction {
 			IArtifactKey key = PublisherHelper.createBinaryArtifactKey(id, version);
 			iu.setArtifacts(new IArtifactKey[] {key});
 			IArtifactDescriptor descriptor = PublisherHelper.createArtifactDescriptor(info, key, null);
-			publishArtifact(descriptor, execDescriptor.getFiles(), null, info, createRootPrefixComputer(execDescriptor.getLocation()));
-			if (execDescriptor.isTemporary())
-				FileUtils.deleteAll(execDescriptor.getLocation());
+			// the branded files are zipped from wherever their content is, under their branded names
+			publishArtifact(descriptor, execDescriptor.getSourceFiles(), null, info, execDescriptor.createPathComputer());
+			execDescriptor.deleteTemporaryFiles();
 		}
 		// setup a requirement between the executable and the launcher fragment that has the shared library
 		if (config.length > 0 && !CONFIG_ANY.equalsIgnoreCase(config[0])) {
@@ -190,15 +190,16 @@ public class EquinoxExecutableAction extends AbstractPublisherAction {
 
 	/**
 	 * Brands a copy of the given executable descriptor with the information in the 
-	 * current product definition.  The files described in the descriptor are also copied
-	 * to a temporary location to avoid destructive modification.
+	 * current product definition.  To avoid destructive modification the new descriptor
+	 * is a virtual copy, only the files whose content changes are copied to a temporary
+	 * location.
 	 * 
 	 * @param descriptor the executable descriptor to brand.
 	 * @return the new descriptor
 	 */
 	protected ExecutablesDescriptor brandExecutables(ExecutablesDescriptor descriptor) {
 		ExecutablesDescriptor result = new ExecutablesDescriptor(descriptor);
-		result.makeTemporaryCopy();
+		result.makeVirtualCopy();
 		IBrandingAdvice advice = getBrandingAdvice();
 		if (advice == null)
 			partialBrandExecutables(result);
@@ -250,12 +251,21 @@ public class EquinoxExecutableAction extends AbstractPublisherAction {
 	private void mungeExecutableFileName(File file, ExecutablesDescriptor descriptor) {
 		if (file.getName().equals("launcher")) { //$NON-NLS-1$
 			File newFile = new File(file.getParentFile(), "eclipse"); //$NON-NLS-1$
-			file.renameTo(newFile);
-			descriptor.replace(file, newFile);
+			descriptor.renameFile(file, newFile);
 		} else if (file.getName().equals("launcher.exe")) { //$NON-NLS-1$
 			File newFile = new File(file.getParentFile(), "eclipse.exe"); //$NON-NLS-1$
-			file.renameTo(newFile);
-			descriptor.replace(file, newFile);
+			descriptor.renameFile(file, newFile);
 		}
 	}
+
+	/*
+	 * The executable IUs are only shaped by the branding advice of their configuration.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
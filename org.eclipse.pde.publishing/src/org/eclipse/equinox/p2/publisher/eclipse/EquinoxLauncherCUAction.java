@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -30,7 +30,9 @@ import org.eclipse.osgi.service.environment.Constants;
  * via IVersionAdvice in the supplied info object.
  * </p>
  */
-public class EquinoxLauncherCUAction extends AbstractPublisherAction {
+public class EquinoxLauncherCUAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
+	private static final String[] READS = {IVersionAdvice.class.getName()};
+	private static final String[] WRITES = {"launcherConfiguration"}; //$NON-NLS-1$
 
 	public static final String ORG_ECLIPSE_EQUINOX_LAUNCHER = "org.eclipse.equinox.launcher"; //$NON-NLS-1$
 
@@ -97,4 +99,16 @@ public class EquinoxLauncherCUAction extends AbstractPublisherAction {
 				results.addIU(cu, IPublisherResult.ROOT);
 		}
 	}
+
+	/*
+	 * The launcher CUs are published for the versions advised to us, not for the
+	 * launcher IUs in the result.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		return WRITES;
+	}
 }
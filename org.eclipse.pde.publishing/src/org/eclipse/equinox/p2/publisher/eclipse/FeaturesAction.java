@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -21,14 +21,17 @@ import org.eclipse.equinox.internal.p2.core.helpers.FileUtils.IPathComputer;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.publisher.FileSetDescriptor;
+import org.eclipse.equinox.internal.p2.publisher.LocalizationStore;
 import org.eclipse.equinox.internal.p2.publisher.Messages;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
+import org.eclipse.equinox.internal.p2.publisher.PublisherMetrics;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.FeatureParser;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitPatchDescription;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.publisher.*;
-import org.eclipse.equinox.p2.publisher.actions.IFeatureRootAdvice;
+import org.eclipse.equinox.p2.publisher.actions.*;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.IRepositoryReference;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
@@ -42,15 +45,21 @@ import org.eclipse.pde.internal.publishing.Activator;
  * Publish IUs for all of the features in the given set of locations.  The locations can
  * be actual locations of the features or folders of features.
  */
-public class FeaturesAction extends AbstractPublisherAction {
+public class FeaturesAction extends AbstractPublisherAction implements IConcurrentPublisherAction {
 	public static final String INSTALL_FEATURES_FILTER = "(org.eclipse.update.install.features=true)"; //$NON-NLS-1$
 	private static final String UPDATE_FEATURE_APPLICATION_PROP = "org.eclipse.update.feature.application"; //$NON-NLS-1$
 	private static final String UPDATE_FEATURE_PLUGIN_PROP = "org.eclipse.update.feature.plugin"; //$NON-NLS-1$
 	private static final String UPDATE_FEATURE_EXCLUSIVE_PROP = "org.eclipse.update.feature.exclusive"; //$NON-NLS-1$
 	private static final String UPDATE_FEATURE_PRIMARY_PROP = "org.eclipse.update.feature.primary"; //$NON-NLS-1$
 
+	private static final String[] READS = {PublisherHelper.TYPE_ECLIPSE_FEATURE, IFeatureRootAdvice.class.getName(), ICapabilityAdvice.class.getName(), IPropertyAdvice.class.getName(), ITouchpointAdvice.class.getName(), IUpdateDescriptorAdvice.class.getName(), IAdditionalInstallableUnitAdvice.class.getName()};
+	private static final String[] WRITES = {PublisherHelper.TYPE_ECLIPSE_FEATURE, IBundleShapeAdvice.class.getName()};
+	private static final String[] FEATURE_WRITES = {PublisherHelper.TYPE_ECLIPSE_FEATURE};
+
 	protected Feature[] features;
 	private File[] locations;
+	// the monitor of the current perform, used when parsing features concurrently
+	private IProgressMonitor monitor;
 
 	public static IArtifactKey createFeatureArtifactKey(String id, String version) {
 		return new ArtifactKey(PublisherHelper.ECLIPSE_FEATURE_CLASSIFIER, id, Version.parseVersion(version));
@@ -119,7 +128,7 @@ public class FeaturesAction extends AbstractPublisherAction {
 				Locale locale = locEntry.getKey();
 				Map<String, String> translatedStrings = locEntry.getValue();
 				for (Entry<String, String> entry : translatedStrings.entrySet()) {
-					iu.setProperty(locale.toString() + '.' + entry.getKey(), entry.getValue());
+					iu.setProperty(LocalizationStore.getPropertyName(locale, entry.getKey()), entry.getValue());
 				}
 				providedCapabilities.add(PublisherHelper.makeTranslationCapability(id, locale));
 			}
@@ -155,6 +164,28 @@ public class FeaturesAction extends AbstractPublisherAction {
 		this.locations = locations;
 	}
 
+	/*
+	 * Feature IUs are looked up in the result to avoid duplicates.  We advise bundle
+	 * actions on the shape of the bundles we unpack, which changes their IUs, so bundle
+	 * actions have to wait for us unless the given features unpack no bundles.  Features
+	 * we have yet to read from their locations may unpack any bundle.
+	 */
+	public String[] getReads() {
+		return READS;
+	}
+
+	public String[] getWrites() {
+		if (features == null)
+			return WRITES;
+		for (int i = 0; i < features.length; i++) {
+			FeatureEntry[] entries = features[i].getEntries();
+			for (int j = 0; j < entries.length; j++)
+				if (isUnpackedBundle(entries[j]))
+					return WRITES;
+		}
+		return FEATURE_WRITES;
+	}
+
 	/**
 	 * Looks for advice in a p2.inf file inside the feature location.
 	 */
@@ -180,11 +211,15 @@ public class FeaturesAction extends AbstractPublisherAction {
 		FeatureEntry entries[] = feature.getEntries();
 		for (int i = 0; i < entries.length; i++) {
 			FeatureEntry entry = entries[i];
-			if (entry.isUnpack() && entry.isPlugin() && !entry.isRequires())
+			if (isUnpackedBundle(entry))
 				publisherInfo.addAdvice(new BundleShapeAdvice(entry.getId(), Version.parseVersion(entry.getVersion()), IBundleShapeAdvice.DIR));
 		}
 	}
 
+	private static boolean isUnpackedBundle(FeatureEntry entry) {
+		return entry.isUnpack() && entry.isPlugin() && !entry.isRequires();
+	}
+
 	protected IInstallableUnit createFeatureRootFileIU(String featureId, String featureVersion, File location, FileSetDescriptor descriptor) {
 		InstallableUnitDescription iu = new MetadataFactory.InstallableUnitDescription();
 		iu.setSingleton(true);
@@ -276,7 +311,7 @@ public class FeaturesAction extends AbstractPublisherAction {
 				Locale locale = locEntry.getKey();
 				Map<String, String> translatedStrings = locEntry.getValue();
 				for (Entry<String, String> e : translatedStrings.entrySet()) {
-					iu.setProperty(locale.toString() + '.' + e.getKey(), e.getValue());
+					iu.setProperty(LocalizationStore.getPropertyName(locale, e.getKey()), e.getValue());
 				}
 				providedCapabilities.add(PublisherHelper.makeTranslationCapability(id, locale));
 			}
@@ -363,7 +398,7 @@ public class FeaturesAction extends AbstractPublisherAction {
 				Locale locale = locEntry.getKey();
 				Map<String, String> translatedStrings = locEntry.getValue();
 				for (Entry<String, String> e : translatedStrings.entrySet()) {
-					iu.setProperty(locale.toString() + '.' + e.getKey(), e.getValue());
+					iu.setProperty(LocalizationStore.getPropertyName(locale, e.getKey()), e.getValue());
 				}
 				providedCapabilities.add(PublisherHelper.makeTranslationCapability(id, locale));
 			}
@@ -513,17 +548,32 @@ public class FeaturesAction extends AbstractPublisherAction {
 	}
 
 	protected Feature[] getFeatures(File[] featureLocations) {
+		List<Feature> parsed = ParallelExecutor.map("Feature parser", ParallelExecutor.getParallelism(info), Arrays.asList(featureLocations), new ParallelExecutor.Function<File, Feature>() { //$NON-NLS-1$
+			public Feature apply(int index, File location, IProgressMonitor taskMonitor) {
+				return parseFeature(location);
+			}
+		}, monitor);
 		ArrayList<Feature> result = new ArrayList<Feature>(featureLocations.length);
-		for (int i = 0; i < featureLocations.length; i++) {
-			Feature feature = new FeatureParser().parse(featureLocations[i]);
-			if (feature != null) {
-				feature.setLocation(featureLocations[i].getAbsolutePath());
+		for (Feature feature : parsed)
+			if (feature != null)
 				result.add(feature);
-			}
-		}
 		return result.toArray(new Feature[result.size()]);
 	}
 
+	/*
+	 * Parses the feature at the given location with a parser of its own, so this can be
+	 * called from several threads at once.
+	 */
+	private Feature parseFeature(File location) {
+		PublisherMetrics.Measurement measurement = PublisherMetrics.start(info);
+		Feature feature = new FeatureParser().parse(location);
+		if (feature != null) {
+			feature.setLocation(location.getAbsolutePath());
+			PublisherMetrics.stop(measurement, this, PublisherMetrics.PHASE_MANIFEST, 0, 0);
+		}
+		return feature;
+	}
+
 	private IMatchExpression<IInstallableUnit> getFilter(FeatureEntry entry) {
 		StringBuffer result = new StringBuffer();
 		result.append("(&"); //$NON-NLS-1$
@@ -598,8 +648,15 @@ public class FeaturesAction extends AbstractPublisherAction {
 		if (features == null && locations == null)
 			throw new IllegalStateException(Messages.exception_noFeaturesOrLocations);
 		this.info = publisherInfo;
-		if (features == null)
-			features = getFeatures(expandLocations(locations));
+		this.monitor = monitor;
+		try {
+			if (features == null)
+				features = getFeatures(expandLocations(locations));
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			this.monitor = null;
+		}
 		generateFeatureIUs(features, results);
 		return Status.OK_STATUS;
 	}
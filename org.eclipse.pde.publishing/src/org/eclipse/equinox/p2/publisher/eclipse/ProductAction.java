@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -14,6 +14,7 @@ import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.p2.metadata.VersionedId;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.IProductDescriptor;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.publisher.*;
@@ -85,10 +86,19 @@ public class ProductAction extends AbstractPublisherAction {
 		publisherResults = results;
 		IPublisherAction[] actions = createActions(results);
 		MultiStatus finalStatus = new MultiStatus(EclipseInstallAction.class.getName(), 0, "publishing result", null); //$NON-NLS-1$
-		for (int i = 0; i < actions.length; i++) {
-			if (monitor.isCanceled())
+		int parallelism = ParallelExecutor.getParallelism(publisherInfo);
+		if (parallelism > 1 && actions.length > 2) {
+			try {
+				performConcurrently(actions, publisherInfo, results, finalStatus, parallelism, monitor);
+			} catch (OperationCanceledException e) {
 				return Status.CANCEL_STATUS;
-			finalStatus.merge(actions[i].perform(publisherInfo, results, monitor));
+			}
+		} else {
+			for (int i = 0; i < actions.length; i++) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				finalStatus.merge(actions[i].perform(publisherInfo, results, monitor));
+			}
 		}
 		if (!finalStatus.isOK())
 			return finalStatus;
@@ -96,6 +106,28 @@ public class ProductAction extends AbstractPublisherAction {
 		return Status.OK_STATUS;
 	}
 
+	/*
+	 * Performs the given actions using up to the given number of threads.  The root IU is made
+	 * of what the other actions publish so root IU actions are only performed once all of the
+	 * other actions are done, in order.
+	 */
+	private void performConcurrently(IPublisherAction[] actions, IPublisherInfo publisherInfo, IPublisherResult results, MultiStatus finalStatus, int parallelism, IProgressMonitor monitor) {
+		List<IPublisherAction> others = new ArrayList<IPublisherAction>(actions.length);
+		List<IPublisherAction> rootActions = new ArrayList<IPublisherAction>(1);
+		for (int i = 0; i < actions.length; i++) {
+			if (actions[i] instanceof RootIUAction)
+				rootActions.add(actions[i]);
+			else
+				others.add(actions[i]);
+		}
+		ParallelExecutor.perform("Product publisher", parallelism, others, publisherInfo, results, finalStatus, monitor); //$NON-NLS-1$
+		for (IPublisherAction action : rootActions) {
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			finalStatus.merge(action.perform(publisherInfo, results, monitor));
+		}
+	}
+
 	private void createAdvice() {
 		executableName = product.getLauncherName();
 		createProductAdvice();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2011 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -23,7 +23,7 @@ import org.eclipse.osgi.util.NLS;
 
 public class ProductPublisherApplication extends AbstractPublisherApplication {
 
-	private String product;
+	private String[] products = new String[0];
 	private String executables;
 	private String flavor;
 
@@ -37,22 +37,31 @@ public class ProductPublisherApplication extends AbstractPublisherApplication {
 		return result.toArray(new IPublisherAction[result.size()]);
 	}
 
+	/*
+	 * Several products are published by one action so that they share the repositories and
+	 * the advice but do not see each other's advice.
+	 */
 	private IPublisherAction createProductAction() {
-		IProductDescriptor productDescriptor = null;
-		try {
-			productDescriptor = new ProductFile(product);
-		} catch (Exception e) {
-			throw new IllegalArgumentException(NLS.bind(Messages.exception_errorLoadingProductFile, product, e.toString()));
+		IProductDescriptor[] productDescriptors = new IProductDescriptor[Math.max(1, products.length)];
+		for (int i = 0; i < productDescriptors.length; i++) {
+			String product = i < products.length ? products[i] : null;
+			try {
+				productDescriptors[i] = new ProductFile(product);
+			} catch (Exception e) {
+				throw new IllegalArgumentException(NLS.bind(Messages.exception_errorLoadingProductFile, product, e.toString()));
+			}
 		}
 		File executablesFeature = executables == null ? null : new File(executables);
-		return new ProductAction(source, productDescriptor, flavor, executablesFeature);
+		if (productDescriptors.length == 1)
+			return new ProductAction(source, productDescriptors[0], flavor, executablesFeature);
+		return new ProductsAction(source, productDescriptors, flavor, executablesFeature);
 	}
 
 	protected void processParameter(String arg, String parameter, PublisherInfo publisherInfo) throws URISyntaxException {
 		super.processParameter(arg, parameter, publisherInfo);
 
 		if (arg.equalsIgnoreCase("-productFile")) //$NON-NLS-1$
-			product = parameter;
+			products = AbstractPublisherAction.getArrayFromString(parameter, ","); //$NON-NLS-1$
 		if (arg.equalsIgnoreCase("-executables")) //$NON-NLS-1$
 			executables = parameter;
 		if (arg.equalsIgnoreCase("-flavor")) //$NON-NLS-1$
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.publisher.eclipse;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.publisher.ConcurrentPublisherResult;
+import org.eclipse.equinox.internal.p2.publisher.InstallableUnitLookup;
+import org.eclipse.equinox.internal.p2.publisher.ParallelExecutor;
+import org.eclipse.equinox.internal.p2.publisher.eclipse.IProductDescriptor;
+import org.eclipse.equinox.p2.publisher.*;
+
+/**
+ * Publishes several products in one go, sharing the repositories, the advice and the
+ * IUs found in them between the products.
+ * <p>
+ * A {@link ProductAction} adds advice for its product to the publisher info, such as the
+ * children of the root IU, and makes the root IU of everything that is a root in the
+ * publisher result.  So that the products do not see each other's advice and IUs, each
+ * product is published with an info of its own that starts out with the advice of the
+ * given info, and into a result of its own that sees the IUs of the given result.  The IUs
+ * added for each product are merged into the given result in the order of the products.
+ * </p><p>
+ * When the publisher info allows more than one thread the products are published
+ * concurrently.
+ * </p>
+ */
+public class ProductsAction extends AbstractPublisherAction {
+	protected String source;
+	protected IProductDescriptor[] products;
+	protected String flavor;
+	protected File executablesFeatureLocation;
+
+	/**
+	 * The publisher info a single product is published with.  Everything, including the lookup
+	 * of IUs, is taken from the info of all products but the advice added for the product is
+	 * only added to this info.
+	 */
+	private static class ProductPublisherInfo extends PublisherInfo {
+		private final PublisherInfo shared;
+
+		ProductPublisherInfo(PublisherInfo shared) {
+			this.shared = shared;
+			setArtifactRepository(shared.getArtifactRepository());
+			setMetadataRepository(shared.getMetadataRepository());
+			setContextArtifactRepository(shared.getContextArtifactRepository());
+			setContextMetadataRepository(shared.getContextMetadataRepository());
+			setArtifactOptions(shared.getArtifactOptions());
+			setConfigurations(shared.getConfigurations());
+			setParallelism(shared.getParallelism());
+			setChecksumAlgorithms(shared.getChecksumAlgorithms());
+			setPublishCacheLocation(shared.getPublishCacheLocation());
+			setMetrics(shared.getMetrics());
+			List<IPublisherAdvice> sharedAdvice = shared.getAdvice();
+			synchronized (sharedAdvice) {
+				getAdvice().addAll(sharedAdvice);
+			}
+		}
+
+		public InstallableUnitLookup getInstallableUnitLookup() {
+			return shared.getInstallableUnitLookup();
+		}
+	}
+
+	public ProductsAction(String source, IProductDescriptor[] products, String flavor, File executablesFeatureLocation) {
+		super();
+		this.source = source;
+		this.products = products;
+		this.flavor = flavor;
+		this.executablesFeatureLocation = executablesFeatureLocation;
+	}
+
+	/**
+	 * Returns the action that publishes the given product.
+	 * @param product the product to publish
+	 * @return the action
+	 */
+	protected IPublisherAction createProductAction(IProductDescriptor product) {
+		return new ProductAction(source, product, flavor, executablesFeatureLocation);
+	}
+
+	public IStatus perform(final IPublisherInfo publisherInfo, IPublisherResult results, IProgressMonitor monitor) {
+		monitor = SubMonitor.convert(monitor);
+		this.info = publisherInfo;
+		// every product sees the same IUs so the given result is only read until all are done
+		final List<ConcurrentPublisherResult> productResults = new ArrayList<ConcurrentPublisherResult>(products.length);
+		for (int i = 0; i < products.length; i++)
+			productResults.add(ConcurrentPublisherResult.overlay(results));
+		List<IStatus> statuses;
+		try {
+			statuses = ParallelExecutor.map("Products publisher", ParallelExecutor.getParallelism(publisherInfo), Arrays.asList(products), new ParallelExecutor.Function<IProductDescriptor, IStatus>() { //$NON-NLS-1$
+				public IStatus apply(int index, IProductDescriptor product, IProgressMonitor taskMonitor) {
+					return publish(product, publisherInfo, productResults.get(index), taskMonitor);
+				}
+			}, monitor);
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		}
+
+		MultiStatus finalStatus = new MultiStatus(ProductsAction.class.getName(), 0, "publishing result", null); //$NON-NLS-1$
+		for (int i = 0; i < products.length; i++) {
+			if (statuses.get(i) != null)
+				finalStatus.merge(statuses.get(i));
+			productResults.get(i).mergeBack(results);
+		}
+		if (!finalStatus.isOK())
+			return finalStatus;
+		return Status.OK_STATUS;
+	}
+
+	/*
+	 * Publishes the given product with an info of its own into the given product result.
+	 */
+	private IStatus publish(IProductDescriptor product, IPublisherInfo publisherInfo, IPublisherResult productResult, IProgressMonitor monitor) {
+		// other infos cannot be copied, their advice is shared by all products
+		IPublisherInfo productInfo = publisherInfo instanceof PublisherInfo ? new ProductPublisherInfo((PublisherInfo) publisherInfo) : publisherInfo;
+		return createProductAction(product).perform(productInfo, productResult, monitor);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * Copyright (c) 2000, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,6 +11,9 @@
 package org.eclipse.pde.internal.swt.tools;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -57,13 +60,49 @@ public class IconExe {
 			System.err.println("Usage: IconExe <windows executable> <ico file>"); //$NON-NLS-1$
 			return;
 		}
+		String[] iconFiles = new String[args.length - 1];
+		System.arraycopy(args, 1, iconFiles, 0, iconFiles.length);
+		int nMissing = replaceIcons(new String[] {args[0]}, iconFiles)[0];
+		if (nMissing != 0)
+			System.err.println("Error - " + nMissing + " icon(s) not replaced in " + args[0] + " using " + args[1]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Replace the Desktop icons provided in each of the given Windows executable programs
+	 * with the matching icons provided by the user, as {@link #main(String[])} does for one
+	 * program.
+	 * 
+	 * The icon files are read, and each icon is converted to the format of the executable,
+	 * only once for all the programs. The resource section of each program is read at once
+	 * to find the icons to replace, without decoding them, and each matching icon is then
+	 * written in place.
+	 * 
+	 * Note. This function modifies the content of the executable programs and may cause
+	 * their corruption.
+	 * 
+	 * @param programs the Windows executables e.g c:/eclipse/eclipse.exe
+	 * @param iconFiles the .ico or .bmp files with the icons to write to the executables
+	 * @return for each program the number of its icons that were not replaced (0 if success)
+	 */
+	public static int[] replaceIcons(String[] programs, String[] iconFiles) throws FileNotFoundException, IOException {
+		ImageData[] icons = loadImages(iconFiles);
+		byte[][] iconBytes = new byte[icons.length][];
+		int[] result = new int[programs.length];
+		for (int i = 0; i < programs.length; i++)
+			result[i] = replaceIcons(programs[i], icons, iconBytes);
+		return result;
+	}
+	
+	/* Implementation */
+
+	static ImageData[] loadImages(String[] iconFiles) {
 		ImageLoader loader = new ImageLoader();
 
 		List images = new ArrayList();
-		for (int i = 1; i < args.length; i++) {
+		for (int i = 0; i < iconFiles.length; i++) {
 			try {
 				//An ICO should contain 7 images, a BMP will contain 1
-				ImageData[] current = loader.load(args[i]);
+				ImageData[] current = loader.load(iconFiles[i]);
 				for (int j = 0; j < current.length; j++) {
 					images.add(current[j]);
 				}
@@ -72,14 +111,8 @@ public class IconExe {
 			}
 		}
 		ImageData[] data = new ImageData[images.size()];
-		data = (ImageData[]) images.toArray(data);
-		
-		int nMissing = unloadIcons(args[0], data);
-		if (nMissing != 0)
-			System.err.println("Error - " + nMissing + " icon(s) not replaced in " + args[0] + " using " + args[1]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return (ImageData[]) images.toArray(data);
 	}
-	
-	/* Implementation */
 
 	/** 
 	 * Retrieve the Desktop icons provided in the Windows executable program.
@@ -138,30 +171,128 @@ public class IconExe {
 	 * @return the number of icons from the original program that were not successfully replaced (0 if success)
 	 */	
 	static int unloadIcons(String program, ImageData[] icons) throws FileNotFoundException, IOException {
+		return replaceIcons(program, icons, new byte[icons.length][]);
+	}
+
+	/**
+	 * Replace the icons of the given program with the matching given icons. The icons
+	 * are converted to the format of the executable when first written and kept in
+	 * iconBytes for the next program.
+	 */
+	static int replaceIcons(String program, ImageData[] icons, byte[][] iconBytes) throws FileNotFoundException, IOException {
 		RandomAccessFile raf = new RandomAccessFile(program, "rw"); //$NON-NLS-1$
-		IconExe iconExe = new IconExe();
-		IconResInfo[] iconInfo = iconExe.getIcons(raf);
-		// Display an error if  no icons found in target executable.
-		if (iconInfo.length == 0) {
-		    System.err.println("Warning - no icons detected in \"" + program + "\"."); //$NON-NLS-1$ //$NON-NLS-2$
-		    raf.close();
-		    return 0;
+		try {
+			FileChannel channel = raf.getChannel();
+			IconEntry[] entries = findIcons(channel);
+			// Display an error if  no icons found in target executable.
+			if (entries.length == 0) {
+			    System.err.println("Warning - no icons detected in \"" + program + "\"."); //$NON-NLS-1$ //$NON-NLS-2$
+			    return 0;
+			}
+			int cnt = 0;
+			for (int i = 0; i < entries.length; i++) {
+				for (int j = 0; j < icons.length; j++) {
+					if (icons[j] == null)
+						continue;
+					if (entries[i].width == icons[j].width && entries[i].height == icons[j].height && entries[i].depth == icons[j].depth) {
+						if (iconBytes[j] == null)
+							iconBytes[j] = iconToBytes(icons[j]);
+						ByteBuffer buffer = ByteBuffer.wrap(iconBytes[j]);
+						while (buffer.hasRemaining())
+							channel.write(buffer, entries[i].offset + buffer.position());
+						cnt++;
+						break;
+					}
+				}
+			}
+			return entries.length - cnt;
+		} finally {
+			raf.close();
 		}
-		int cnt = 0;
-		for (int i = 0; i < iconInfo.length; i++) {
-			for (int j = 0; j < icons.length; j++) {
-				if (icons[j] == null)
-					continue;
-				if (iconInfo[i].data.width == icons[j].width && iconInfo[i].data.height == icons[j].height && iconInfo[i].data.depth == icons[j].depth) {
-					raf.seek(iconInfo[i].offset);
-					unloadIcon(raf, icons[j]);
-					cnt++;
-					break;
+	}
+	
+	/**
+	 * The location and format of an icon in a Windows executable.
+	 */
+	static class IconEntry {
+		int offset;
+		int size;
+		int width;
+		int height;
+		int depth;
+	}
+
+	/**
+	 * Find the icons of the given Windows executable. Only the headers and the
+	 * resource section are read, and of each icon only its BITMAPINFOHEADER.
+	 */
+	static IconEntry[] findIcons(FileChannel channel) throws IOException {
+		ByteBuffer dosHeader = read(channel, 0, 64);
+		if (readU2(dosHeader, 0) != IMAGE_DOS_SIGNATURE) return new IconEntry[0];
+		int imageNtHeadersOffset = dosHeader.getInt(60); // e_lfanew
+		ByteBuffer ntHeaders = read(channel, imageNtHeadersOffset, IMAGE_NT_HEADERS.FIELD_OFFSET_OptionalHeader);
+		if (ntHeaders.getInt(0) != IMAGE_NT_SIGNATURE) return new IconEntry[0];
+		int numberOfSections = readU2(ntHeaders, 6);
+		int sizeOfOptionalHeader = readU2(ntHeaders, 20);
+		// read the optional header and the section headers following it at once
+		ByteBuffer headers = read(channel, imageNtHeadersOffset + IMAGE_NT_HEADERS.FIELD_OFFSET_OptionalHeader, sizeOfOptionalHeader + numberOfSections * 40);
+		// the data directories follow the 64 bit fields of a PE32+ header
+		int dataDirectoryOffset = readU2(headers, 0) == IMAGE_NT_OPTIONAL_HDR64_MAGIC ? 112 : 96;
+		int resourceEntryOffset = dataDirectoryOffset + IMAGE_DIRECTORY_ENTRY_RESOURCE * 8;
+		if (resourceEntryOffset + 8 > sizeOfOptionalHeader) return new IconEntry[0];
+		int resourcesRVA = headers.getInt(resourceEntryOffset);
+		if (resourcesRVA == 0) return new IconEntry[0];
+		for (int i = 0; i < numberOfSections; i++) {
+			int section = sizeOfOptionalHeader + i * 40;
+			int virtualSize = headers.getInt(section + 8);
+			int virtualAddress = headers.getInt(section + 12);
+			if (resourcesRVA >= virtualAddress && resourcesRVA < virtualAddress + virtualSize) {
+				int sizeOfRawData = headers.getInt(section + 16);
+				int pointerToRawData = headers.getInt(section + 20);
+				ByteBuffer resources = read(channel, pointerToRawData, sizeOfRawData);
+				try {
+					return findIcons(resources, resourcesRVA - virtualAddress, virtualAddress, pointerToRawData);
+				} catch (IndexOutOfBoundsException e) {
+					throw new IOException("Invalid resource directory"); //$NON-NLS-1$
 				}
 			}
 		}
-		raf.close();
-		return iconInfo.length - cnt;
+		return new IconEntry[0];
+	}
+
+	static IconEntry[] findIcons(ByteBuffer resources, int resourceBase, int sectionRVA, int sectionOffset) {
+		List entries = new ArrayList();
+		// level 1 resources are resource types, the icons are all the resources of type RT_ICON
+		int namedEntries = readU2(resources, resourceBase + 12);
+		int idEntries = readU2(resources, resourceBase + 14);
+		for (int i = 0; i < idEntries; i++) {
+			int entry = resourceBase + 16 + (namedEntries + i) * 8;
+			if (resources.getInt(entry) == RT_ICON)
+				addIcons(resources, resources.getInt(entry + 4), resourceBase, sectionRVA, sectionOffset, 1, entries);
+		}
+		return (IconEntry[]) entries.toArray(new IconEntry[entries.size()]);
+	}
+
+	static void addIcons(ByteBuffer resources, int offsetToData, int resourceBase, int sectionRVA, int sectionOffset, int level, List entries) {
+		if ((offsetToData & (1 << 31)) != 0) {
+			// resource directories are only three levels deep: type, id and language
+			if (level == 3) return;
+			int directory = resourceBase + (offsetToData & ~(1 << 31));
+			int count = readU2(resources, directory + 12) + readU2(resources, directory + 14);
+			for (int i = 0; i < count; i++)
+				addIcons(resources, resources.getInt(directory + 16 + i * 8 + 4), resourceBase, sectionRVA, sectionOffset, level + 1, entries);
+			return;
+		}
+		// Resource found
+		int dataEntry = resourceBase + offsetToData;
+		int iconOffset = resources.getInt(dataEntry) - sectionRVA;
+		IconEntry icon = new IconEntry();
+		icon.offset = sectionOffset + iconOffset;
+		icon.size = resources.getInt(dataEntry + 4);
+		icon.width = resources.getInt(iconOffset + 4);
+		icon.height = resources.getInt(iconOffset + 8) / 2;
+		icon.depth = readU2(resources, iconOffset + 14);
+		entries.add(icon);
 	}
 	
 	public static final String VERSION = "20050124"; //$NON-NLS-1$
@@ -384,24 +515,30 @@ static byte[] loadData(BITMAPINFOHEADER bih, RandomAccessFile raf, int stride) t
 }
 
 static void unloadIcon(RandomAccessFile raf, ImageData icon) throws IOException {
+	raf.write(iconToBytes(icon));
+}
+static byte[] iconToBytes(ImageData icon) {
 	int sizeImage = (((icon.width * icon.depth + 31) / 32 * 4) +
 		((icon.width + 31) / 32 * 4)) * icon.height;
-	write4(raf, BMPHeaderFixedSize);
-	write4(raf, icon.width);
-	write4(raf, icon.height * 2);
-	writeU2(raf, 1);
-	writeU2(raf, icon.depth);
-	write4(raf, 0);
-	write4(raf, sizeImage);
-	write4(raf, 0);
-	write4(raf, 0);
-	write4(raf, icon.palette.colors != null ? icon.palette.colors.length : 0);
-	write4(raf, 0);
-	
 	byte[] rgbs = paletteToBytes(icon.palette);
-	raf.write(rgbs);
-	unloadShapeData(raf, icon);
-	unloadMaskData(raf, icon);
+	ByteBuffer buffer = ByteBuffer.allocate(BMPHeaderFixedSize + rgbs.length + sizeImage);
+	buffer.order(ByteOrder.LITTLE_ENDIAN);
+	buffer.putInt(BMPHeaderFixedSize);
+	buffer.putInt(icon.width);
+	buffer.putInt(icon.height * 2);
+	buffer.putShort((short) 1);
+	buffer.putShort((short) icon.depth);
+	buffer.putInt(0);
+	buffer.putInt(sizeImage);
+	buffer.putInt(0);
+	buffer.putInt(0);
+	buffer.putInt(icon.palette.colors != null ? icon.palette.colors.length : 0);
+	buffer.putInt(0);
+	
+	buffer.put(rgbs);
+	unloadShapeData(buffer, icon);
+	unloadMaskData(buffer, icon);
+	return buffer.array();
 }
 static byte[] paletteToBytes(PaletteData pal) {
 	int n = pal.colors == null ? 0 : (pal.colors.length < 256 ? pal.colors.length : 256);
@@ -416,7 +553,7 @@ static byte[] paletteToBytes(PaletteData pal) {
 	}
 	return bytes;
 }
-static void unloadMaskData(RandomAccessFile raf, ImageData icon) {
+static void unloadMaskData(ByteBuffer buffer, ImageData icon) {
 	ImageData mask = icon.getTransparencyMask();
 	int bpl = (icon.width + 7) / 8;
 	int pad = mask.scanlinePad;
@@ -425,18 +562,14 @@ static void unloadMaskData(RandomAccessFile raf, ImageData icon) {
 	byte[] buf = new byte[destBpl];
 	int offset = (icon.height - 1) * srcBpl;
 	byte[] data = mask.data;
-	try {
-		for (int i = 0; i < icon.height; i++) {
-			System.arraycopy(data, offset, buf, 0, bpl);
-			bitInvertData(buf, 0, bpl);
-			raf.write(buf, 0, destBpl);
-			offset -= srcBpl;
-		}
-	} catch (IOException e) {
-		SWT.error(SWT.ERROR_IO, e);
+	for (int i = 0; i < icon.height; i++) {
+		System.arraycopy(data, offset, buf, 0, bpl);
+		bitInvertData(buf, 0, bpl);
+		buffer.put(buf, 0, destBpl);
+		offset -= srcBpl;
 	}
 }
-static void unloadShapeData(RandomAccessFile raf, ImageData icon) {
+static void unloadShapeData(ByteBuffer buffer, ImageData icon) {
 	int bpl = (icon.width * icon.depth + 7) / 8;
 	int pad = icon.scanlinePad;
 	int srcBpl = (bpl + pad - 1) / pad * pad;
@@ -444,14 +577,10 @@ static void unloadShapeData(RandomAccessFile raf, ImageData icon) {
 	byte[] buf = new byte[destBpl];
 	int offset = (icon.height - 1) * srcBpl;
 	byte[] data = icon.data;
-	try {
-		for (int i = 0; i < icon.height; i++) {
-			System.arraycopy(data, offset, buf, 0, bpl);
-			raf.write(buf, 0, destBpl);
-			offset -= srcBpl;
-		}
-	} catch (IOException e) {
-		SWT.error(SWT.ERROR_IO, e);
+	for (int i = 0; i < icon.height; i++) {
+		System.arraycopy(data, offset, buf, 0, bpl);
+		buffer.put(buf, 0, destBpl);
+		offset -= srcBpl;
 	}
 }
 static boolean readIconGroup(RandomAccessFile raf, int offset, int size) throws IOException {
@@ -679,6 +808,18 @@ static void read(RandomAccessFile raf, BITMAPINFO bi) throws IOException {
 	read(raf, bi.bmiHeader);
 }
 /* Little Endian helpers */
+static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+	if (size < 0) throw new IOException("Invalid size " + size); //$NON-NLS-1$
+	ByteBuffer buffer = ByteBuffer.allocate(size);
+	buffer.order(ByteOrder.LITTLE_ENDIAN);
+	while (buffer.hasRemaining()) {
+		if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+	}
+	return buffer;
+}
+static int readU2(ByteBuffer buffer, int index) {
+	return buffer.getShort(index) & 0xFFFF;
+}
 static int readU2(RandomAccessFile raf) throws IOException {
 	int b0 = raf.readByte() & 0xFF;
 	int b1 = raf.readByte() & 0xFF;